@@ -27,3 +27,6 @@ wj("services.json", services)
 for service_name in services:
     service = loader.load_service_model(service_name, "service-2")
     wj(service_name + "-metadata.json", service['metadata'])
+    # the full model, only loaded when a client uses service models
+    wj(service_name + "-service-2.json",
+       {k: service[k] for k in ("metadata", "operations", "shapes")})
@@ -0,0 +1,200 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import com.amazonaws.AmazonClientException;
+import okhttp3.HttpUrl;
+
+/**
+ * Limits the requests in flight to each endpoint, finding the limit from the responses rather than
+ * having it configured. Following the gradient algorithm, each response's round trip time is
+ * compared with a long-term average: while they agree the limit grows by about its square root,
+ * and as queueing at the server pushes response times up it shrinks in proportion. Throttling,
+ * server errors and I/O failures cut the limit by {@link #backoffRatio}. Requests over the limit
+ * wait, up to their {@link Deadline} if they have one. Install with {@link
+ * GenericAmazonClient#concurrencyLimiter}.
+ */
+public class AdaptiveConcurrencyLimiter {
+  private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+  private volatile int initialLimit = 20;
+  private volatile int minLimit = 1;
+  private volatile int maxLimit = 1000;
+  private volatile double backoffRatio = 0.9;
+  private volatile double rttTolerance = 1.5;
+  private volatile double smoothing = 0.2;
+  private volatile int longWindow = 600;
+
+  public AdaptiveConcurrencyLimiter initialLimit(int initialLimit) {
+    this.initialLimit = initialLimit;
+    return this;
+  }
+
+  public AdaptiveConcurrencyLimiter minLimit(int minLimit) {
+    this.minLimit = minLimit;
+    return this;
+  }
+
+  public AdaptiveConcurrencyLimiter maxLimit(int maxLimit) {
+    this.maxLimit = maxLimit;
+    return this;
+  }
+
+  /** Multiply the limit by this on throttling or a server error. */
+  public AdaptiveConcurrencyLimiter backoffRatio(double backoffRatio) {
+    this.backoffRatio = backoffRatio;
+    return this;
+  }
+
+  /** How much slower than the long-term average a response can be before the limit shrinks. */
+  public AdaptiveConcurrencyLimiter rttTolerance(double rttTolerance) {
+    this.rttTolerance = rttTolerance;
+    return this;
+  }
+
+  /** The current limit for an endpoint host. */
+  public int getLimit(String host) {
+    Limit limit = limits.get(host);
+    return limit != null ? limit.getLimit() : initialLimit;
+  }
+
+  /** The current limits by endpoint host, e.g. to export as a gauge. */
+  public Map<String, Integer> getLimits() {
+    Map<String, Integer> result = new TreeMap<>();
+    limits.forEach((host, limit) -> result.put(host, limit.getLimit()));
+    return result;
+  }
+
+  public int getInFlight(String host) {
+    Limit limit = limits.get(host);
+    return limit != null ? limit.getInFlight() : 0;
+  }
+
+  Permit acquire(HttpUrl url, Deadline deadline) {
+    return limits
+        .computeIfAbsent(EndpointResolver.getHost(url), host -> new Limit(initialLimit))
+        .acquire(deadline);
+  }
+
+  private class Limit {
+    private double limit;
+    private int inFlight;
+    private double longRtt;
+    private long samples;
+
+    Limit(double limit) {
+      this.limit = limit;
+    }
+
+    synchronized int getLimit() {
+      return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+      return inFlight;
+    }
+
+    synchronized Permit acquire(Deadline deadline) {
+      while (inFlight >= (int) limit) {
+        try {
+          if (deadline == null) {
+            wait();
+          } else if (deadline.isExpired()) {
+            throw new AmazonClientException("deadline exceeded waiting for the concurrency limit");
+          } else {
+            /* wait(0) would wait forever, so wait at least 1ms when under 1ms is left */
+            wait(Math.max(1, deadline.remainingMillis()));
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new AmazonClientException("interrupted", e);
+        }
+      }
+      inFlight += 1;
+      return new Permit(this, inFlight);
+    }
+
+    synchronized void release(long rtt, int startInFlight, boolean dropped) {
+      inFlight -= 1;
+      if (dropped) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+      } else if (rtt >= 0) {
+        /* the long-term average warms up as a plain mean then decays */
+        samples += 1;
+        longRtt += (rtt - longRtt) / Math.min(samples, longWindow);
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / rtt));
+        /* only grow when the limit was actually being used */
+        double queueSize = startInFlight * 2 >= limit ? Math.sqrt(limit) : 0;
+        double newLimit = limit * gradient + queueSize;
+        limit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+      }
+      notifyAll();
+    }
+  }
+
+  /** One request's slot; report how it went with one of the completion methods. */
+  class Permit implements AutoCloseable {
+    private final Limit limit;
+    private final int startInFlight;
+    private final long start = System.nanoTime();
+    private volatile long rtt = -1;
+    private boolean released;
+
+    private Permit(Limit limit, int startInFlight) {
+      this.limit = limit;
+      this.startInFlight = startInFlight;
+    }
+
+    /**
+     * The response headers arrived. The time to them is the latency sample, so that downloading
+     * and parsing a large body doesn't look like the server queueing.
+     */
+    void onResponse() {
+      if (rtt < 0) {
+        rtt = System.nanoTime() - start;
+      }
+    }
+
+    boolean hasResponse() {
+      return rtt >= 0;
+    }
+
+    /** The server answered normally, including a client error. */
+    void onSuccess() {
+      release(rtt >= 0 ? rtt : System.nanoTime() - start, false);
+    }
+
+    /** The server throttled or failed the request, or it couldn't be sent. */
+    void onDropped() {
+      release(-1, true);
+    }
+
+    private void release(long rtt, boolean dropped) {
+      if (!released) {
+        released = true;
+        limit.release(rtt, startInFlight, dropped);
+      }
+    }
+
+    /** Release without a sample if neither completion method was called. */
+    @Override
+    public void close() {
+      release(-1, false);
+    }
+  }
+}
@@ -16,49 +16,84 @@ package com.github.slshen.genaws;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.MissingNode;
 
 public class AmazonServiceData {
   private static Map<String, AmazonServiceData> services;
-  private JsonNode metadata;
   private static final AmazonServiceData UNLOADED =
       new AmazonServiceData(MissingNode.getInstance());
+  /*
+   * Plain strings rather than the metadata tree, so that the services loaded into a native image
+   * at build time hold no Jackson objects.
+   */
+  private final String endpointPrefix;
+  private final String apiVersion;
+  private final String protocol;
+  private final String targetPrefix;
+  private final String jsonVersion;
+
+  static {
+    if ("buildtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"))) {
+      /*
+       * native-image.properties has this class initialized while the image is built, so parse
+       * every service now and the image heap holds the strings; the json isn't read at run time.
+       */
+      for (String serviceName : getServiceNames()) {
+        getServiceData(serviceName);
+      }
+    }
+  }
 
   public AmazonServiceData(JsonNode metadata) {
-    this.metadata = metadata;
+    this.endpointPrefix = metadata.path("endpointPrefix").asText();
+    this.apiVersion = metadata.path("apiVersion").asText();
+    this.protocol = metadata.path("protocol").asText();
+    this.targetPrefix = metadata.path("targetPrefix").asText();
+    this.jsonVersion = metadata.path("jsonVersion").asText();
   }
 
   public String getEndpointPrefix() {
-    return metadata.path("endpointPrefix").asText();
+    return endpointPrefix;
   }
 
   public String getApiVersion() {
-    return metadata.path("apiVersion").asText();
+    return apiVersion;
   }
 
   public String getProtocol() {
-    return metadata.path("protocol").asText();
+    return protocol;
+  }
+
+  /** The names of all the services there's metadata for. */
+  public static synchronized Set<String> getServiceNames() {
+    return Collections.unmodifiableSet(new TreeSet<>(getServices().keySet()));
+  }
+
+  private static Map<String, AmazonServiceData> getServices() {
+    if (services == null) {
+      services = new HashMap<>();
+      try (InputStream in = AmazonServiceData.class.getResourceAsStream("data/services.json")) {
+        for (JsonNode n : new ObjectMapper().readTree(in)) {
+          services.put(n.asText(), UNLOADED);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("corrupt service metadata", e);
+      }
+    }
+    return services;
   }
 
   public static synchronized AmazonServiceData getServiceData(String serviceName) {
     ObjectMapper m = new ObjectMapper();
     try {
-      if (services == null) {
-        services = new HashMap<>();
-        InputStream in = AmazonServiceData.class.getResourceAsStream("data/services.json");
-        try {
-          for (JsonNode n : m.readTree(in)) {
-            services.put(n.asText(), UNLOADED);
-          }
-        } finally {
-          in.close();
-        }
-      }
-      if (!services.containsKey(serviceName)) {
+      if (!getServices().containsKey(serviceName)) {
         throw new IllegalArgumentException("unknown service " + serviceName);
       }
       AmazonServiceData service = services.get(serviceName);
@@ -79,10 +114,10 @@ public class AmazonServiceData {
   }
 
   public String getTargetPrefix() {
-    return metadata.path("targetPrefix").asText();
+    return targetPrefix;
   }
 
   public String getJsonVersion() {
-    return metadata.path("jsonVersion").asText();
+    return jsonVersion;
   }
 }
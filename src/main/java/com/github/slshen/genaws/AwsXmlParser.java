@@ -26,7 +26,6 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeCreator;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 
 /** Parse an AWS query style XML message into a JSON tree. */
 class AwsXmlParser {
@@ -61,7 +60,7 @@ class AwsXmlParser {
           {
             Frame frame = stack.peek();
             if (frame.content.isMissingNode()) {
-              frame.content = new TextNode(reader.getText());
+              frame.content = creator.textNode(reader.getText());
             }
           }
           break;
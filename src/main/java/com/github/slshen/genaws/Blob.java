@@ -0,0 +1,193 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Base64;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.POJONode;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * A binary blob parameter, e.g. the Kinesis {@code Data} member. Put one in the parameters with
+ * {@code parameters.putPOJO("Data", Blob.of(buffer))}; it's base64 encoded as the request body is
+ * written rather than being copied into a string first.
+ */
+public abstract class Blob implements JsonSerializable {
+  private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+  public static Blob of(byte[] data) {
+    return of(ByteBuffer.wrap(data));
+  }
+
+  /** The blob is the remaining bytes of {@code buffer}; the buffer's position isn't changed. */
+  public static Blob of(ByteBuffer buffer) {
+    return new ByteBufferBlob(buffer.slice());
+  }
+
+  /** The blob is {@code count} bytes of {@code channel} starting at {@code position}. */
+  public static Blob of(FileChannel channel, long position, long count) {
+    return new FileChannelBlob(channel, position, count);
+  }
+
+  public abstract long length();
+
+  /** Open a new stream over the content; each stream starts at the beginning of the blob. */
+  public abstract InputStream openStream() throws IOException;
+
+  public String toBase64() throws IOException {
+    try (InputStream in = openStream()) {
+      return Base64.getEncoder().encodeToString(in.readAllBytes());
+    }
+  }
+
+  /** A request body that streams the blob, e.g. for a rest protocol payload member. */
+  public RequestBody toRequestBody() {
+    return new RequestBody() {
+      @Override
+      public MediaType contentType() {
+        return OCTET_STREAM;
+      }
+
+      @Override
+      public long contentLength() {
+        return length();
+      }
+
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        try (InputStream in = openStream()) {
+          sink.writeAll(Okio.source(in));
+        }
+      }
+    };
+  }
+
+  @Override
+  public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+    if (length() > Integer.MAX_VALUE) {
+      throw new IOException("blob too large for a JSON payload");
+    }
+    try (InputStream in = openStream()) {
+      gen.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, in, (int) length());
+    }
+  }
+
+  @Override
+  public void serializeWithType(
+      JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+      throws IOException {
+    serialize(gen, serializers);
+  }
+
+  static Blob getBlob(JsonNode node) {
+    if (node instanceof POJONode && ((POJONode) node).getPojo() instanceof Blob) {
+      return (Blob) ((POJONode) node).getPojo();
+    }
+    return null;
+  }
+
+  private static class ByteBufferBlob extends Blob {
+    private final ByteBuffer buffer;
+
+    ByteBufferBlob(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public long length() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public InputStream openStream() {
+      ByteBuffer b = buffer.duplicate();
+      return new InputStream() {
+        @Override
+        public int read() {
+          return b.hasRemaining() ? b.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] dst, int off, int len) {
+          if (!b.hasRemaining()) {
+            return -1;
+          }
+          int n = Math.min(len, b.remaining());
+          b.get(dst, off, n);
+          return n;
+        }
+      };
+    }
+  }
+
+  private static class FileChannelBlob extends Blob {
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+
+    FileChannelBlob(FileChannel channel, long position, long count) {
+      this.channel = channel;
+      this.position = position;
+      this.count = count;
+    }
+
+    @Override
+    public long length() {
+      return count;
+    }
+
+    @Override
+    public InputStream openStream() {
+      /*
+       * Positional reads so that the same blob can be written more than once
+       * (hashing, retries) and shared between threads.
+       */
+      return new InputStream() {
+        private long offset;
+
+        @Override
+        public int read() throws IOException {
+          byte[] b = new byte[1];
+          return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] dst, int off, int len) throws IOException {
+          if (offset >= count) {
+            return -1;
+          }
+          int n = (int) Math.min(len, count - offset);
+          n = channel.read(ByteBuffer.wrap(dst, off, n), position + offset);
+          if (n > 0) {
+            offset += n;
+          }
+          return n;
+        }
+      };
+    }
+  }
+}
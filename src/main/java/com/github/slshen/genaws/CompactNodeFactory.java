@@ -0,0 +1,80 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * A node factory for large parsed responses that are kept around, e.g. cached {@code
+ * DescribeInstances} results. Short text values that repeat (instance types, zones, states, tag
+ * keys) share one {@link TextNode} and string instead of each having their own, and objects and
+ * arrays start with small tables since most have only a few members. Field names don't need this,
+ * both the XML and JSON parsers already canonicalize them.
+ *
+ * <p>Repeated values are found with a fixed size table that keeps the last value for each slot, so
+ * the factory never holds more than its size in nodes. Give {@link
+ * GenericAmazonClient#nodeFactory} a new factory for each parse, or one shared factory so that
+ * values are also shared between responses; a shared factory is safe to use from many threads.
+ */
+public class CompactNodeFactory extends JsonNodeFactory {
+  private static final long serialVersionUID = 1L;
+  /* longer values rarely repeat */
+  private static final int MAX_LENGTH = 64;
+  private final TextNode[] table;
+
+  public CompactNodeFactory() {
+    this(4096);
+  }
+
+  /** Remember up to {@code size}, rounded up to a power of two, distinct values. */
+  public CompactNodeFactory(int size) {
+    super(false);
+    table = new TextNode[Integer.highestOneBit(Math.max(size - 1, 1)) << 1];
+  }
+
+  @Override
+  public TextNode textNode(String text) {
+    if (text == null || text.isEmpty() || text.length() > MAX_LENGTH) {
+      return super.textNode(text);
+    }
+    int h = text.hashCode();
+    int i = (h ^ (h >>> 16)) & (table.length - 1);
+    /*
+     * Racing threads may replace each other's entries, but a TextNode is immutable so whichever
+     * one is read is complete.
+     */
+    TextNode node = table[i];
+    if (node == null || !node.textValue().equals(text)) {
+      node = new TextNode(text);
+      table[i] = node;
+    }
+    return node;
+  }
+
+  @Override
+  public ObjectNode objectNode() {
+    return new ObjectNode(this, new LinkedHashMap<>(4));
+  }
+
+  @Override
+  public ArrayNode arrayNode() {
+    return new ArrayNode(this, new ArrayList<>(4));
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.time.Duration;
+
+/**
+ * A point in time by which a request, including all of its retries, has to complete. Attach one to
+ * a request with {@link GenericAmazonActionBuilder#deadline}; the same deadline can be shared by
+ * several requests that make up one larger operation.
+ */
+public final class Deadline {
+  private final long deadlineNanos;
+
+  private Deadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  public static Deadline after(Duration timeout) {
+    return new Deadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  /** The time left, or zero or less once the deadline has passed. */
+  public long remainingMillis() {
+    return Math.floorDiv(deadlineNanos - System.nanoTime(), 1_000_000L);
+  }
+
+  public boolean isExpired() {
+    return deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline[" + remainingMillis() + "ms]";
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import okhttp3.HttpUrl;
+
+/**
+ * Resolves endpoints from a table of each service's regional endpoints, which is computed once per
+ * endpoint prefix and then shared. Overrides, e.g. a VPC interface endpoint or a local stand-in,
+ * take precedence, and FIPS or dual-stack endpoints can be chosen for services that have them.
+ */
+public class DefaultEndpointResolver implements EndpointResolver {
+  private static final Map<String, Map<Regions, HttpUrl>> standardEndpoints =
+      new ConcurrentHashMap<>();
+  private final Map<String, HttpUrl> serviceOverrides = new ConcurrentHashMap<>();
+  private final Map<String, Map<Regions, HttpUrl>> regionOverrides = new ConcurrentHashMap<>();
+  private volatile Resolved resolved = new Resolved(false, false);
+
+  /*
+   * The endpoints resolved with one set of options. Changing an option or an override replaces
+   * it, so a resolve that's in progress meanwhile can't put a stale endpoint in the new one.
+   */
+  private static class Resolved {
+    final boolean fips;
+    final boolean dualStack;
+    final Map<String, Map<Regions, HttpUrl>> endpoints = new ConcurrentHashMap<>();
+
+    Resolved(boolean fips, boolean dualStack) {
+      this.fips = fips;
+      this.dualStack = dualStack;
+    }
+  }
+
+  /** Build the endpoint tables for {@code serviceNames} now rather than on first use. */
+  public DefaultEndpointResolver(String... serviceNames) {
+    for (String serviceName : serviceNames) {
+      getStandardEndpoints(AmazonServiceData.getServiceData(serviceName).getEndpointPrefix());
+    }
+  }
+
+  /** Send requests for {@code serviceName} in every region to {@code endpoint}. */
+  public synchronized DefaultEndpointResolver override(String serviceName, HttpUrl endpoint) {
+    serviceOverrides.put(serviceName, endpoint);
+    resolved = new Resolved(resolved.fips, resolved.dualStack);
+    return this;
+  }
+
+  /**
+   * Send requests for {@code serviceName} in {@code region} to {@code endpoint}, e.g. {@code
+   * https://vpce-0123-abcd.sts.us-east-1.vpce.amazonaws.com}.
+   */
+  public synchronized DefaultEndpointResolver override(
+      String serviceName, Regions region, HttpUrl endpoint) {
+    regionOverrides
+        .computeIfAbsent(serviceName, s -> new ConcurrentHashMap<>())
+        .put(region, endpoint);
+    resolved = new Resolved(resolved.fips, resolved.dualStack);
+    return this;
+  }
+
+  /** Use {@code service-fips.region} endpoints. */
+  public synchronized DefaultEndpointResolver fips(boolean fips) {
+    resolved = new Resolved(fips, resolved.dualStack);
+    return this;
+  }
+
+  /** Use {@code service.dualstack.region} endpoints, which resolve to IPv6 as well as IPv4. */
+  public synchronized DefaultEndpointResolver dualStack(boolean dualStack) {
+    resolved = new Resolved(resolved.fips, dualStack);
+    return this;
+  }
+
+  @Override
+  public HttpUrl resolve(Regions region, String serviceName) {
+    Resolved r = resolved;
+    return r.endpoints
+        .computeIfAbsent(serviceName, s -> new ConcurrentHashMap<>())
+        .computeIfAbsent(region, rg -> compute(rg, serviceName, r.fips, r.dualStack));
+  }
+
+  private HttpUrl compute(Regions region, String serviceName, boolean fips, boolean dualStack) {
+    Map<Regions, HttpUrl> overrides = regionOverrides.get(serviceName);
+    if (overrides != null && overrides.containsKey(region)) {
+      return overrides.get(region);
+    }
+    if (serviceOverrides.containsKey(serviceName)) {
+      return serviceOverrides.get(serviceName);
+    }
+    String endpointPrefix = AmazonServiceData.getServiceData(serviceName).getEndpointPrefix();
+    HttpUrl endpoint = getStandardEndpoint(region, endpointPrefix);
+    if (!fips && !dualStack) {
+      return endpoint;
+    }
+    String host = endpoint.host();
+    if (!host.startsWith(endpointPrefix + ".")) {
+      throw new IllegalArgumentException("no fips or dual-stack endpoint for " + host);
+    }
+    String rest = host.substring(endpointPrefix.length());
+    return endpoint
+        .newBuilder()
+        .host(endpointPrefix + (fips ? "-fips" : "") + (dualStack ? ".dualstack" : "") + rest)
+        .build();
+  }
+
+  /** The usual endpoint for {@code endpointPrefix} in {@code region}. */
+  public static HttpUrl getStandardEndpoint(Regions region, String endpointPrefix) {
+    HttpUrl endpoint = getStandardEndpoints(endpointPrefix).get(region);
+    if (endpoint == null) {
+      throw new IllegalArgumentException(
+          "no " + endpointPrefix + " endpoint in " + region.getName());
+    }
+    return endpoint;
+  }
+
+  private static Map<Regions, HttpUrl> getStandardEndpoints(String endpointPrefix) {
+    return standardEndpoints.computeIfAbsent(
+        endpointPrefix,
+        p -> {
+          Map<Regions, HttpUrl> endpoints = new EnumMap<>(Regions.class);
+          for (Regions region : Regions.values()) {
+            String host = Region.getRegion(region).getServiceEndpoint(p);
+            if (host != null) {
+              endpoints.put(region, new HttpUrl.Builder().scheme("https").host(host).build());
+            }
+          }
+          return Map.copyOf(endpoints);
+        });
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import com.amazonaws.regions.Regions;
+import okhttp3.HttpUrl;
+
+/**
+ * Decides where requests for a service in a region are sent. Only the scheme, host and port of the
+ * result are used; requests are still signed for the service's own region and signing name.
+ */
+public interface EndpointResolver {
+  HttpUrl resolve(Regions region, String serviceName);
+
+  /** The {@code Host} header for requests to {@code url}, which is also what gets signed. */
+  static String getHost(HttpUrl url) {
+    return url.port() == HttpUrl.defaultPort(url.scheme())
+        ? url.host()
+        : url.host() + ":" + url.port();
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import com.amazonaws.regions.Regions;
+
+/**
+ * Runs the same action against many (region, account) targets at once, e.g. {@code
+ * DescribeInstances} in every region of every account. Calls are capped globally and per region,
+ * regions take turns so one busy region doesn't hold up the others, and each result is passed on
+ * as soon as it's available. A failure only fails its own target.
+ */
+public class FanOutExecutor implements AutoCloseable {
+  private final GenericAmazonClient client;
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "aws-fan-out");
+            t.setDaemon(true);
+            return t;
+          });
+  private int maxConcurrency = 64;
+  private int maxConcurrencyPerRegion = 16;
+
+  /** All the calls go through {@code client}, each signed with its target's credentials. */
+  public FanOutExecutor(GenericAmazonClient client) {
+    this.client = client;
+  }
+
+  public FanOutExecutor maxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
+
+  public FanOutExecutor maxConcurrencyPerRegion(int maxConcurrencyPerRegion) {
+    this.maxConcurrencyPerRegion = maxConcurrencyPerRegion;
+    return this;
+  }
+
+  /**
+   * Call {@code action} on every target, returning when they've all finished. {@code results} is
+   * called from the worker threads as each call completes, but never concurrently.
+   *
+   * @param template sets the parameters, path, etc. of each target's request
+   */
+  public void execute(
+      Collection<FanOutTarget> targets,
+      String serviceName,
+      String action,
+      Consumer<GenericAmazonActionBuilder> template,
+      Consumer<FanOutResult> results)
+      throws InterruptedException {
+    Run run = new Run(serviceName, action, template, results);
+    for (FanOutTarget target : targets) {
+      run.pending.computeIfAbsent(target.getRegion(), r -> new ArrayDeque<>()).add(target);
+    }
+    run.remaining = targets.size();
+    run.dispatch();
+    run.await();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private class Run {
+    private final String serviceName;
+    private final String action;
+    private final Consumer<GenericAmazonActionBuilder> template;
+    private final Consumer<FanOutResult> results;
+    // regions in the order they'll next be served
+    private final Map<Regions, Deque<FanOutTarget>> pending = new LinkedHashMap<>();
+    private final Map<Regions, Integer> running = new HashMap<>();
+    private int runningTotal;
+    private int remaining;
+
+    Run(
+        String serviceName,
+        String action,
+        Consumer<GenericAmazonActionBuilder> template,
+        Consumer<FanOutResult> results) {
+      this.serviceName = serviceName;
+      this.action = action;
+      this.template = template;
+      this.results = results;
+    }
+
+    synchronized void dispatch() {
+      while (runningTotal < maxConcurrency) {
+        FanOutTarget next = null;
+        for (Iterator<Map.Entry<Regions, Deque<FanOutTarget>>> iter = pending.entrySet().iterator();
+            iter.hasNext(); ) {
+          Map.Entry<Regions, Deque<FanOutTarget>> entry = iter.next();
+          if (running.getOrDefault(entry.getKey(), 0) < maxConcurrencyPerRegion) {
+            next = entry.getValue().remove();
+            iter.remove();
+            if (!entry.getValue().isEmpty()) {
+              // move the region to the back of the line
+              pending.put(entry.getKey(), entry.getValue());
+            }
+            break;
+          }
+        }
+        if (next == null) {
+          return;
+        }
+        FanOutTarget target = next;
+        runningTotal += 1;
+        running.merge(target.getRegion(), 1, Integer::sum);
+        executor.execute(() -> call(target));
+      }
+    }
+
+    private void call(FanOutTarget target) {
+      /* count the target as finished even if an Error escapes, so await returns */
+      try {
+        FanOutResult result;
+        try {
+          GenericAmazonActionBuilder builder =
+              client
+                  .newActionBuilder(target.getRegion(), serviceName, action)
+                  .credentials(target.getSigningCredentialsProvider());
+          template.accept(builder);
+          result = new FanOutResult(target, client.execute(builder.build()), null);
+        } catch (RuntimeException e) {
+          result = new FanOutResult(target, null, e);
+        }
+        synchronized (results) {
+          results.accept(result);
+        }
+      } finally {
+        synchronized (this) {
+          runningTotal -= 1;
+          running.merge(target.getRegion(), -1, Integer::sum);
+          remaining -= 1;
+          notifyAll();
+        }
+        dispatch();
+      }
+    }
+
+    synchronized void await() throws InterruptedException {
+      while (remaining > 0) {
+        wait();
+      }
+    }
+  }
+}
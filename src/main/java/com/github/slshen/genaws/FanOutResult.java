@@ -0,0 +1,46 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/** The outcome of one call of a fan-out, either a result or the error it failed with. */
+public class FanOutResult {
+  private final FanOutTarget target;
+  private final JsonNode result;
+  private final RuntimeException error;
+
+  FanOutResult(FanOutTarget target, JsonNode result, RuntimeException error) {
+    this.target = target;
+    this.result = result;
+    this.error = error;
+  }
+
+  public FanOutTarget getTarget() {
+    return target;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  public JsonNode getResult() {
+    return result;
+  }
+
+  public RuntimeException getError() {
+    return error;
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import com.github.slshen.genaws.auth.SdkCredentialsProvider;
+
+/** Where one call of a fan-out goes: a region and the credentials of an account. */
+public class FanOutTarget {
+  private final Regions region;
+  private final CredentialsProvider credentialsProvider;
+  private final String label;
+
+  /** @param label identifies the target in results, e.g. an account ID */
+  public FanOutTarget(Regions region, CredentialsProvider credentialsProvider, String label) {
+    this.region = region;
+    this.credentialsProvider = credentialsProvider;
+    this.label = label;
+  }
+
+  public FanOutTarget(Regions region, AWSCredentialsProvider credentialsProvider, String label) {
+    this(region, SdkCredentialsProvider.of(credentialsProvider), label);
+  }
+
+  public Regions getRegion() {
+    return region;
+  }
+
+  /** The target's credentials, as an SDK provider if they weren't given as one. */
+  public AWSCredentialsProvider getCredentialsProvider() {
+    return SdkCredentialsProvider.toSdk(credentialsProvider);
+  }
+
+  /** The credentials the target's requests are signed with. */
+  public CredentialsProvider getSigningCredentialsProvider() {
+    return credentialsProvider;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  @Override
+  public String toString() {
+    return label + "/" + region.getName();
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that's a region of a file. The region is read with positional reads (or from a
+ * memory mapping) each time the body is written, so it can be hashed, retried and shared between
+ * threads without ever being copied into the heap.
+ */
+public abstract class FileRequestBody extends RequestBody {
+  private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+  private final long count;
+
+  FileRequestBody(long count) {
+    this.count = count;
+  }
+
+  public static FileRequestBody of(FileChannel channel, long position, long count) {
+    return new FileRequestBody(count) {
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        long written = 0;
+        while (written < count) {
+          long n = channel.transferTo(position + written, count - written, sink);
+          if (n <= 0) {
+            throw new IOException("file truncated");
+          }
+          written += n;
+        }
+      }
+    };
+  }
+
+  /** Map the region into memory, which avoids a read system call for each segment written. */
+  public static FileRequestBody mapped(FileChannel channel, long position, long count)
+      throws IOException {
+    ByteBuffer mapped = channel.map(MapMode.READ_ONLY, position, count);
+    return new FileRequestBody(count) {
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        ByteBuffer b = mapped.duplicate();
+        while (b.hasRemaining()) {
+          sink.write(b);
+        }
+      }
+    };
+  }
+
+  @Override
+  public MediaType contentType() {
+    return OCTET_STREAM;
+  }
+
+  @Override
+  public long contentLength() {
+    return count;
+  }
+}
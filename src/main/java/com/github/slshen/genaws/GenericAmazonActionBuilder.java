@@ -14,14 +14,29 @@
 
 package com.github.slshen.genaws;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.auth.AwsV4Signer;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import com.github.slshen.genaws.auth.PayloadSigning;
+import com.github.slshen.genaws.auth.SdkCredentialsProvider;
 import com.google.common.base.Strings;
 import okhttp3.FormBody;
+import okhttp3.Headers;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Request;
@@ -30,12 +45,25 @@ import okhttp3.RequestBody;
 public class GenericAmazonActionBuilder {
 
   private static final String X_AMZ_TARGET = "X-Amz-Target";
+  private static final Pattern URI_LABEL = Pattern.compile("\\{([^}+]+)(\\+?)\\}");
   private Regions region;
   private AmazonServiceData service;
   private String action;
   private String path;
   private JsonNode parameters = MissingNode.getInstance();
-  private String method = "POST";
+  private String method;
+  private String bucket;
+  private String key;
+  private boolean pathStyle;
+  private RequestBody body;
+  private PayloadSigning payloadSigning;
+  private HttpUrl endpoint;
+  private OperationModel operation;
+  private CredentialsProvider credentialsProvider;
+  private Deadline deadline;
+  private ReadTimeout readTimeout;
+  private PriorityClass priorityClass;
+  private final Headers.Builder headers = new Headers.Builder();
 
   public GenericAmazonActionBuilder(Regions region, AmazonServiceData service, String action) {
     this.region = region;
@@ -58,17 +86,155 @@ public class GenericAmazonActionBuilder {
     return this;
   }
 
+  /**
+   * Use the operation's model to bind the parameters of a rest protocol request to its URI, query
+   * string, headers and body, and to parse the response.
+   */
+  public GenericAmazonActionBuilder operation(OperationModel operation) {
+    this.operation = operation;
+    return this;
+  }
+
+  /**
+   * Sign the request with {@code credentialsProvider} rather than the client's credentials, so one
+   * client can serve many accounts.
+   */
+  public GenericAmazonActionBuilder credentials(CredentialsProvider credentialsProvider) {
+    this.credentialsProvider = credentialsProvider;
+    return this;
+  }
+
+  public GenericAmazonActionBuilder credentials(AWSCredentialsProvider credentialsProvider) {
+    return credentials(SdkCredentialsProvider.of(credentialsProvider));
+  }
+
+  /** Queue the request as {@code priorityClass} when the client has a {@link RequestScheduler}. */
+  public GenericAmazonActionBuilder priority(PriorityClass priorityClass) {
+    this.priorityClass = priorityClass;
+    return this;
+  }
+
+  /**
+   * Bound the total time spent on the request, including retries and backoff. Each attempt's
+   * timeout is cut to the time remaining and the call is cancelled when the deadline passes.
+   */
+  public GenericAmazonActionBuilder deadline(Deadline deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
+  public GenericAmazonActionBuilder deadline(Duration timeout) {
+    return deadline(Deadline.after(timeout));
+  }
+
+  /**
+   * Override the client's read timeout for this request, e.g. for a long poll that waits longer
+   * than it. A {@link #deadline} still cuts it short.
+   */
+  public GenericAmazonActionBuilder readTimeout(Duration readTimeout) {
+    this.readTimeout = new ReadTimeout((int) readTimeout.toMillis());
+    return this;
+  }
+
+  /**
+   * Send the request to {@code endpoint} rather than the service's regional endpoint, e.g. for a
+   * local stand-in. Only the scheme, host and port are used.
+   */
+  public GenericAmazonActionBuilder endpoint(HttpUrl endpoint) {
+    this.endpoint = endpoint;
+    return this;
+  }
+
+  /** For S3, the bucket; it's addressed host-style where possible. */
+  public GenericAmazonActionBuilder bucket(String bucket) {
+    this.bucket = bucket;
+    return this;
+  }
+
+  /** For S3, the object key. */
+  public GenericAmazonActionBuilder key(String key) {
+    this.key = key;
+    return this;
+  }
+
+  /** Force path-style bucket addressing. */
+  public GenericAmazonActionBuilder pathStyle(boolean pathStyle) {
+    this.pathStyle = pathStyle;
+    return this;
+  }
+
+  /**
+   * Set the request body for a rest-xml request, e.g. a {@link FileRequestBody}. For these
+   * protocols the parameters are sent in the query string.
+   */
+  public GenericAmazonActionBuilder body(RequestBody body) {
+    this.body = body;
+    return this;
+  }
+
+  public GenericAmazonActionBuilder header(String name, String value) {
+    headers.add(name, value);
+    return this;
+  }
+
+  /**
+   * How the payload is covered by the signature, by default it's hashed. {@link
+   * PayloadSigning#STREAMING} avoids reading the body twice for large uploads.
+   */
+  public GenericAmazonActionBuilder payloadSigning(PayloadSigning payloadSigning) {
+    this.payloadSigning = payloadSigning;
+    return this;
+  }
+
   public Request build() {
+    String method =
+        this.method != null
+            ? this.method
+            : operation != null ? operation.getHttpMethod() : "POST";
     Region regionData = Region.getRegion(region);
-    HttpUrl url = getUrl(regionData);
+    HttpUrl url = getUrl();
     Request.Builder builder =
-        new Request.Builder().tag(Region.class, regionData).tag(AmazonServiceData.class, service);
+        new Request.Builder()
+            .tag(Region.class, regionData)
+            .tag(AmazonServiceData.class, service)
+            .headers(headers.build());
+    if (action != null) {
+      builder.tag(AmazonAction.class, new AmazonAction(action));
+    }
+    if (payloadSigning != null) {
+      builder.tag(PayloadSigning.class, payloadSigning);
+    }
+    if (operation != null) {
+      builder.tag(OperationModel.class, operation);
+    }
+    if (credentialsProvider != null) {
+      builder.tag(CredentialsProvider.class, credentialsProvider);
+    }
+    if (deadline != null) {
+      builder.tag(Deadline.class, deadline);
+    }
+    if (readTimeout != null) {
+      builder.tag(ReadTimeout.class, readTimeout);
+    }
+    if (priorityClass != null) {
+      builder.tag(PriorityClass.class, priorityClass);
+    }
     String protocol = service.getProtocol();
     if (service.getProtocol().equals("json")) {
       builder.addHeader(X_AMZ_TARGET, service.getTargetPrefix() + "." + action);
     }
     RequestBody body = null;
-    if (protocol.equals("query") || protocol.equals("ec2")) {
+    if (operation != null && (protocol.equals("rest-json") || protocol.equals("rest-xml"))) {
+      HttpUrl.Builder urlBuilder = url.newBuilder();
+      body = bindRest(urlBuilder, builder);
+      url = urlBuilder.build();
+      if (this.body != null) {
+        body = this.body;
+      }
+      if (body == null && (method.equals("POST") || method.equals("PUT"))) {
+        body = RequestBody.create(new byte[0]);
+      }
+    } else if (protocol.equals("query") || protocol.equals("ec2")) {
       if (method.equals("POST")) {
         FormBody.Builder bodyBuilder = new FormBody.Builder();
         bodyBuilder.add("Action", action);
@@ -85,26 +251,154 @@ public class GenericAmazonActionBuilder {
     } else if (protocol.equals("rest-json") || protocol.equals("json")) {
       if (method.equals("POST")) {
         body =
-            RequestBody.create(
-                parameters.isObject() ? parameters.toString() : "{}",
+            new JsonRequestBody(
+                parameters.isObject() ? parameters : JsonNodeFactory.instance.objectNode(),
                 MediaType.get("application/x-amz-json-" + service.getJsonVersion()));
       } else {
         HttpUrl.Builder urlBuilder = url.newBuilder();
         flatten(urlBuilder::addQueryParameter, parameters, null);
         url = urlBuilder.build();
       }
+    } else if (protocol.equals("rest-xml")) {
+      HttpUrl.Builder urlBuilder = url.newBuilder();
+      flatten(urlBuilder::addQueryParameter, parameters, null);
+      url = urlBuilder.build();
+      body = this.body;
+      if (body == null && (method.equals("POST") || method.equals("PUT"))) {
+        body = RequestBody.create(new byte[0]);
+      }
     } else {
       throw new IllegalStateException("unknown protocol " + protocol);
     }
     return builder.method(method, body).url(url).build();
   }
 
-  private HttpUrl getUrl(Region regionData) {
-    return new HttpUrl.Builder()
-        .host(regionData.getServiceEndpoint(service.getEndpointPrefix()))
-        .addPathSegments(Strings.nullToEmpty(path))
-        .scheme("https")
-        .build();
+  /**
+   * Bind the parameters to the URI, query string and headers as the operation's input shape says.
+   *
+   * @return the body, if there is one
+   */
+  private RequestBody bindRest(HttpUrl.Builder urlBuilder, Request.Builder builder) {
+    Shape input = operation.getInput();
+    String requestUri = operation.getRequestUri();
+    int q = requestUri.indexOf('?');
+    String pathTemplate = q >= 0 ? requestUri.substring(0, q) : requestUri;
+    if (q >= 0) {
+      for (String parameter : requestUri.substring(q + 1).split("&")) {
+        int eq = parameter.indexOf('=');
+        urlBuilder.addEncodedQueryParameter(
+            eq >= 0 ? parameter.substring(0, eq) : parameter,
+            eq >= 0 ? parameter.substring(eq + 1) : "");
+      }
+    }
+    Map<String, String> uriParameters = new HashMap<>();
+    ObjectNode bodyParameters = JsonNodeFactory.instance.objectNode();
+    for (Iterator<Map.Entry<String, JsonNode>> iter = parameters.fields(); iter.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = iter.next();
+      Shape.Member member = input != null ? input.members.get(field.getKey()) : null;
+      String location = member != null ? member.location : null;
+      JsonNode value = field.getValue();
+      if ("uri".equals(location)) {
+        uriParameters.put(member.locationName, value.asText());
+      } else if ("querystring".equals(location)) {
+        if (value.isArray()) {
+          value.forEach(v -> urlBuilder.addQueryParameter(member.locationName, v.asText()));
+        } else if (value.isObject()) {
+          value
+              .fields()
+              .forEachRemaining(
+                  e -> urlBuilder.addQueryParameter(e.getKey(), e.getValue().asText()));
+        } else {
+          urlBuilder.addQueryParameter(member.locationName, value.asText());
+        }
+      } else if ("header".equals(location)) {
+        builder.header(member.locationName, value.asText());
+      } else if ("headers".equals(location)) {
+        // a map of headers with a common prefix
+        value
+            .fields()
+            .forEachRemaining(
+                e -> builder.header(member.locationName + e.getKey(), e.getValue().asText()));
+      } else {
+        bodyParameters.set(field.getKey(), value);
+      }
+    }
+    if (path == null && bucket == null && key == null) {
+      StringBuilder encodedPath = new StringBuilder();
+      Matcher m = URI_LABEL.matcher(pathTemplate);
+      int last = 0;
+      while (m.find()) {
+        encodedPath.append(pathTemplate, last, m.start());
+        String value = uriParameters.get(m.group(1));
+        if (value == null) {
+          throw new IllegalArgumentException("missing uri parameter " + m.group(1));
+        }
+        if (m.group(2).isEmpty()) {
+          encodedPath.append(AwsV4Signer.uriEncode(value));
+        } else {
+          // greedy labels keep their slashes
+          String[] segments = value.split("/", -1);
+          for (int i = 0; i < segments.length; i++) {
+            encodedPath.append(i > 0 ? "/" : "").append(AwsV4Signer.uriEncode(segments[i]));
+          }
+        }
+        last = m.end();
+      }
+      urlBuilder.encodedPath(encodedPath.append(pathTemplate.substring(last)).toString());
+    }
+    MediaType contentType = MediaType.get("application/x-amz-json-" + service.getJsonVersion());
+    if (input != null && input.payload != null) {
+      JsonNode payload = bodyParameters.path(input.payload);
+      if (Blob.getBlob(payload) != null) {
+        return Blob.getBlob(payload).toRequestBody();
+      } else if (payload.isTextual()) {
+        return RequestBody.create(payload.asText(), null);
+      } else if (payload.isObject() && service.getProtocol().equals("rest-json")) {
+        return new JsonRequestBody(payload, contentType);
+      }
+      return null;
+    } else if (bodyParameters.size() > 0 && service.getProtocol().equals("rest-json")) {
+      return new JsonRequestBody(bodyParameters, contentType);
+    }
+    return null;
+  }
+
+  private HttpUrl getUrl() {
+    HttpUrl.Builder builder = new HttpUrl.Builder();
+    HttpUrl endpoint =
+        this.endpoint != null
+            ? this.endpoint
+            : DefaultEndpointResolver.getStandardEndpoint(region, service.getEndpointPrefix());
+    String host = endpoint.host();
+    builder.scheme(endpoint.scheme()).port(endpoint.port());
+    if (bucket != null) {
+      if (!pathStyle && isDnsCompatible(bucket)) {
+        host = bucket + "." + host;
+      } else {
+        builder.addEncodedPathSegment(AwsV4Signer.uriEncode(bucket));
+      }
+    }
+    if (key != null) {
+      /*
+       * Encode the key exactly as it will appear in the canonical request since
+       * S3 doesn't normalize the path
+       */
+      for (String segment : key.split("/", -1)) {
+        builder.addEncodedPathSegment(AwsV4Signer.uriEncode(segment));
+      }
+    }
+    if (path != null || (bucket == null && key == null)) {
+      builder.addPathSegments(Strings.nullToEmpty(path));
+    }
+    return builder.host(host).build();
+  }
+
+  private static boolean isDnsCompatible(String bucket) {
+    /*
+     * Buckets with dots are addressed path-style since they won't match the
+     * wildcard certificate
+     */
+    return bucket.matches("[a-z0-9][a-z0-9-]{1,61}[a-z0-9]");
   }
 
   private void flatten(BiConsumer<String, String> setter, JsonNode param, String name) {
@@ -118,6 +412,12 @@ public class GenericAmazonActionBuilder {
       for (int i = 0; i < param.size(); i++) {
         flatten(setter, param.get(i), name + "." + (i + 1));
       }
+    } else if (Blob.getBlob(param) != null) {
+      try {
+        setter.accept(name, Blob.getBlob(param).toBase64());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
     } else if (!param.isMissingNode()) {
       setter.accept(name, param.asText());
     }
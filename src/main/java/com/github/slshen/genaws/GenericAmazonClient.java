@@ -16,43 +16,111 @@ package com.github.slshen.genaws;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.slshen.genaws.auth.AwsV4SigningInterceptor;
+import com.github.slshen.genaws.auth.CredentialsException;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import com.github.slshen.genaws.auth.DefaultCredentialsProvider;
+import com.github.slshen.genaws.auth.SdkCredentialsProvider;
+import com.github.slshen.genaws.eventstream.EventStreamDecoder;
+import com.github.slshen.genaws.eventstream.EventStreamHandler;
+import com.github.slshen.genaws.eventstream.EventStreamMessage;
+import com.github.slshen.genaws.trace.Span;
+import com.github.slshen.genaws.trace.Tracer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
 import okhttp3.logging.HttpLoggingInterceptor.Level;
+import okio.BufferedSource;
+import okio.ByteString;
 
 public class GenericAmazonClient {
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
   private static final ObjectMapper mapper =
       new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
   private static final AwsXmlParser xmlParser = new AwsXmlParser();
+  private static final ShapeXmlParser shapeXmlParser = new ShapeXmlParser();
   private static final AtomicReference<String> userAgent = new AtomicReference<>();
+  private static OkHttpClient sharedHttpClient;
   private OkHttpClient httpClient;
-  private AWSCredentialsProvider credentialsProvider;
+  private CredentialsProvider credentialsProvider;
   private RetryPolicy retryPolicy = PredefinedRetryPolicies.getDefaultRetryPolicy();
-  private HttpLoggingInterceptor logger;
+  private final HttpLoggingInterceptor logger = new HttpLoggingInterceptor();
+  private volatile Interceptor wireLogging;
+  private volatile MemoryBudget memoryBudget;
+  private volatile RequestScheduler scheduler;
+  private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+  private volatile Tracer tracer;
+  private volatile Supplier<? extends JsonNodeFactory> nodeFactory;
+  private EndpointResolver endpointResolver = new DefaultEndpointResolver();
+  private boolean useServiceModels;
 
+  /**
+   * A client with the {@link DefaultCredentialsProvider} chain. Give it the SDK's {@code
+   * DefaultAWSCredentialsProviderChain} to use profiles with {@code role_arn} or {@code
+   * credential_process}.
+   */
   public GenericAmazonClient() {
-    this(new OkHttpClient(), new DefaultAWSCredentialsProviderChain());
+    this(new DefaultCredentialsProvider(), getSharedHttpClient());
+  }
+
+  /**
+   * The OkHttpClient used by clients that aren't given one, so that they all share one connection
+   * pool, dispatcher and set of TLS sessions.
+   */
+  public static synchronized OkHttpClient getSharedHttpClient() {
+    if (sharedHttpClient == null) {
+      sharedHttpClient = new OkHttpClient();
+    }
+    return sharedHttpClient;
   }
 
   public GenericAmazonClient(OkHttpClient httpClient, AWSCredentialsProvider credentialsProvider) {
+    this(SdkCredentialsProvider.of(credentialsProvider), httpClient);
+  }
+
+  /*
+   * The arguments are the other way around from the public constructors so that passing null
+   * credentials to them isn't ambiguous.
+   */
+  private GenericAmazonClient(CredentialsProvider credentialsProvider, OkHttpClient httpClient) {
     this.credentialsProvider = credentialsProvider;
 
     Interceptor userAgentInterceptor =
@@ -63,17 +131,109 @@ public class GenericAmazonClient {
                 chain.request().newBuilder().addHeader("User-Agent", getUserAgent()).build());
           }
         };
+    Interceptor timeoutInterceptor =
+        new Interceptor() {
+          @Override
+          public Response intercept(Chain chain) throws IOException {
+            ReadTimeout readTimeout = chain.request().tag(ReadTimeout.class);
+            if (readTimeout != null) {
+              chain = chain.withReadTimeout(readTimeout.millis, TimeUnit.MILLISECONDS);
+            }
+            Deadline deadline = chain.request().tag(Deadline.class);
+            if (deadline == null) {
+              return chain.proceed(chain.request());
+            }
+            int remaining =
+                (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remainingMillis()));
+            return chain
+                .withConnectTimeout(
+                    Math.min(remaining, chain.connectTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withReadTimeout(
+                    Math.min(remaining, chain.readTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withWriteTimeout(
+                    Math.min(remaining, chain.writeTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .proceed(chain.request());
+          }
+        };
+    Interceptor signedInterceptor =
+        new Interceptor() {
+          @Override
+          public Response intercept(Chain chain) throws IOException {
+            Span span = chain.request().tag(Span.class);
+            if (span != null) {
+              span.event("signed");
+            }
+            return chain.proceed(chain.request());
+          }
+        };
+    Interceptor tracingInterceptor =
+        new Interceptor() {
+          @Override
+          public Response intercept(Chain chain) throws IOException {
+            Span span = chain.request().tag(Span.class);
+            if (span == null) {
+              return chain.proceed(chain.request());
+            }
+            span.event("connected");
+            Response response = chain.proceed(chain.request());
+            span.event("response");
+            span.tag("http.status_code", Integer.toString(response.code()));
+            String requestId = getRequestId(response);
+            if (requestId != null) {
+              span.tag("aws.request_id", requestId);
+            }
+            return response;
+          }
+        };
+    Interceptor limiterInterceptor =
+        new Interceptor() {
+          @Override
+          public Response intercept(Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            AdaptiveConcurrencyLimiter.Permit limit =
+                chain.request().tag(AdaptiveConcurrencyLimiter.Permit.class);
+            if (limit != null) {
+              limit.onResponse();
+            }
+            return response;
+          }
+        };
     this.httpClient =
         httpClient
             .newBuilder()
+            .addInterceptor(timeoutInterceptor)
             .addInterceptor(new AwsV4SigningInterceptor(credentialsProvider))
+            .addInterceptor(signedInterceptor)
             .addInterceptor(userAgentInterceptor)
-            .addInterceptor(logger = new HttpLoggingInterceptor())
+            .addInterceptor(
+                chain -> (wireLogging != null ? wireLogging : logger).intercept(chain))
+            .addNetworkInterceptor(tracingInterceptor)
+            .addNetworkInterceptor(limiterInterceptor)
             .build();
   }
 
   public GenericAmazonClient(AWSCredentialsProvider credentialsProvider) {
-    this(new OkHttpClient(), credentialsProvider);
+    this(getSharedHttpClient(), credentialsProvider);
+  }
+
+  /**
+   * A client that signs with the client's own credentials types rather than an SDK provider.
+   *
+   * @param credentialsProvider the default credentials, requests can use others with {@link
+   *     GenericAmazonActionBuilder#credentials}
+   */
+  public static GenericAmazonClient create(
+      OkHttpClient httpClient, CredentialsProvider credentialsProvider) {
+    return new GenericAmazonClient(credentialsProvider, httpClient);
+  }
+
+  public static GenericAmazonClient create(CredentialsProvider credentialsProvider) {
+    return create(getSharedHttpClient(), credentialsProvider);
+  }
+
+  public GenericAmazonClient retryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+    return this;
   }
 
   public GenericAmazonClient loggerLevel(Level level) {
@@ -81,11 +241,82 @@ public class GenericAmazonClient {
     return this;
   }
 
+  /**
+   * Log calls with {@code wireLogging} instead of the {@link #loggerLevel} logger, or go back to it
+   * with null.
+   */
+  public GenericAmazonClient wireLogging(WireLoggingInterceptor wireLogging) {
+    this.wireLogging = wireLogging;
+    return this;
+  }
+
+  /**
+   * Limit the response bytes that {@link #execute(Request)} calls buffer at once, or null for no
+   * limit. Streaming calls aren't counted.
+   */
+  public GenericAmazonClient memoryBudget(MemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  public MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Queue requests by {@link PriorityClass} and limit how many are in flight, or null to send them
+   * all straight away.
+   */
+  public GenericAmazonClient scheduler(RequestScheduler scheduler) {
+    this.scheduler = scheduler;
+    return this;
+  }
+
+  public RequestScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /** Limit the requests in flight to each endpoint adaptively, or null for no limit. */
+  public GenericAmazonClient concurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+    return this;
+  }
+
+  public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  /** Trace calls with {@code tracer}, or null to not trace them. */
+  public GenericAmazonClient tracer(Tracer tracer) {
+    this.tracer = tracer;
+    return this;
+  }
+
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Build parsed responses with the node factory from {@code nodeFactory}, e.g. {@code
+   * CompactNodeFactory::new} to canonicalize repeated values within each response, or null for the
+   * object mapper's factory.
+   */
+  public GenericAmazonClient nodeFactory(Supplier<? extends JsonNodeFactory> nodeFactory) {
+    this.nodeFactory = nodeFactory;
+    return this;
+  }
+
   public OkHttpClient getHttpClient() {
     return httpClient;
   }
 
+  /** The default credentials, as an SDK provider if they weren't given as one. */
   public AWSCredentialsProvider getCredentialsProvider() {
+    return SdkCredentialsProvider.toSdk(credentialsProvider);
+  }
+
+  /** The default credentials that requests are signed with. */
+  public CredentialsProvider getSigningCredentialsProvider() {
     return credentialsProvider;
   }
 
@@ -93,53 +324,519 @@ public class GenericAmazonClient {
     return request.tag(AmazonServiceData.class);
   }
 
+  /**
+   * Send all requests for {@code serviceName} to {@code endpoint}, e.g. a local stand-in. This is
+   * an override in the {@link DefaultEndpointResolver}.
+   */
+  public GenericAmazonClient endpoint(String serviceName, HttpUrl endpoint) {
+    if (!(endpointResolver instanceof DefaultEndpointResolver)) {
+      throw new IllegalStateException("endpoint overrides need a DefaultEndpointResolver");
+    }
+    ((DefaultEndpointResolver) endpointResolver).override(serviceName, endpoint);
+    return this;
+  }
+
+  public GenericAmazonClient endpointResolver(EndpointResolver endpointResolver) {
+    this.endpointResolver = endpointResolver;
+    return this;
+  }
+
+  public EndpointResolver getEndpointResolver() {
+    return endpointResolver;
+  }
+
+  /**
+   * Build requests from the services' full models, see {@link ServiceModel}. XML responses are
+   * then parsed according to their output shapes rather than heuristically, and rest protocol
+   * parameters are bound to the URI and headers.
+   */
+  public GenericAmazonClient useServiceModels(boolean useServiceModels) {
+    this.useServiceModels = useServiceModels;
+    return this;
+  }
+
   public GenericAmazonActionBuilder newActionBuilder(
       Regions region, String serviceName, String action) {
-    return new GenericAmazonActionBuilder(
-        region, AmazonServiceData.getServiceData(serviceName), action);
+    GenericAmazonActionBuilder builder =
+        new GenericAmazonActionBuilder(
+                region, AmazonServiceData.getServiceData(serviceName), action)
+            .endpoint(endpointResolver.resolve(region, serviceName));
+    if (useServiceModels) {
+      builder.operation(ServiceModel.getServiceModel(serviceName).getOperation(action));
+    }
+    return builder;
+  }
+
+  /**
+   * Do the one-time work of the first calls to {@code services} in {@code regions} ahead of time:
+   * load the service metadata, fetch credentials, run a request through signing and a canned
+   * response through parsing (initializing the crypto and XML providers on the way), and resolve
+   * each endpoint and open a connection to it. The connections stay in the pool until they've been
+   * idle for its keep-alive, five minutes by default. Failures are ignored, the real calls will
+   * report them.
+   */
+  public void warmUp(Collection<String> services, Collection<Regions> regions) {
+    getUserAgent();
+    OkHttpClient offline =
+        httpClient.newBuilder().addInterceptor(this::cannedResponse).build();
+    OkHttpClient.Builder directBuilder = httpClient.newBuilder();
+    directBuilder.interceptors().clear();
+    OkHttpClient direct = directBuilder.build();
+    CountDownLatch connected = new CountDownLatch(services.size() * regions.size());
+    for (String serviceName : services) {
+      AmazonServiceData service = AmazonServiceData.getServiceData(serviceName);
+      for (Regions region : regions) {
+        HttpUrl endpoint = endpointResolver.resolve(region, serviceName);
+        Request request =
+            new GenericAmazonActionBuilder(region, service, "WarmUp").endpoint(endpoint).build();
+        try (Response response = offline.newCall(request).execute()) {
+          if (useServiceModels) {
+            ServiceModel.getServiceModel(serviceName);
+          }
+          parse(response);
+        } catch (IOException | RuntimeException e) {
+          /* e.g. no credentials or no model yet */
+        }
+        direct
+            .newCall(new Request.Builder().url(endpoint).head().build())
+            .enqueue(
+                new Callback() {
+                  @Override
+                  public void onResponse(Call call, Response response) {
+                    response.close();
+                    connected.countDown();
+                  }
+
+                  @Override
+                  public void onFailure(Call call, IOException e) {
+                    connected.countDown();
+                  }
+                });
+      }
+    }
+    try {
+      connected.await(
+          direct.connectTimeoutMillis() + direct.readTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** {@link #warmUp} in a background thread, e.g. while the rest of an application starts. */
+  public CompletableFuture<Void> warmUpAsync(
+      Collection<String> services, Collection<Regions> regions) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                warmUp(services, regions);
+                future.complete(null);
+              } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+              }
+            },
+            "aws-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  private Response cannedResponse(Interceptor.Chain chain) {
+    String protocol = getServiceData(chain.request()).getProtocol();
+    boolean json = protocol.equals("json") || protocol.equals("rest-json");
+    return new Response.Builder()
+        .request(chain.request())
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(
+            json
+                ? ResponseBody.create("{}", MediaType.get("application/json"))
+                : ResponseBody.create("<WarmUpResponse/>", MediaType.get("text/xml")))
+        .build();
+  }
+
+  /** Handles a successful response; the response is closed when the handler returns. */
+  public interface ResponseHandler<T> {
+    T handle(Response response) throws IOException;
   }
 
   public JsonNode execute(Request request) {
-    int retriesAttempted = 0;
-    while (true) {
-      try {
-        try {
-          try (Response response = httpClient.newCall(request).execute()) {
+    MemoryBudget budget = memoryBudget;
+    if (budget == null) {
+      return execute(request, this::parse);
+    }
+    try (MemoryBudget.Reservation reservation = budget.reserve(request.tag(Deadline.class))) {
+      return execute(request, response -> parse(reservation.track(response)));
+    }
+  }
+
+  /**
+   * Publish the results of a paginated action. {@code requestForToken} makes the request for each
+   * page, given the previous page's next token, or null for the first page.
+   */
+  public PaginatedPublisher paginate(Function<JsonNode, Request> requestForToken) {
+    return new PaginatedPublisher(this, requestForToken);
+  }
+
+  /**
+   * Execute a request, retrying failures according to the retry policy, and pass the successful
+   * response to {@code handler}. If the request has a {@link Deadline} each attempt is cancelled
+   * when it passes, and a retry is skipped if its backoff alone would run past it.
+   */
+  public <T> T execute(Request request, ResponseHandler<T> handler) {
+    return executeWithRetries(
+        request,
+        call -> {
+          try (Response response = call.execute()) {
             if (response.isSuccessful()) {
-              return parse(response);
+              return handler.handle(response);
             } else {
-              AmazonServiceException ase;
-              if (response.code() >= 500) {
-                ase = new AmazonServiceException(Integer.toString(response.code()));
-              } else {
-                ase = parseError(response, response.body() != null ? response.body().string() : "");
-              }
-              ase.setStatusCode(response.code());
-              ase.setServiceName(getServiceData(request).getEndpointPrefix());
-              throw ase;
+              throw toServiceException(request, response);
             }
           }
+        });
+  }
+
+  /**
+   * Execute a request, with retries, and return the successful response without reading it, e.g.
+   * to pass the body through with {@code response.body().source()}. Only error responses are
+   * parsed, to classify and retry them. The caller has to close the response.
+   */
+  public Response executeRaw(Request request) {
+    return executeWithRetries(
+        request,
+        call -> {
+          Response response = call.execute();
+          if (!response.isSuccessful()) {
+            try (response) {
+              throw toServiceException(request, response);
+            }
+          }
+          return response;
+        });
+  }
+
+  /** Execute a request, with retries, and return the successful response body unparsed. */
+  public ByteString executeToByteString(Request request) {
+    return execute(request, response -> response.body().byteString());
+  }
+
+  private interface CallHandler<T> {
+    T handle(Call call) throws IOException;
+  }
+
+  /* A request tag told of each attempt's call, e.g. to cancel it from another thread. */
+  interface CallListener {
+    void onCall(Call call);
+  }
+
+  private <T> T executeWithRetries(Request request, CallHandler<T> handler) {
+    Tracer tracer = this.tracer;
+    Span span = tracer != null ? tracer.startCall(request) : null;
+    if (span == null) {
+      return executeWithRetries(request, handler, null);
+    }
+    try {
+      return executeWithRetries(request, handler, span);
+    } catch (RuntimeException e) {
+      span.error(e);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  private <T> T executeWithRetries(Request request, CallHandler<T> handler, Span span) {
+    Deadline deadline = request.tag(Deadline.class);
+    int retriesAttempted = 0;
+    while (true) {
+      try {
+        try {
+          return attempt(request, deadline, handler, span, retriesAttempted);
         } catch (IOException e) {
+          if (deadline != null && deadline.isExpired()) {
+            throw new AmazonClientException("deadline exceeded: " + e.getMessage(), e);
+          }
+          throw new AmazonClientException(e.getMessage(), e);
+        } catch (CredentialsException e) {
           throw new AmazonClientException(e.getMessage(), e);
         }
       } catch (AmazonClientException e) {
         if (retriesAttempted == retryPolicy.getMaxErrorRetry()
+            || (deadline != null && deadline.isExpired())
             || !retryPolicy.getRetryCondition().shouldRetry(null, e, retriesAttempted)) {
           throw e;
         }
-        retryPolicy.getBackoffStrategy().delayBeforeNextRetry(null, e, retriesAttempted);
+        long delay =
+            retryPolicy.getBackoffStrategy().delayBeforeNextRetry(null, e, retriesAttempted);
+        if (deadline != null && delay >= deadline.remainingMillis()) {
+          throw e;
+        }
+        sleep(delay);
         retriesAttempted += 1;
       }
     }
   }
 
+  private <T> T attempt(
+      Request request, Deadline deadline, CallHandler<T> handler, Span span, int attempt)
+      throws IOException {
+    if (span == null) {
+      return send(request, deadline, handler, null);
+    }
+    Span attemptSpan = span.startAttempt(attempt);
+    /* the interceptors find the span in the tag to record the phases */
+    Request.Builder builder = request.newBuilder().tag(Span.class, attemptSpan);
+    attemptSpan.inject(builder);
+    try {
+      return send(builder.build(), deadline, handler, attemptSpan);
+    } catch (IOException | RuntimeException e) {
+      attemptSpan.error(e);
+      throw e;
+    } finally {
+      attemptSpan.end();
+    }
+  }
+
+  private <T> T send(Request request, Deadline deadline, CallHandler<T> handler, Span span)
+      throws IOException {
+    RequestScheduler scheduler = this.scheduler;
+    AdaptiveConcurrencyLimiter limiter = this.concurrencyLimiter;
+    try (RequestScheduler.Permit permit =
+            scheduler != null ? scheduler.acquire(getPriorityClass(request), deadline) : null;
+        AdaptiveConcurrencyLimiter.Permit limit =
+            limiter != null ? limiter.acquire(request.url(), deadline) : null) {
+      if (span != null && (permit != null || limit != null)) {
+        span.event("admitted");
+      }
+      if (limit != null) {
+        /* the network interceptor marks when the headers arrive */
+        request = request.newBuilder().tag(AdaptiveConcurrencyLimiter.Permit.class, limit).build();
+      }
+      Call call = httpClient.newCall(request);
+      CallListener listener = request.tag(CallListener.class);
+      if (listener != null) {
+        listener.onCall(call);
+      }
+      if (deadline != null) {
+        long remaining = deadline.remainingMillis();
+        if (remaining <= 0) {
+          throw new AmazonClientException("deadline exceeded");
+        }
+        /*
+         * The call timeout spans connecting, the request, and reading
+         * the response body in the handler, and cancels the call when
+         * it fires.
+         */
+        call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+      }
+      try {
+        T result = handler.handle(call);
+        if (span != null) {
+          span.event("handled");
+        }
+        if (limit != null) {
+          limit.onSuccess();
+        }
+        return result;
+      } catch (IOException | AmazonClientException e) {
+        if (limit != null) {
+          if (isOverload(e, call, deadline, limit.hasResponse())) {
+            limit.onDropped();
+          } else if (limit.hasResponse()) {
+            limit.onSuccess();
+          } else {
+            /* no answer from the server, so no latency sample either */
+            limit.close();
+          }
+        }
+        throw e;
+      }
+    }
+  }
+
+  /*
+   * Whether a failure says the endpoint is overloaded, for the concurrency limiter: throttling, a
+   * server error, or an I/O failure before the response arrived that wasn't the caller's own
+   * deadline or cancellation. Failures after the headers, e.g. parsing the body, say nothing about
+   * the endpoint.
+   */
+  private static boolean isOverload(
+      Exception e, Call call, Deadline deadline, boolean hasResponse) {
+    if (e instanceof AmazonServiceException) {
+      AmazonServiceException ase = (AmazonServiceException) e;
+      return ase.getStatusCode() >= 500 || RetryUtils.isThrottlingException(ase);
+    }
+    if (!(e instanceof IOException)
+        || hasResponse
+        || call.isCanceled()
+        || (deadline != null && deadline.isExpired())) {
+      return false;
+    }
+    /* a socket timeout is the endpoint being slow, other interruptions are the caller's */
+    return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+  }
+
+  private static PriorityClass getPriorityClass(Request request) {
+    PriorityClass priorityClass = request.tag(PriorityClass.class);
+    return priorityClass != null ? priorityClass : PriorityClass.DEFAULT;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AmazonClientException("interrupted", e);
+    }
+  }
+
+  /**
+   * Execute a request and stream the response body to {@code channel} without buffering it, e.g.
+   * an S3 {@code GetObject}. If the channel is seekable a retry rewinds it, otherwise a failure
+   * after the body has started isn't retried.
+   *
+   * @return the response headers
+   */
+  public Headers executeToSink(Request request, WritableByteChannel channel) {
+    long start = getPosition(channel);
+    return execute(
+        request,
+        response -> {
+          if (start >= 0) {
+            ((SeekableByteChannel) channel).position(start);
+          }
+          long written = 0;
+          try {
+            BufferedSource source = response.body().source();
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            while (source.read(buffer) != -1) {
+              buffer.flip();
+              while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+              }
+              buffer.clear();
+            }
+          } catch (IOException e) {
+            if (start < 0 && written > 0) {
+              throw new AmazonClientException(
+                  "response body interrupted after " + written + " bytes: " + e.getMessage());
+            }
+            throw e;
+          }
+          return response.headers();
+        });
+  }
+
+  /**
+   * Execute a request whose response is an {@code application/vnd.amazon.eventstream}, e.g.
+   * Kinesis {@code SubscribeToShard}, passing each event to {@code handler} as it arrives. {@code
+   * exception} and {@code error} messages are thrown as an {@code AmazonServiceException}. A
+   * failure after the first event has been delivered isn't retried.
+   */
+  public void executeEventStream(Request request, EventStreamHandler handler) {
+    execute(
+        request,
+        response -> {
+          EventStreamDecoder decoder = new EventStreamDecoder();
+          BufferedSource source = response.body().source();
+          boolean delivered = false;
+          try {
+            while (!source.exhausted()) {
+              EventStreamMessage message = decoder.next(source);
+              if (!"event".equals(message.getMessageType())) {
+                AmazonServiceException ase = toServiceException(message);
+                ase.setServiceName(getServiceData(request).getEndpointPrefix());
+                ase.setRequestId(getRequestId(response));
+                throw ase;
+              }
+              handler.onMessage(message);
+              delivered = true;
+            }
+          } catch (IOException e) {
+            if (delivered) {
+              throw new AmazonClientException("event stream interrupted: " + e.getMessage());
+            }
+            throw e;
+          }
+          return null;
+        });
+  }
+
+  private AmazonServiceException toServiceException(EventStreamMessage message)
+      throws IOException {
+    AmazonServiceException ase;
+    if ("exception".equals(message.getMessageType())) {
+      JsonNode n = mapper.readTree(message.getPayload().inputStream());
+      JsonNode errorMessage = n.path("Message");
+      errorMessage = errorMessage.isMissingNode() ? n.path("message") : errorMessage;
+      ase = new AmazonServiceException(errorMessage.asText());
+      ase.setErrorCode(message.getStringHeader(":exception-type"));
+    } else {
+      ase = new AmazonServiceException(message.getStringHeader(":error-message"));
+      ase.setErrorCode(message.getStringHeader(":error-code"));
+    }
+    return ase;
+  }
+
+  private static long getPosition(WritableByteChannel channel) {
+    try {
+      return channel instanceof SeekableByteChannel
+          ? ((SeekableByteChannel) channel).position()
+          : -1;
+    } catch (IOException e) {
+      throw new AmazonClientException(e.getMessage(), e);
+    }
+  }
+
+  /** Execute a request and write the response body to {@code file}, replacing it. */
+  public Headers executeToFile(Request request, Path file) {
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      Headers headers = executeToSink(request, channel);
+      channel.truncate(channel.position());
+      return headers;
+    } catch (IOException e) {
+      throw new AmazonClientException(e.getMessage(), e);
+    }
+  }
+
+  private AmazonServiceException toServiceException(Request request, Response response)
+      throws IOException {
+    AmazonServiceException ase;
+    if (response.code() >= 500) {
+      ase = new AmazonServiceException(Integer.toString(response.code()));
+    } else {
+      ase = parseError(response, response.body() != null ? response.body().string() : "");
+    }
+    ase.setStatusCode(response.code());
+    ase.setServiceName(getServiceData(request).getEndpointPrefix());
+    return ase;
+  }
+
   private AmazonServiceException parseError(Response response, String body) {
     try {
       String protocol = getServiceData(response.request()).getProtocol();
-      if (protocol.equals("query") || protocol.equals("ec2")) {
+      if (body.isBlank()) {
+        // e.g. a HEAD request
+        AmazonServiceException ase = new AmazonServiceException(response.message());
+        ase.setErrorCode(Integer.toString(response.code()));
+        ase.setRequestId(getRequestId(response));
+        return ase;
+      } else if (protocol.equals("query")
+          || protocol.equals("ec2")
+          || protocol.equals("rest-xml")) {
         JsonNode n = xmlParser.parse(objectNode(), new StringReader(body));
         JsonNode error = n.path("Error");
         error = error.isMissingNode() ? n.path("Errors").path("Error") : error;
+        // rest-xml errors have Error as the root element
+        error = error.isMissingNode() ? n : error;
         AmazonServiceException ase = new AmazonServiceException(error.path("Message").asText());
         JsonNode requestId = n.path("RequestID");
         requestId = requestId.isMissingNode() ? requestId = n.path("RequestId") : requestId;
@@ -158,7 +855,7 @@ public class GenericAmazonClient {
         } else {
           ase.setErrorCode(code.asText());
         }
-        ase.setRequestId(response.header("X-Amzn-RequestId"));
+        ase.setRequestId(getRequestId(response));
         return ase;
       }
 
@@ -167,13 +864,33 @@ public class GenericAmazonClient {
     }
   }
 
-  private JsonNode parse(Response response) throws IOException {
+  private static String getRequestId(Response response) {
+    String requestId = response.header("X-Amzn-RequestId");
+    return requestId != null ? requestId : response.header("X-Amz-Request-Id");
+  }
+
+  JsonNode parse(Response response) throws IOException {
     AmazonServiceData service = getServiceData(response.request());
+    OperationModel operation = response.request().tag(OperationModel.class);
     String protocol = service.getProtocol();
-    if (protocol.equals("ec2") || protocol.equals("query")) {
-      return xmlParser.parse(objectNode(), response.body().charStream());
+    Supplier<? extends JsonNodeFactory> nodeFactory = this.nodeFactory;
+    JsonNodeFactory factory = nodeFactory != null ? nodeFactory.get() : mapper.getNodeFactory();
+    if (operation != null
+        && (protocol.equals("ec2") || protocol.equals("query") || protocol.equals("rest-xml"))) {
+      if (response.body().source().exhausted()) {
+        return factory.objectNode();
+      }
+      return shapeXmlParser.parse(factory, response.body().charStream(), operation);
+    } else if (protocol.equals("ec2") || protocol.equals("query")) {
+      return xmlParser.parse(factory, response.body().charStream());
+    } else if (protocol.equals("rest-xml")) {
+      // many rest-xml actions return an empty body with the results in headers
+      if (response.body().source().exhausted()) {
+        return factory.objectNode();
+      }
+      return xmlParser.parse(factory, response.body().charStream());
     } else {
-      return mapper.readTree(response.body().charStream());
+      return mapper.reader(factory).readTree(response.body().charStream());
     }
   }
 
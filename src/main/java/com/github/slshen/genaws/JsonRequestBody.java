@@ -0,0 +1,107 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.slshen.genaws.auth.PayloadHashing;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.ForwardingSink;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * A JSON request body that's serialized straight to the sink, so the parameters (and any {@link
+ * Blob}s in them) never exist as a string. The length and payload hash are computed together by
+ * serializing the body once the first time either is needed. A body of up to {@code MAX_CACHED}
+ * bytes is kept from that pass and written as is; a larger one is serialized again each time it's
+ * written, rather than being held in memory.
+ */
+class JsonRequestBody extends RequestBody implements PayloadHashing {
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final long MAX_CACHED = 64 * 1024;
+  private final JsonNode content;
+  private final MediaType contentType;
+  private long contentLength = -1;
+  private String payloadHash;
+  private volatile ByteString serialized;
+
+  JsonRequestBody(JsonNode content, MediaType contentType) {
+    this.content = content;
+    this.contentType = contentType;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override
+  public synchronized long contentLength() throws IOException {
+    digest();
+    return contentLength;
+  }
+
+  @Override
+  public synchronized String getPayloadHash() throws IOException {
+    digest();
+    return payloadHash;
+  }
+
+  private void digest() throws IOException {
+    if (payloadHash == null) {
+      long[] count = new long[1];
+      Buffer cache = new Buffer();
+      HashingSink hashingSink =
+          HashingSink.sha256(
+              new ForwardingSink(Okio.blackhole()) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                  count[0] += byteCount;
+                  if (count[0] <= MAX_CACHED) {
+                    source.copyTo(cache, 0, byteCount);
+                  }
+                  super.write(source, byteCount);
+                }
+              });
+      try (BufferedSink sink = Okio.buffer(hashingSink)) {
+        writeTo(sink);
+      }
+      contentLength = count[0];
+      payloadHash = hashingSink.hash().hex();
+      if (contentLength <= MAX_CACHED) {
+        serialized = cache.readByteString();
+      }
+    }
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    ByteString bytes = serialized;
+    if (bytes != null) {
+      sink.write(bytes);
+      return;
+    }
+    JsonGenerator generator = mapper.getFactory().createGenerator(sink.outputStream());
+    mapper.writeTree(generator, content);
+    generator.flush();
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import com.amazonaws.AmazonClientException;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A limit on the response bytes that {@link GenericAmazonClient#execute(okhttp3.Request)} calls
+ * can have in flight at once. A call reserves a little of the budget before it's sent, waiting up
+ * to {@link #maxWait} (or its {@link Deadline}) for other calls to finish if the budget is used
+ * up, and is rejected if they don't. Once the response arrives the reservation grows to the {@code
+ * Content-Length}, or as the body is read if there isn't one, times {@link #treeSizeFactor} to
+ * allow for the parsed tree. A call that has started is never blocked, so a single large response
+ * can take the budget over the limit until it's done.
+ */
+public class MemoryBudget {
+  private final long maxBytes;
+  private long used;
+  private long rejected;
+  private volatile long initialReservation = 8192;
+  private volatile double treeSizeFactor = 1;
+  private volatile Duration maxWait = Duration.ofSeconds(30);
+
+  public MemoryBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Count each response byte as {@code treeSizeFactor} bytes, e.g. 4 for a typical JsonNode. */
+  public MemoryBudget treeSizeFactor(double treeSizeFactor) {
+    this.treeSizeFactor = treeSizeFactor;
+    return this;
+  }
+
+  /** How much a call reserves before its response arrives. */
+  public MemoryBudget initialReservation(long initialReservation) {
+    this.initialReservation = initialReservation;
+    return this;
+  }
+
+  /** How long a call can wait for the budget before it's rejected; zero to reject immediately. */
+  public MemoryBudget maxWait(Duration maxWait) {
+    this.maxWait = maxWait;
+    return this;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getUsed() {
+    return used;
+  }
+
+  /** The number of calls rejected because the budget was used up. */
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  Reservation reserve(Deadline deadline) {
+    long n = initialReservation;
+    long wait = maxWait.toNanos();
+    if (deadline != null) {
+      wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(deadline.remainingMillis()));
+    }
+    long end = System.nanoTime() + wait;
+    synchronized (this) {
+      /* a call is always let in when nothing else is in flight */
+      while (used > 0 && used + n > maxBytes) {
+        long remaining = end - System.nanoTime();
+        if (remaining <= 0) {
+          rejected += 1;
+          throw new AmazonClientException(
+              "memory budget exhausted: " + used + " of " + maxBytes + " bytes in flight");
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new AmazonClientException("interrupted", e);
+        }
+      }
+      used += n;
+    }
+    return new Reservation(n);
+  }
+
+  private synchronized void adjust(long delta) {
+    used += delta;
+    if (delta < 0) {
+      notifyAll();
+    }
+  }
+
+  private long estimate(long bytes) {
+    return Math.max(initialReservation, (long) (bytes * treeSizeFactor));
+  }
+
+  /** One call's share of the budget, used by a single thread. */
+  class Reservation implements AutoCloseable {
+    private long reserved;
+    private long read;
+
+    private Reservation(long reserved) {
+      this.reserved = reserved;
+    }
+
+    private void resize(long n) {
+      adjust(n - reserved);
+      reserved = n;
+    }
+
+    /** Account for {@code response}, replacing what was reserved for any earlier attempt. */
+    Response track(Response response) {
+      ResponseBody body = response.body();
+      long length = body.contentLength();
+      if (length >= 0) {
+        resize(estimate(length));
+        return response;
+      }
+      read = 0;
+      resize(initialReservation);
+      Source counting =
+          new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+              long n = super.read(sink, byteCount);
+              if (n > 0) {
+                read += n;
+                resize(estimate(read));
+              }
+              return n;
+            }
+          };
+      return response
+          .newBuilder()
+          .body(ResponseBody.create(Okio.buffer(counting), body.contentType(), -1))
+          .build();
+    }
+
+    @Override
+    public void close() {
+      resize(0);
+    }
+  }
+}
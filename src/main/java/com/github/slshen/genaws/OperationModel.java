@@ -0,0 +1,69 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+/**
+ * The compiled plan for one operation of a {@link ServiceModel}: how its input is bound to the
+ * request and how its output is parsed. Plans are compiled once and cached.
+ */
+public class OperationModel {
+  private final String name;
+  private final String httpMethod;
+  private final String requestUri;
+  private final Shape input;
+  private final Shape output;
+  private final String resultWrapper;
+
+  OperationModel(
+      String name,
+      String httpMethod,
+      String requestUri,
+      Shape input,
+      Shape output,
+      String resultWrapper) {
+    this.name = name;
+    this.httpMethod = httpMethod;
+    this.requestUri = requestUri;
+    this.input = input;
+    this.output = output;
+    this.resultWrapper = resultWrapper;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getHttpMethod() {
+    return httpMethod;
+  }
+
+  /** The request URI template, e.g. {@code /2015-03-31/functions/{FunctionName}/invocations}. */
+  public String getRequestUri() {
+    return requestUri;
+  }
+
+  Shape getInput() {
+    return input;
+  }
+
+  Shape getOutput() {
+    return output;
+  }
+
+  /** For the query protocol, the element the output is wrapped in. */
+  String getResultWrapper() {
+    return resultWrapper;
+  }
+}
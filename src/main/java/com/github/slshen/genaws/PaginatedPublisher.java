@@ -0,0 +1,322 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Publishes the pages, or the items in the pages, of a paginated action. Pages are only fetched
+ * when the subscriber has demand for them, and for json protocols the items are read one at a time
+ * from the response body, so memory use is bounded by the demand rather than the result size.
+ * Cancelling a subscription cancels the call in flight, whether it's waiting for a page or its
+ * response is being read.
+ *
+ * <pre>
+ * client
+ *     .paginate(
+ *         token -&gt; {
+ *           ObjectNode parameters = client.objectNode();
+ *           if (token != null) {
+ *             parameters.set("ExclusiveStartKey", token);
+ *           }
+ *           return client.newActionBuilder(region, "dynamodb", "Scan")
+ *               .parameters(parameters).build();
+ *         })
+ *     .nextToken("/LastEvaluatedKey")
+ *     .items("/Items")
+ *     .subscribe(subscriber);
+ * </pre>
+ */
+public class PaginatedPublisher implements Flow.Publisher<JsonNode> {
+  private static final ExecutorService defaultExecutor =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "aws-paginator");
+            t.setDaemon(true);
+            return t;
+          });
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final JsonFactory jsonFactory = mapper.getFactory();
+  private final GenericAmazonClient client;
+  private final Function<JsonNode, Request> requestForToken;
+  private JsonPointer nextToken = JsonPointer.compile("/NextToken");
+  private JsonPointer items;
+  private Executor executor = defaultExecutor;
+
+  PaginatedPublisher(GenericAmazonClient client, Function<JsonNode, Request> requestForToken) {
+    this.client = client;
+    this.requestForToken = requestForToken;
+  }
+
+  /** Where the next page token is in each page, {@code /NextToken} by default. */
+  public PaginatedPublisher nextToken(String pointer) {
+    this.nextToken = JsonPointer.compile(pointer);
+    return this;
+  }
+
+  /**
+   * Publish the elements of the list at {@code pointer} in each page rather than the pages
+   * themselves. For json protocols a top level list, e.g. {@code /Items}, is streamed.
+   */
+  public PaginatedPublisher items(String pointer) {
+    this.items = JsonPointer.compile(pointer);
+    return this;
+  }
+
+  /** Where pages are fetched and subscribers are called; a shared daemon pool by default. */
+  public PaginatedPublisher executor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super JsonNode> subscriber) {
+    subscriber.onSubscribe(new PageSubscription(subscriber));
+  }
+
+  private class PageSubscription
+      implements Flow.Subscription, GenericAmazonClient.CallListener {
+    private final Flow.Subscriber<? super JsonNode> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable requestError;
+    private volatile Call call;
+    /* only touched by the drain loop */
+    private boolean done;
+    private boolean started;
+    private JsonNode token;
+    private Iterator<JsonNode> pageItems;
+    private Response response;
+    private JsonParser parser;
+    private ObjectNode rest;
+
+    PageSubscription(Flow.Subscriber<? super JsonNode> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        requestError = new IllegalArgumentException("non-positive request " + n);
+      } else {
+        demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      /* unblocks the drain loop if it's waiting on the call */
+      Call c = call;
+      if (c != null) {
+        c.cancel();
+      }
+      schedule();
+    }
+
+    @Override
+    public void onCall(Call call) {
+      this.call = call;
+      if (cancelled) {
+        call.cancel();
+      }
+    }
+
+    private void schedule() {
+      if (wip.getAndIncrement() == 0) {
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      int missed = 1;
+      while (true) {
+        emit();
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void emit() {
+      while (!done) {
+        if (cancelled) {
+          finish();
+          return;
+        }
+        if (requestError != null) {
+          finish();
+          subscriber.onError(requestError);
+          return;
+        }
+        if (demand.get() == 0) {
+          return;
+        }
+        JsonNode next;
+        try {
+          next = next();
+        } catch (Throwable t) {
+          finish();
+          if (!cancelled) {
+            subscriber.onError(t);
+          }
+          return;
+        }
+        if (next == null) {
+          finish();
+          subscriber.onComplete();
+          return;
+        }
+        if (demand.get() != Long.MAX_VALUE) {
+          demand.decrementAndGet();
+        }
+        subscriber.onNext(next);
+      }
+    }
+
+    private void finish() {
+      done = true;
+      closeResponse();
+    }
+
+    private void closeResponse() {
+      if (parser != null) {
+        try {
+          parser.close();
+        } catch (IOException e) {
+          /* closing the response is what matters */
+        }
+        parser = null;
+      }
+      if (response != null) {
+        response.close();
+        response = null;
+      }
+    }
+
+    /** The next page or item, or null when there are no more. */
+    private JsonNode next() throws IOException {
+      while (true) {
+        if (parser != null) {
+          JsonNode item = nextStreamedItem();
+          if (item != null) {
+            return item;
+          }
+        } else if (pageItems != null && pageItems.hasNext()) {
+          return pageItems.next();
+        }
+        if (started && token == null) {
+          return null;
+        }
+        Request request =
+            requestForToken
+                .apply(token)
+                .newBuilder()
+                .tag(GenericAmazonClient.CallListener.class, this)
+                .build();
+        started = true;
+        if (items == null) {
+          JsonNode page = client.execute(request);
+          token = getToken(page);
+          return page;
+        }
+        String protocol = client.getServiceData(request).getProtocol();
+        if (items.tail().matches() && (protocol.equals("json") || protocol.equals("rest-json"))) {
+          openStream(request);
+        } else {
+          JsonNode page = client.execute(request);
+          token = getToken(page);
+          JsonNode list = page.at(items);
+          /* xml lists with a single element parse as the element itself */
+          pageItems =
+              list.isArray() || list.isMissingNode() ? list.iterator() : List.of(list).iterator();
+        }
+      }
+    }
+
+    /*
+     * Read the top level fields of the page up to the start of the items
+     * list, keeping the others for the next page token.
+     */
+    private void openStream(Request request) throws IOException {
+      response = client.executeRaw(request);
+      parser = jsonFactory.createParser(response.body().byteStream());
+      parser.setCodec(mapper);
+      rest = mapper.createObjectNode();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("expected a json object");
+      }
+      if (!readFieldsUntilItems()) {
+        endStream();
+      }
+    }
+
+    private boolean readFieldsUntilItems() throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (name.equals(items.getMatchingProperty()) && value == JsonToken.START_ARRAY) {
+          return true;
+        }
+        rest.set(name, parser.readValueAsTree());
+      }
+      return false;
+    }
+
+    private JsonNode nextStreamedItem() throws IOException {
+      if (parser.nextToken() == JsonToken.END_ARRAY) {
+        readFieldsUntilItems();
+        endStream();
+        return null;
+      }
+      return parser.readValueAsTree();
+    }
+
+    private void endStream() {
+      token = getToken(rest);
+      rest = null;
+      closeResponse();
+    }
+
+    private JsonNode getToken(JsonNode page) {
+      JsonNode n = page.at(nextToken);
+      return n.isMissingNode() || n.isNull() || (n.isTextual() && n.asText().isEmpty())
+          ? null
+          : n;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+/**
+ * A class of requests that a {@link RequestScheduler} queues separately, e.g. interactive calls
+ * and background sweeps. When requests are waiting, free shared slots go to the classes in
+ * proportion to their {@code weight}. {@code reservedConcurrency} slots are kept for the class
+ * alone, so other classes can't starve it. Classes are compared by identity.
+ */
+public final class PriorityClass {
+  public static final PriorityClass DEFAULT = new PriorityClass("default", 1, 0);
+  private final String name;
+  private final int weight;
+  private final int reservedConcurrency;
+
+  public PriorityClass(String name, int weight, int reservedConcurrency) {
+    if (weight <= 0 || reservedConcurrency < 0) {
+      throw new IllegalArgumentException("invalid weight or reserved concurrency for " + name);
+    }
+    this.name = name;
+    this.weight = weight;
+    this.reservedConcurrency = reservedConcurrency;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public int getReservedConcurrency() {
+    return reservedConcurrency;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
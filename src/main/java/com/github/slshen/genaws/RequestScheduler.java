@@ -0,0 +1,265 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Limits how many requests a client has in flight and shares the slots between {@link
+ * PriorityClass}es. Each class has its own queue; its reserved slots are used first, then the
+ * shared slots (the limit less all the reservations) go to the waiting classes by stride
+ * scheduling, so that each gets them in proportion to its weight. Install with {@link
+ * GenericAmazonClient#scheduler}, and set a request's class with {@link
+ * GenericAmazonActionBuilder#priority}.
+ *
+ * <p>A slot is held for one attempt, from sending the request until its response has been
+ * handled, and not while waiting to retry. {@link #getStats} reports the time spent queued
+ * separately from the time spent holding the slot.
+ */
+public class RequestScheduler {
+  private final int maxConcurrency;
+  private final Map<PriorityClass, ClassState> classes = new LinkedHashMap<>();
+  private int reservedTotal;
+  private int sharedInFlight;
+  private double virtualTime;
+
+  public RequestScheduler(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /** Register a class ahead of its first request, e.g. to check the reservations fit. */
+  public synchronized RequestScheduler register(PriorityClass priorityClass) {
+    getState(priorityClass);
+    return this;
+  }
+
+  public synchronized Stats getStats(PriorityClass priorityClass) {
+    return getState(priorityClass).stats;
+  }
+
+  public synchronized int getQueueLength(PriorityClass priorityClass) {
+    return getState(priorityClass).queue.size();
+  }
+
+  public synchronized int getInFlight(PriorityClass priorityClass) {
+    return getState(priorityClass).inFlight;
+  }
+
+  public synchronized Collection<PriorityClass> getPriorityClasses() {
+    return Collections.unmodifiableCollection(classes.keySet());
+  }
+
+  private ClassState getState(PriorityClass priorityClass) {
+    ClassState state = classes.get(priorityClass);
+    if (state == null) {
+      int reserved = priorityClass.getReservedConcurrency();
+      if (reservedTotal + reserved > maxConcurrency) {
+        throw new IllegalArgumentException(
+            "reserved concurrency of " + priorityClass + " exceeds the limit " + maxConcurrency);
+      }
+      reservedTotal += reserved;
+      state = new ClassState(priorityClass);
+      classes.put(priorityClass, state);
+    }
+    return state;
+  }
+
+  /** Wait for a slot for {@code priorityClass}, until {@code deadline} if there is one. */
+  Permit acquire(PriorityClass priorityClass, Deadline deadline) {
+    long start = System.nanoTime();
+    Waiter waiter = new Waiter();
+    synchronized (this) {
+      ClassState state = getState(priorityClass);
+      if (state.queue.isEmpty()) {
+        /* an idle class rejoins at the current virtual time rather than catching up */
+        state.pass = Math.max(state.pass, virtualTime);
+      }
+      state.queue.add(waiter);
+      dispatch();
+      while (!waiter.granted) {
+        try {
+          if (deadline == null) {
+            wait();
+          } else if (deadline.isExpired()) {
+            state.queue.remove(waiter);
+            state.stats.rejected.increment();
+            throw new AmazonClientException(
+                "deadline exceeded waiting for a " + priorityClass + " slot");
+          } else {
+            /* wait(0) would wait forever, so wait at least 1ms when under 1ms is left */
+            wait(Math.max(1, deadline.remainingMillis()));
+          }
+        } catch (InterruptedException e) {
+          if (waiter.granted) {
+            /* granted before the interrupt was noticed, the slot has to be given back */
+            release(state, waiter.shared);
+          } else {
+            state.queue.remove(waiter);
+          }
+          Thread.currentThread().interrupt();
+          throw new AmazonClientException("interrupted", e);
+        }
+      }
+      state.stats.queued(System.nanoTime() - start);
+      return new Permit(state, waiter.shared);
+    }
+  }
+
+  private void dispatch() {
+    boolean granted = false;
+    for (ClassState state : classes.values()) {
+      while (!state.queue.isEmpty()
+          && state.reservedInFlight < state.priorityClass.getReservedConcurrency()) {
+        state.reservedInFlight += 1;
+        grant(state, false);
+        granted = true;
+      }
+    }
+    while (sharedInFlight < maxConcurrency - reservedTotal) {
+      ClassState next = null;
+      for (ClassState state : classes.values()) {
+        if (!state.queue.isEmpty() && (next == null || state.pass < next.pass)) {
+          next = state;
+        }
+      }
+      if (next == null) {
+        break;
+      }
+      virtualTime = next.pass;
+      next.pass += 1.0 / next.priorityClass.getWeight();
+      sharedInFlight += 1;
+      grant(next, true);
+      granted = true;
+    }
+    if (granted) {
+      notifyAll();
+    }
+  }
+
+  private void grant(ClassState state, boolean shared) {
+    Waiter waiter = state.queue.remove();
+    waiter.granted = true;
+    waiter.shared = shared;
+    state.inFlight += 1;
+  }
+
+  private synchronized void release(ClassState state, boolean shared) {
+    if (shared) {
+      sharedInFlight -= 1;
+    } else {
+      state.reservedInFlight -= 1;
+    }
+    state.inFlight -= 1;
+    dispatch();
+  }
+
+  private static class Waiter {
+    boolean granted;
+    boolean shared;
+  }
+
+  private static class ClassState {
+    final PriorityClass priorityClass;
+    final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    final Stats stats = new Stats();
+    int inFlight;
+    int reservedInFlight;
+    double pass;
+
+    ClassState(PriorityClass priorityClass) {
+      this.priorityClass = priorityClass;
+    }
+  }
+
+  /** A slot held for one attempt; closing it gives the slot to the next waiting request. */
+  class Permit implements AutoCloseable {
+    private final ClassState state;
+    private final boolean shared;
+    private final long start = System.nanoTime();
+    private boolean closed;
+
+    private Permit(ClassState state, boolean shared) {
+      this.state = state;
+      this.shared = shared;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        state.stats.held(System.nanoTime() - start);
+        release(state, shared);
+      }
+    }
+  }
+
+  /** Queueing and in-flight times for one class. */
+  public static class Stats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final LongAccumulator maxQueuedNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder heldNanos = new LongAdder();
+    private final LongAccumulator maxHeldNanos = new LongAccumulator(Math::max, 0);
+
+    private void queued(long nanos) {
+      count.increment();
+      queuedNanos.add(nanos);
+      maxQueuedNanos.accumulate(nanos);
+    }
+
+    private void held(long nanos) {
+      heldNanos.add(nanos);
+      maxHeldNanos.accumulate(nanos);
+    }
+
+    /** The number of attempts that got a slot. */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /** The number of requests whose deadline passed while they were queued. */
+    public long getRejected() {
+      return rejected.sum();
+    }
+
+    public double getMeanQueuedMillis() {
+      long n = count.sum();
+      return n == 0 ? 0 : queuedNanos.sum() / 1e6 / n;
+    }
+
+    public long getMaxQueuedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxQueuedNanos.get());
+    }
+
+    /** The mean time a slot was held, i.e. network time plus reading the response. */
+    public double getMeanInFlightMillis() {
+      long n = count.sum();
+      return n == 0 ? 0 : heldNanos.sum() / 1e6 / n;
+    }
+
+    public long getMaxInFlightMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxHeldNanos.get());
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The full botocore model of a service, loaded the first time it's needed. Each operation's shapes
+ * are only compiled when that operation is first used, and the compiled {@link OperationModel}s
+ * are cached.
+ */
+public class ServiceModel {
+  private static final Map<String, ServiceModel> models = new HashMap<>();
+  private static final List<Path> modelDirectories = new CopyOnWriteArrayList<>();
+  private final JsonNode operations;
+  private final JsonNode shapeDefinitions;
+  private final Map<String, Shape> shapes = new HashMap<>();
+  private final Map<String, OperationModel> compiled = new ConcurrentHashMap<>();
+
+  ServiceModel(JsonNode model) {
+    this.operations = model.path("operations");
+    this.shapeDefinitions = model.path("shapes");
+  }
+
+  /**
+   * Also look for models in {@code directory}, searched in the order added and before the
+   * classpath. A directory can hold {@code <service>-service-2.json} files, as gen-service-data.py
+   * writes, or be in botocore's own layout, {@code <service>/<api-version>/service-2.json}, e.g.
+   * the {@code botocore/data} directory of an installed botocore. Directories can also be given
+   * with the {@code genaws.modelPath} system property.
+   */
+  public static void addModelDirectory(Path directory) {
+    modelDirectories.add(directory);
+  }
+
+  public static synchronized ServiceModel getServiceModel(String serviceName) {
+    ServiceModel model = models.get(serviceName);
+    if (model == null) {
+      try {
+        InputStream in = open(serviceName);
+        if (in == null) {
+          throw new IllegalArgumentException(
+              "no model for service "
+                  + serviceName
+                  + ", generate the models with gen-service-data.py or add a model directory");
+        }
+        try {
+          model = new ServiceModel(new ObjectMapper().readTree(in));
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("corrupt service model", e);
+      }
+      models.put(serviceName, model);
+    }
+    return model;
+  }
+
+  private static InputStream open(String serviceName) throws IOException {
+    List<Path> directories = new ArrayList<>(modelDirectories);
+    String modelPath = System.getProperty("genaws.modelPath");
+    if (modelPath != null) {
+      for (String directory : modelPath.split(File.pathSeparator)) {
+        directories.add(Paths.get(directory));
+      }
+    }
+    for (Path directory : directories) {
+      Path file = find(directory, serviceName + "-service-2.json");
+      if (file == null) {
+        Path versions = directory.resolve(serviceName);
+        if (Files.isDirectory(versions)) {
+          try (Stream<Path> list = Files.list(versions)) {
+            /* api versions are dates, so the latest sorts last */
+            for (Path version : list.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+              file = find(version, "service-2.json");
+              if (file != null) {
+                break;
+              }
+            }
+          }
+        }
+      }
+      if (file != null) {
+        InputStream in = Files.newInputStream(file);
+        return file.toString().endsWith(".gz") ? new GZIPInputStream(in) : in;
+      }
+    }
+    return ServiceModel.class.getResourceAsStream("data/" + serviceName + "-service-2.json");
+  }
+
+  /* newer botocore releases gzip their larger models */
+  private static Path find(Path directory, String name) {
+    for (Path file : new Path[] {directory.resolve(name), directory.resolve(name + ".gz")}) {
+      if (Files.isRegularFile(file)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  public OperationModel getOperation(String name) {
+    OperationModel operation = compiled.get(name);
+    if (operation == null) {
+      operation = compiled.computeIfAbsent(name, this::compile);
+    }
+    return operation;
+  }
+
+  private synchronized OperationModel compile(String name) {
+    JsonNode operation = operations.path(name);
+    if (operation.isMissingNode()) {
+      throw new IllegalArgumentException("unknown operation " + name);
+    }
+    JsonNode http = operation.path("http");
+    JsonNode input = operation.path("input");
+    JsonNode output = operation.path("output");
+    return new OperationModel(
+        name,
+        http.path("method").asText("POST"),
+        http.path("requestUri").asText("/"),
+        input.has("shape") ? getShape(input.path("shape").asText()) : null,
+        output.has("shape") ? getShape(output.path("shape").asText()) : null,
+        output.has("resultWrapper") ? output.path("resultWrapper").asText() : null);
+  }
+
+  private Shape getShape(String name) {
+    Shape shape = shapes.get(name);
+    if (shape == null) {
+      JsonNode definition = shapeDefinitions.path(name);
+      shape = new Shape(name);
+      // register before resolving members since shapes can be recursive
+      shapes.put(name, shape);
+      shape.type = Shape.getType(definition.path("type").asText());
+      shape.flattened = definition.path("flattened").asBoolean();
+      switch (shape.type) {
+        case STRUCTURE:
+          shape.payload = definition.has("payload") ? definition.path("payload").asText() : null;
+          for (Iterator<Map.Entry<String, JsonNode>> iter = definition.path("members").fields();
+              iter.hasNext(); ) {
+            Map.Entry<String, JsonNode> member = iter.next();
+            JsonNode m = member.getValue();
+            shape.addMember(
+                new Shape.Member(
+                    member.getKey(),
+                    getShape(m.path("shape").asText()),
+                    m.has("location") ? m.path("location").asText() : null,
+                    m.has("locationName") ? m.path("locationName").asText() : null));
+          }
+          break;
+        case LIST:
+          JsonNode listMember = definition.path("member");
+          shape.member = getShape(listMember.path("shape").asText());
+          shape.memberLocationName =
+              listMember.has("locationName") ? listMember.path("locationName").asText() : null;
+          break;
+        case MAP:
+          shape.key = getShape(definition.path("key").path("shape").asText());
+          shape.value = getShape(definition.path("value").path("shape").asText());
+          shape.keyLocationName = definition.path("key").path("locationName").asText("key");
+          shape.valueLocationName = definition.path("value").path("locationName").asText("value");
+          break;
+        default:
+          break;
+      }
+    }
+    return shape;
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A compiled botocore shape. */
+class Shape {
+  enum Type {
+    STRUCTURE,
+    LIST,
+    MAP,
+    STRING,
+    INTEGER,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    BOOLEAN,
+    TIMESTAMP,
+    BLOB
+  }
+
+  static class Member {
+    final String name;
+    final Shape shape;
+    final String location;
+    final String locationName;
+    final String xmlName;
+
+    Member(String name, Shape shape, String location, String locationName) {
+      this.name = name;
+      this.shape = shape;
+      this.location = location;
+      this.locationName = locationName != null ? locationName : name;
+      /*
+       * The elements of a flattened list are named after the list's member
+       * unless the member itself says otherwise
+       */
+      if (locationName == null && shape.flattened && shape.memberLocationName != null) {
+        this.xmlName = shape.memberLocationName;
+      } else {
+        this.xmlName = this.locationName;
+      }
+    }
+  }
+
+  final String name;
+  Type type = Type.STRING;
+  boolean flattened;
+  // structures
+  final Map<String, Member> members = new LinkedHashMap<>();
+  final Map<String, Member> membersByXmlName = new HashMap<>();
+  String payload;
+  // lists
+  Shape member;
+  String memberLocationName;
+  // maps
+  Shape key;
+  Shape value;
+  String keyLocationName = "key";
+  String valueLocationName = "value";
+
+  Shape(String name) {
+    this.name = name;
+  }
+
+  void addMember(Member m) {
+    members.put(m.name, m);
+    membersByXmlName.put(m.xmlName, m);
+  }
+
+  static Type getType(String type) {
+    switch (type) {
+      case "structure":
+        return Type.STRUCTURE;
+      case "list":
+        return Type.LIST;
+      case "map":
+        return Type.MAP;
+      case "integer":
+        return Type.INTEGER;
+      case "long":
+        return Type.LONG;
+      case "float":
+        return Type.FLOAT;
+      case "double":
+        return Type.DOUBLE;
+      case "boolean":
+        return Type.BOOLEAN;
+      case "timestamp":
+        return Type.TIMESTAMP;
+      case "blob":
+        return Type.BLOB;
+      default:
+        return Type.STRING;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.io.Reader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeCreator;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Parse an XML response by walking the operation's output shape, so lists are always arrays,
+ * scalars have their modeled types, and members are named as they are in the model.
+ */
+class ShapeXmlParser {
+
+  private XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+  public JsonNode parse(JsonNodeCreator creator, Reader reader, OperationModel operation)
+      throws IOException {
+    try {
+      return parse(creator, xmlInputFactory.createXMLStreamReader(reader), operation);
+    } catch (XMLStreamException | NumberFormatException e) {
+      throw new IOException("could not parse XML", e);
+    }
+  }
+
+  public JsonNode parse(JsonNodeCreator creator, XMLStreamReader reader, OperationModel operation)
+      throws XMLStreamException {
+    Shape output = operation.getOutput();
+    if (output == null || nextTag(reader) != XMLStreamReader.START_ELEMENT) {
+      return creator.objectNode();
+    }
+    String resultWrapper = operation.getResultWrapper();
+    if (resultWrapper != null) {
+      ObjectNode result = creator.objectNode();
+      while (nextTag(reader) == XMLStreamReader.START_ELEMENT) {
+        if (reader.getLocalName().equals(resultWrapper)) {
+          result = parseStructure(creator, reader, output);
+        } else {
+          skipElement(reader);
+        }
+      }
+      return result;
+    }
+    if (output.payload != null) {
+      // the root element is the payload member
+      Shape.Member payload = output.members.get(output.payload);
+      ObjectNode result = creator.objectNode();
+      result.set(payload.name, parseValue(creator, reader, payload.shape));
+      return result;
+    }
+    return parseStructure(creator, reader, output);
+  }
+
+  /** Parse the children of the current element as members of {@code shape}. */
+  private ObjectNode parseStructure(JsonNodeCreator creator, XMLStreamReader reader, Shape shape)
+      throws XMLStreamException {
+    ObjectNode node = creator.objectNode();
+    while (nextTag(reader) == XMLStreamReader.START_ELEMENT) {
+      Shape.Member member = shape.membersByXmlName.get(reader.getLocalName());
+      if (member == null) {
+        skipElement(reader);
+      } else if (member.shape.flattened && member.shape.type == Shape.Type.LIST) {
+        node.withArray(member.name).add(parseValue(creator, reader, member.shape.member));
+      } else if (member.shape.flattened && member.shape.type == Shape.Type.MAP) {
+        parseMapEntry(creator, reader, member.shape, node.with(member.name));
+      } else {
+        node.set(member.name, parseValue(creator, reader, member.shape));
+      }
+    }
+    return node;
+  }
+
+  /** Parse the current element, leaving the reader at its end. */
+  private JsonNode parseValue(JsonNodeCreator creator, XMLStreamReader reader, Shape shape)
+      throws XMLStreamException {
+    switch (shape.type) {
+      case STRUCTURE:
+        return parseStructure(creator, reader, shape);
+      case LIST:
+        {
+          ArrayNode list = creator.arrayNode();
+          while (nextTag(reader) == XMLStreamReader.START_ELEMENT) {
+            list.add(parseValue(creator, reader, shape.member));
+          }
+          return list;
+        }
+      case MAP:
+        {
+          ObjectNode map = creator.objectNode();
+          while (nextTag(reader) == XMLStreamReader.START_ELEMENT) {
+            parseMapEntry(creator, reader, shape, map);
+          }
+          return map;
+        }
+      default:
+        return parseScalar(creator, reader.getElementText(), shape);
+    }
+  }
+
+  private void parseMapEntry(
+      JsonNodeCreator creator, XMLStreamReader reader, Shape shape, ObjectNode map)
+      throws XMLStreamException {
+    String key = null;
+    JsonNode value = creator.nullNode();
+    while (nextTag(reader) == XMLStreamReader.START_ELEMENT) {
+      String name = reader.getLocalName();
+      if (name.equals(shape.keyLocationName)) {
+        key = reader.getElementText();
+      } else if (name.equals(shape.valueLocationName)) {
+        value = parseValue(creator, reader, shape.value);
+      } else {
+        skipElement(reader);
+      }
+    }
+    if (key != null) {
+      map.set(key, value);
+    }
+  }
+
+  private static JsonNode parseScalar(JsonNodeCreator creator, String text, Shape shape) {
+    switch (shape.type) {
+      case INTEGER:
+        return creator.numberNode(Integer.parseInt(text.trim()));
+      case LONG:
+        return creator.numberNode(Long.parseLong(text.trim()));
+      case FLOAT:
+      case DOUBLE:
+        return creator.numberNode(Double.parseDouble(text.trim()));
+      case BOOLEAN:
+        return creator.booleanNode(Boolean.parseBoolean(text.trim()));
+      default:
+        return creator.textNode(text);
+    }
+  }
+
+  private static int nextTag(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int e = reader.next();
+      if (e == XMLStreamReader.START_ELEMENT || e == XMLStreamReader.END_ELEMENT) {
+        return e;
+      }
+    }
+    return XMLStreamReader.END_DOCUMENT;
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    for (int depth = 1; depth > 0; ) {
+      int e = nextTag(reader);
+      if (e == XMLStreamReader.START_ELEMENT) {
+        depth += 1;
+      } else {
+        depth -= 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import com.amazonaws.regions.Region;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Records the exchanges going through a client to an append-only file, one json object per line,
+ * for replaying later as a realistic load test. Each line has the time since recording started,
+ * the service, region and action, the method, path and query string, the status, the time to the
+ * response headers, the sizes of both bodies and the request body, which replaying needs, up to
+ * {@link #maxBodyBytes}. Response bodies are only recorded after {@link #recordResponseBodies}.
+ *
+ * <p>Add it to the OkHttpClient given to {@link GenericAmazonClient}, so that it runs before the
+ * client's own interceptors and sees requests before they're signed: no Authorization or security
+ * token header is ever recorded, and presigned query parameters are redacted. Neither body is
+ * recorded for actions that carry credentials or secrets, e.g. sts {@code AssumeRole},
+ * secretsmanager {@code GetSecretValue} or kms {@code Decrypt}, or for the actions passed to {@link
+ * #excludeBodies}.
+ *
+ * <p>Recording never fails a call; a record that can't be written is dropped and counted in {@link
+ * #getFailures}.
+ */
+public class TrafficRecorder implements Interceptor, Closeable {
+  private static final Set<String> REDACTED_QUERY_PARAMETERS =
+      Set.of("X-Amz-Signature", "X-Amz-Credential", "X-Amz-Security-Token");
+  /* actions whose request or response bodies hold credentials, keys or secret values */
+  private static final Set<String> SECRET_ACTIONS =
+      Set.of(
+          "AssumeRole",
+          "AssumeRoleWithSAML",
+          "AssumeRoleWithWebIdentity",
+          "GetSessionToken",
+          "GetFederationToken",
+          "CreateAccessKey",
+          "GetSecretValue",
+          "PutSecretValue",
+          "CreateSecret",
+          "UpdateSecret",
+          "Decrypt",
+          "Encrypt",
+          "ReEncrypt",
+          "GenerateDataKey",
+          "GenerateDataKeyPair",
+          "GenerateRandom",
+          "GetParameter",
+          "GetParameters",
+          "GetParametersByPath",
+          "PutParameter",
+          "GetCredentialsForIdentity",
+          "GetRoleCredentials",
+          "GetAuthorizationToken");
+  private final Writer writer;
+  private final long start = System.nanoTime();
+  private final Set<String> excludedBodies = ConcurrentHashMap.newKeySet();
+  private final LongAdder failures = new LongAdder();
+  private volatile int maxBodyBytes = 64 * 1024;
+  private volatile boolean recordResponseBodies;
+
+  public TrafficRecorder(Path path) throws IOException {
+    this.writer =
+        Files.newBufferedWriter(
+            path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    excludedBodies.addAll(SECRET_ACTIONS);
+  }
+
+  public TrafficRecorder maxBodyBytes(int maxBodyBytes) {
+    this.maxBodyBytes = maxBodyBytes;
+    return this;
+  }
+
+  /** Also record response bodies, up to {@link #maxBodyBytes}. */
+  public TrafficRecorder recordResponseBodies(boolean recordResponseBodies) {
+    this.recordResponseBodies = recordResponseBodies;
+    return this;
+  }
+
+  public TrafficRecorder excludeBodies(String... actions) {
+    excludedBodies.addAll(Set.of(actions));
+    return this;
+  }
+
+  /** The number of exchanges that couldn't be recorded. */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    long requestStart = System.nanoTime();
+    Response response = chain.proceed(request);
+    long latency = System.nanoTime() - requestStart;
+    AmazonServiceData service = request.tag(AmazonServiceData.class);
+    if (service != null) {
+      try {
+        record(service, request, requestStart, response, latency);
+      } catch (IOException | RuntimeException e) {
+        failures.increment();
+      }
+    }
+    return response;
+  }
+
+  private void record(
+      AmazonServiceData service,
+      Request request,
+      long requestStart,
+      Response response,
+      long latency)
+      throws IOException {
+    AmazonAction action = request.tag(AmazonAction.class);
+    Region region = request.tag(Region.class);
+    boolean bodies = action == null || !excludedBodies.contains(action.getName());
+    ObjectNode record = JsonNodeFactory.instance.objectNode();
+    record.put("t", TimeUnit.NANOSECONDS.toMillis(requestStart - start));
+    record.put("service", service.getEndpointPrefix());
+    if (region != null) {
+      record.put("region", region.getName());
+    }
+    if (action != null) {
+      record.put("action", action.getName());
+    }
+    record.put("method", request.method());
+    record.put("path", request.url().encodedPath());
+    String query = redact(request.url()).encodedQuery();
+    if (query != null) {
+      record.put("query", query);
+    }
+    String target = request.header("X-Amz-Target");
+    if (target != null) {
+      record.put("target", target);
+    }
+    RequestBody requestBody = request.body();
+    if (requestBody != null) {
+      long length = requestBody.contentLength();
+      record.put("requestBytes", length);
+      putType(record, "requestType", requestBody.contentType());
+      if (bodies && length >= 0 && length <= maxBodyBytes) {
+        Buffer buffer = new Buffer();
+        requestBody.writeTo(buffer);
+        record.put("requestBody", buffer.readByteString().base64());
+      }
+    }
+    record.put("status", response.code());
+    record.put("latencyMicros", TimeUnit.NANOSECONDS.toMicros(latency));
+    String requestId = response.header("x-amzn-RequestId");
+    if (requestId != null) {
+      record.put("requestId", requestId);
+    }
+    long responseLength = response.body().contentLength();
+    record.put("responseBytes", responseLength);
+    putType(record, "responseType", response.body().contentType());
+    if (bodies && recordResponseBodies && responseLength <= maxBodyBytes) {
+      /* with no length, peek one byte more to tell a whole body from a cut off one */
+      ByteString body = response.peekBody(maxBodyBytes + 1L).byteString();
+      if (body.size() <= maxBodyBytes) {
+        record.put("responseBody", body.base64());
+      }
+    }
+    write(record.toString());
+  }
+
+  private static void putType(ObjectNode record, String field, MediaType type) {
+    if (type != null) {
+      record.put(field, type.toString());
+    }
+  }
+
+  private static HttpUrl redact(HttpUrl url) {
+    HttpUrl.Builder builder = url.newBuilder();
+    for (String name : new TreeSet<>(url.queryParameterNames())) {
+      if (REDACTED_QUERY_PARAMETERS.contains(name)) {
+        builder.removeAllQueryParameters(name);
+      }
+    }
+    return builder.build();
+  }
+
+  private synchronized void write(String line) throws IOException {
+    /* flushed per line so a crash leaves whole records behind */
+    writer.write(line);
+    writer.write('\n');
+    writer.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    writer.close();
+  }
+}
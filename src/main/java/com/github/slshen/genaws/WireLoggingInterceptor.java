@@ -0,0 +1,275 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.logging.HttpLoggingInterceptor;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
+
+/**
+ * Logs calls as one json object per line, for leaving on in production. Calls are sampled, at a
+ * rate that can be set per action, and can be limited to slow or failed calls. Bodies are captured
+ * up to a size limit, credentials are redacted from headers and presigned query strings, and lines
+ * are written by a background thread; if it falls behind lines are dropped and counted rather than
+ * slowing calls down. Install with {@link GenericAmazonClient#wireLogging}.
+ */
+public class WireLoggingInterceptor implements Interceptor {
+  private static final String REDACTED = "<redacted>";
+  private static final Set<String> REDACTED_QUERY_PARAMETERS =
+      Set.of("X-Amz-Signature", "X-Amz-Credential", "X-Amz-Security-Token");
+  private final Set<String> redactedHeaders =
+      new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+  private final Map<String, Double> actionSampleRates = new ConcurrentHashMap<>();
+  private final AtomicLong dropped = new AtomicLong();
+  private final BlockingQueue<ObjectNode> queue;
+  private final Consumer<String> sink;
+  private volatile double sampleRate = 1;
+  private volatile boolean onlySlowOrFailed;
+  private volatile Duration slowThreshold = Duration.ofSeconds(1);
+  private volatile int maxBodyBytes = 4096;
+  private volatile Thread writer;
+
+  public WireLoggingInterceptor() {
+    this(HttpLoggingInterceptor.Logger.DEFAULT::log, 1024);
+  }
+
+  /**
+   * @param sink where the log lines go, called from one background thread
+   * @param queueSize how many lines can be waiting to be written
+   */
+  public WireLoggingInterceptor(Consumer<String> sink, int queueSize) {
+    this.sink = sink;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    redactHeader("Authorization");
+    redactHeader("X-Amz-Security-Token");
+  }
+
+  /** Log this fraction of calls. */
+  public WireLoggingInterceptor sampleRate(double sampleRate) {
+    this.sampleRate = sampleRate;
+    return this;
+  }
+
+  /** Log this fraction of {@code action} calls, rather than the overall sample rate. */
+  public WireLoggingInterceptor sampleRate(String action, double sampleRate) {
+    actionSampleRates.put(action, sampleRate);
+    return this;
+  }
+
+  /** Only log calls that fail or take longer than {@code slowThreshold} to respond. */
+  public WireLoggingInterceptor onlySlowOrFailed(Duration slowThreshold) {
+    this.onlySlowOrFailed = true;
+    this.slowThreshold = slowThreshold;
+    return this;
+  }
+
+  /** Capture up to this many bytes of text request and response bodies; 0 for none. */
+  public WireLoggingInterceptor maxBodyBytes(int maxBodyBytes) {
+    this.maxBodyBytes = maxBodyBytes;
+    return this;
+  }
+
+  public WireLoggingInterceptor redactHeader(String name) {
+    redactedHeaders.add(name);
+    return this;
+  }
+
+  /** The number of lines dropped because the writer couldn't keep up. */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    AmazonAction action = request.tag(AmazonAction.class);
+    double rate =
+        action != null ? actionSampleRates.getOrDefault(action.getName(), sampleRate) : sampleRate;
+    if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+      return chain.proceed(request);
+    }
+    long start = System.nanoTime();
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException | RuntimeException e) {
+      ObjectNode entry = newEntry(request, action, start);
+      entry.put("error", e.toString());
+      emit(entry);
+      throw e;
+    }
+    long elapsed = System.nanoTime() - start;
+    boolean failed = !response.isSuccessful();
+    if (onlySlowOrFailed && !failed && elapsed < slowThreshold.toNanos()) {
+      return response;
+    }
+    ObjectNode entry = newEntry(request, action, start);
+    entry.put("status", response.code());
+    entry.set("responseHeaders", toJson(response.headers()));
+    if (isText(response.body().contentType())) {
+      String body = response.peekBody(maxBodyBytes).string();
+      if (!body.isEmpty()) {
+        entry.put("responseBody", body);
+      }
+    }
+    emit(entry);
+    return response;
+  }
+
+  private ObjectNode newEntry(Request request, AmazonAction action, long start) {
+    ObjectNode entry = JsonNodeFactory.instance.objectNode();
+    entry.put("time", Instant.now().toString());
+    AmazonServiceData service = request.tag(AmazonServiceData.class);
+    if (service != null) {
+      entry.put("service", service.getEndpointPrefix());
+    }
+    if (action != null) {
+      entry.put("action", action.getName());
+    }
+    entry.put("method", request.method());
+    entry.put("url", redact(request.url()));
+    entry.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    entry.set("requestHeaders", toJson(request.headers()));
+    RequestBody body = request.body();
+    if (body != null && isText(body.contentType()) && !body.isOneShot()) {
+      PrefixSink prefix = new PrefixSink(maxBodyBytes);
+      try (BufferedSink out = Okio.buffer(prefix)) {
+        body.writeTo(out);
+      } catch (IOException e) {
+        /* the prefix is full, or the body can't be written again */
+      }
+      if (prefix.buffer.size() > 0) {
+        entry.put("requestBody", prefix.buffer.readUtf8());
+      }
+    }
+    return entry;
+  }
+
+  /* Keeps the first bytes written to it, then fails the write so the rest isn't produced. */
+  private static class PrefixSink implements Sink {
+    final Buffer buffer = new Buffer();
+    private final long max;
+
+    PrefixSink(long max) {
+      this.max = max;
+    }
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+      long n = Math.min(byteCount, max - buffer.size());
+      source.read(buffer, n);
+      source.skip(byteCount - n);
+      if (buffer.size() >= max) {
+        throw new IOException("body prefix is full");
+      }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private boolean isText(MediaType contentType) {
+    if (maxBodyBytes <= 0 || contentType == null) {
+      return false;
+    }
+    String subtype = contentType.subtype();
+    return contentType.type().equals("text")
+        || subtype.contains("json")
+        || subtype.contains("xml")
+        || subtype.equals("x-www-form-urlencoded");
+  }
+
+  private ObjectNode toJson(Headers headers) {
+    ObjectNode n = JsonNodeFactory.instance.objectNode();
+    for (String name : headers.names()) {
+      String value = String.join(",", headers.values(name));
+      n.put(name, redactedHeaders.contains(name) ? REDACTED : value);
+    }
+    return n;
+  }
+
+  private static String redact(HttpUrl url) {
+    HttpUrl.Builder builder = url.newBuilder();
+    for (String name : url.queryParameterNames()) {
+      if (REDACTED_QUERY_PARAMETERS.contains(name)) {
+        builder.setQueryParameter(name, REDACTED);
+      }
+    }
+    return builder.build().toString();
+  }
+
+  private void emit(ObjectNode entry) {
+    if (!queue.offer(entry)) {
+      dropped.incrementAndGet();
+    }
+    if (writer == null) {
+      startWriter();
+    }
+  }
+
+  private synchronized void startWriter() {
+    if (writer == null) {
+      Thread t = new Thread(this::write, "aws-wire-log");
+      t.setDaemon(true);
+      t.start();
+      writer = t;
+    }
+  }
+
+  private void write() {
+    while (true) {
+      try {
+        sink.accept(queue.take().toString());
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        /* a broken sink mustn't stop logging */
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
+
+/**
+ * Wraps a request body in {@code aws-chunked} encoding, signing each chunk with the signature of
+ * the one before it as it's written.
+ */
+class AwsChunkedRequestBody extends RequestBody {
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final String CHUNK_SIGNATURE = ";chunk-signature=";
+  private static final String CRLF = "\r\n";
+  private final RequestBody body;
+  private final AwsV4Signer signer;
+
+  AwsChunkedRequestBody(RequestBody body, AwsV4Signer signer) {
+    this.body = body;
+    this.signer = signer;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return body.contentType();
+  }
+
+  @Override
+  public long contentLength() throws IOException {
+    return getEncodedLength(body.contentLength());
+  }
+
+  static long getEncodedLength(long length) {
+    long full = length / CHUNK_SIZE;
+    long remainder = length % CHUNK_SIZE;
+    long encodedLength = full * getChunkLength(CHUNK_SIZE);
+    if (remainder > 0) {
+      encodedLength += getChunkLength(remainder);
+    }
+    return encodedLength + getChunkLength(0);
+  }
+
+  private static long getChunkLength(long size) {
+    return Long.toHexString(size).length() + CHUNK_SIGNATURE.length() + 64 + 2 + size + 2;
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    /*
+     * Not try-with-resources since closing writes the final chunk
+     */
+    BufferedSink chunking = Okio.buffer(new ChunkingSink(sink));
+    body.writeTo(chunking);
+    chunking.close();
+  }
+
+  private class ChunkingSink implements Sink {
+    private final BufferedSink sink;
+    private final Buffer chunk = new Buffer();
+    private String previousSignature = signer.getSignature();
+
+    ChunkingSink(BufferedSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+      chunk.write(source, byteCount);
+      while (chunk.size() >= CHUNK_SIZE) {
+        writeChunk(CHUNK_SIZE);
+      }
+    }
+
+    private void writeChunk(long size) throws IOException {
+      ByteString data = chunk.readByteString(size);
+      previousSignature = signer.getChunkSignature(previousSignature, data.sha256().hex());
+      sink.writeUtf8(Long.toHexString(size))
+          .writeUtf8(CHUNK_SIGNATURE)
+          .writeUtf8(previousSignature)
+          .writeUtf8(CRLF)
+          .write(data)
+          .writeUtf8(CRLF);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      sink.flush();
+    }
+
+    @Override
+    public Timeout timeout() {
+      return sink.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+      /*
+       * Don't close the underlying sink, just finish the encoding
+       */
+      if (chunk.size() > 0) {
+        writeChunk(chunk.size());
+      }
+      writeChunk(0);
+      sink.flush();
+    }
+  }
+}
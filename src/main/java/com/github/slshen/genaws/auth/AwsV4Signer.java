@@ -20,12 +20,13 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.AWSSessionCredentials;
 import com.google.common.annotations.VisibleForTesting;
 import okhttp3.Request;
-import okio.Buffer;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.HashingSink;
+import okio.Okio;
 
 public class AwsV4Signer {
   private static final String AWS4_SIGNING_ALGORITHM = "AWS4-HMAC-SHA256";
@@ -34,6 +35,12 @@ public class AwsV4Signer {
 
   @VisibleForTesting static final String X_AMZ_DATE = "X-Amz-Date";
 
+  static final String X_AMZ_CONTENT_SHA256 = "X-Amz-Content-Sha256";
+
+  private static final String AWS4_CHUNK_SIGNING_ALGORITHM = "AWS4-HMAC-SHA256-PAYLOAD";
+
+  private static final String EMPTY_HASH = Hashing.hash("");
+
   private static final String AUTHORIZATION = "Authorization";
 
   private static final char NEWLINE = '\n';
@@ -52,11 +59,23 @@ public class AwsV4Signer {
 
   private byte[] kSigning;
 
+  private String signature;
+
+  private final boolean normalizePath;
+
   public AwsV4Signer(
       String regionName,
       String service,
       AWSCredentialsProvider credentialsProvider,
       Request request) {
+    this(
+        regionName,
+        service,
+        SdkCredentialsProvider.toCredentials(credentialsProvider.getCredentials()),
+        request);
+  }
+
+  public AwsV4Signer(String regionName, String service, Credentials credentials, Request request) {
 
     amzDate = request.header(X_AMZ_DATE);
     String shortDate = amzDate.substring(0, 8);
@@ -70,15 +89,9 @@ public class AwsV4Signer {
             .append("/aws4_request")
             .toString();
 
-    AWSCredentials credentials = credentialsProvider.getCredentials();
-    // the AWS SDK does this synchronization on credentials thing so we'll do the same
-    synchronized (credentials) {
-      accessKeyId = credentials.getAWSAccessKeyId().trim();
-      secretKey = credentials.getAWSSecretKey().trim();
-      if (credentials instanceof AWSSessionCredentials) {
-        sessionToken = ((AWSSessionCredentials) credentials).getSessionToken().trim();
-      }
-    }
+    accessKeyId = credentials.getAccessKeyId();
+    secretKey = credentials.getSecretKey();
+    sessionToken = credentials.getSessionToken();
 
     byte[] kDate = Hashing.hmacSha256("AWS4" + secretKey, shortDate);
     byte[] kRegion = Hashing.hmacSha256(kDate, regionName);
@@ -86,6 +99,8 @@ public class AwsV4Signer {
     kSigning = Hashing.hmacSha256(kService, "aws4_request");
 
     this.request = request;
+    // S3 is the exception that doesn't normalize URI paths
+    this.normalizePath = !service.equals("s3");
   }
 
   public Request sign() {
@@ -112,9 +127,31 @@ public class AwsV4Signer {
   }
 
   private void addSignature(StringBuilder value) {
-    String stringToSign = getStringToSign();
-    byte[] result = Hashing.hmacSha256(kSigning, stringToSign);
-    Hashing.addHexString(value, result);
+    value.append(getSignature());
+  }
+
+  /** The signature of the request, which is the seed signature for a chunked payload. */
+  public String getSignature() {
+    if (signature == null) {
+      StringBuilder value = new StringBuilder();
+      Hashing.addHexString(value, Hashing.hmacSha256(kSigning, getStringToSign()));
+      signature = value.toString();
+    }
+    return signature;
+  }
+
+  /** Sign one chunk of an {@code aws-chunked} payload. */
+  String getChunkSignature(String previousSignature, String chunkHash) {
+    StringBuilder stringToSign = new StringBuilder();
+    stringToSign.append(AWS4_CHUNK_SIGNING_ALGORITHM).append(NEWLINE);
+    stringToSign.append(amzDate).append(NEWLINE);
+    stringToSign.append(credentialScope).append(NEWLINE);
+    stringToSign.append(previousSignature).append(NEWLINE);
+    stringToSign.append(EMPTY_HASH).append(NEWLINE);
+    stringToSign.append(chunkHash);
+    StringBuilder value = new StringBuilder();
+    Hashing.addHexString(value, Hashing.hmacSha256(kSigning, stringToSign.toString()));
+    return value.toString();
   }
 
   @VisibleForTesting
@@ -131,7 +168,8 @@ public class AwsV4Signer {
   String getCanonicalRequest() {
     StringBuilder value = new StringBuilder();
     value.append(request.method()).append(NEWLINE);
-    value.append(request.url().encodedPath().replaceAll("/+", "/")).append(NEWLINE);
+    String path = request.url().encodedPath();
+    value.append(normalizePath ? path.replaceAll("/+", "/") : path).append(NEWLINE);
     addCanonicalQueryString(value).append(NEWLINE);
     addCanonicalHeaders(value).append(NEWLINE);
     value.append(getSignedHeaders()).append(NEWLINE);
@@ -140,16 +178,26 @@ public class AwsV4Signer {
   }
 
   private void addBodyHash(StringBuilder value) {
-    if (request.body() != null) {
-      Buffer b = new Buffer();
-      try {
-        request.newBuilder().build().body().writeTo(b);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    String contentSha256 = request.header(X_AMZ_CONTENT_SHA256);
+    value.append(contentSha256 != null ? contentSha256 : getPayloadHash(request.body()));
+  }
+
+  /** The hex SHA-256 of a request body, streaming the body through the digest if need be. */
+  public static String getPayloadHash(RequestBody body) {
+    try {
+      if (body instanceof PayloadHashing) {
+        return ((PayloadHashing) body).getPayloadHash();
+      } else if (body != null) {
+        HashingSink hashingSink = HashingSink.sha256(Okio.blackhole());
+        try (BufferedSink sink = Okio.buffer(hashingSink)) {
+          body.writeTo(sink);
+        }
+        return hashingSink.hash().hex();
+      } else {
+        return EMPTY_HASH;
       }
-      value.append(Hashing.hash(b.readUtf8()));
-    } else {
-      value.append(Hashing.hash(""));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
@@ -181,15 +229,16 @@ public class AwsV4Signer {
         }
         first = false;
         value
-            .append(rfc3986Encode(parameterName))
+            .append(uriEncode(parameterName))
             .append('=')
-            .append(rfc3986Encode(parameterValue));
+            .append(uriEncode(parameterValue));
       }
     }
     return value;
   }
 
-  private String rfc3986Encode(String value) {
+  /** RFC 3986 encode a value, as required for the canonical request. */
+  public static String uriEncode(String value) {
     try {
       return URLEncoder.encode(value, "utf8")
           .replace("+", "%20")
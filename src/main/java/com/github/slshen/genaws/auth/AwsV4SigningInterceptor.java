@@ -16,49 +16,156 @@ package com.github.slshen.genaws.auth;
 
 import java.io.IOException;
 import java.time.Clock;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Region;
 import com.github.slshen.genaws.AmazonServiceData;
+import com.github.slshen.genaws.EndpointResolver;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
 
+/**
+ * Signs requests that have {@code Region} and {@code AmazonServiceData} tags. If a request is
+ * rejected because the local clock is off, the skew is taken from the response's {@code Date}
+ * header, kept for later requests to the same host, and the request is signed again and resent.
+ */
 public class AwsV4SigningInterceptor implements Interceptor {
 
   private static final DateTimeFormatter timeFormatter =
-      DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss'Z'").withZoneUTC();
-  private final AWSCredentialsProvider credentialsProvider;
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+  private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+  private static final String STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+  private static final long SKEW_THRESHOLD_MILLIS = TimeUnit.MINUTES.toMillis(4);
+  private static final Pattern SKEW_ERRORS =
+      Pattern.compile(
+          "RequestTimeTooSkewed|RequestExpired|RequestInTheFuture|InvalidSignatureException"
+              + "|SignatureDoesNotMatch|AuthFailure|Signature expired");
+  private final CredentialsProvider credentialsProvider;
+  private final Map<String, Long> clockSkews = new ConcurrentHashMap<>();
   private Clock clock = Clock.systemDefaultZone();
 
-  public AwsV4SigningInterceptor(AWSCredentialsProvider credentialsProvider) {
+  /**
+   * @param credentialsProvider the credentials for requests without a {@code CredentialsProvider}
+   *     tag, may be null if every request has one
+   */
+  public AwsV4SigningInterceptor(CredentialsProvider credentialsProvider) {
     this.credentialsProvider = credentialsProvider;
   }
 
+  public AwsV4SigningInterceptor(AWSCredentialsProvider credentialsProvider) {
+    this(SdkCredentialsProvider.of(credentialsProvider));
+  }
+
+  /** For tests, the clock requests are signed with before skew correction. */
+  public AwsV4SigningInterceptor clock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  /** How far ahead of the local clock requests to {@code host} are signed. */
+  public long getClockSkew(String host) {
+    return clockSkews.getOrDefault(host, 0L);
+  }
+
   @Override
   public Response intercept(Chain chain) throws IOException {
     Request request = chain.request();
+    long signingTime = clock.millis() + getClockSkew(request.url().host());
+    Response response = chain.proceed(sign(request, signingTime));
+    if (request.header(AwsV4Signer.X_AMZ_DATE) == null && isSkewed(response, signingTime)) {
+      /*
+       * Sign again with the server's time and retry straight away, rather
+       * than failing and having every retry rejected for the same reason.
+       */
+      long serverTime = response.headers().getDate("Date").getTime();
+      clockSkews.put(request.url().host(), serverTime - clock.millis());
+      response.close();
+      response = chain.proceed(sign(request, serverTime));
+    }
+    return response;
+  }
+
+  private boolean isSkewed(Response response, long signingTime) throws IOException {
+    if (response.code() != 400 && response.code() != 403) {
+      return false;
+    }
+    Date serverDate = response.headers().getDate("Date");
+    if (serverDate == null
+        || Math.abs(serverDate.getTime() - signingTime) < SKEW_THRESHOLD_MILLIS) {
+      return false;
+    }
+    return SKEW_ERRORS.matcher(response.peekBody(8192).string()).find();
+  }
+
+  private Request sign(Request request, long signingTime) throws IOException {
     Region regionData = request.tag(Region.class);
     AmazonServiceData serviceData = request.tag(AmazonServiceData.class);
     if (regionData != null && serviceData != null) {
       Request.Builder builder = request.newBuilder();
       String amzDate = request.header(AwsV4Signer.X_AMZ_DATE);
       if (amzDate == null) {
-        amzDate = timeFormatter.print(clock.millis());
+        amzDate = timeFormatter.format(Instant.ofEpochMilli(signingTime));
         builder.addHeader(AwsV4Signer.X_AMZ_DATE, amzDate);
       }
       if (request.header("Host") == null) {
-        builder.addHeader("Host", request.url().host());
+        builder.addHeader("Host", EndpointResolver.getHost(request.url()));
       }
-      request =
+      String service = serviceData.getEndpointPrefix();
+      PayloadSigning payloadSigning = request.tag(PayloadSigning.class);
+      if (payloadSigning == null && service.equals("s3")) {
+        payloadSigning = PayloadSigning.SIGNED;
+      }
+      if (payloadSigning != null && request.header(AwsV4Signer.X_AMZ_CONTENT_SHA256) == null) {
+        switch (payloadSigning) {
+          case SIGNED:
+            builder.addHeader(
+                AwsV4Signer.X_AMZ_CONTENT_SHA256, AwsV4Signer.getPayloadHash(request.body()));
+            break;
+          case UNSIGNED:
+            builder.addHeader(AwsV4Signer.X_AMZ_CONTENT_SHA256, UNSIGNED_PAYLOAD);
+            break;
+          case STREAMING:
+            long length = request.body() != null ? request.body().contentLength() : 0;
+            if (length < 0) {
+              throw new IllegalStateException("streaming signing requires a content length");
+            }
+            builder
+                .addHeader(AwsV4Signer.X_AMZ_CONTENT_SHA256, STREAMING_PAYLOAD)
+                .addHeader("Content-Encoding", "aws-chunked")
+                .addHeader("X-Amz-Decoded-Content-Length", Long.toString(length));
+            break;
+        }
+      }
+      CredentialsProvider requestCredentialsProvider = request.tag(CredentialsProvider.class);
+      if (requestCredentialsProvider == null) {
+        requestCredentialsProvider = credentialsProvider;
+      }
+      if (requestCredentialsProvider == null) {
+        throw new IllegalStateException("no credentials for request");
+      }
+      AwsV4Signer signer =
           new AwsV4Signer(
-                  regionData.getName(),
-                  serviceData.getEndpointPrefix(),
-                  credentialsProvider,
-                  builder.build())
-              .sign();
+              regionData.getName(),
+              service,
+              requestCredentialsProvider.getCredentials(),
+              builder.build());
+      request = signer.sign();
+      if (payloadSigning == PayloadSigning.STREAMING && request.body() != null) {
+        request =
+            request
+                .newBuilder()
+                .method(request.method(), new AwsChunkedRequestBody(request.body(), signer))
+                .build();
+      }
     }
-    return chain.proceed(request);
+    return request;
   }
 }
@@ -0,0 +1,65 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+/**
+ * Credentials from the ECS or EKS container credentials endpoint, given by {@code
+ * AWS_CONTAINER_CREDENTIALS_RELATIVE_URI} or {@code AWS_CONTAINER_CREDENTIALS_FULL_URI}, with
+ * {@code AWS_CONTAINER_AUTHORIZATION_TOKEN} if it's set.
+ */
+public class ContainerCredentialsProvider extends HttpCredentialsProvider {
+  private static final String ECS_HOST = "http://169.254.170.2";
+  private final HttpUrl url;
+  private final String authorization;
+
+  public ContainerCredentialsProvider() {
+    this(getUrl(), System.getenv("AWS_CONTAINER_AUTHORIZATION_TOKEN"));
+  }
+
+  public ContainerCredentialsProvider(HttpUrl url, String authorization) {
+    this.url = url;
+    this.authorization = authorization;
+  }
+
+  /** Whether the environment has a container credentials endpoint. */
+  public static boolean isAvailable() {
+    return getUrl() != null;
+  }
+
+  private static HttpUrl getUrl() {
+    String relative = System.getenv("AWS_CONTAINER_CREDENTIALS_RELATIVE_URI");
+    if (relative != null) {
+      return HttpUrl.get(ECS_HOST + relative);
+    }
+    String full = System.getenv("AWS_CONTAINER_CREDENTIALS_FULL_URI");
+    return full != null ? HttpUrl.get(full) : null;
+  }
+
+  @Override
+  Credentials load() throws IOException {
+    if (url == null) {
+      throw new CredentialsException("no container credentials endpoint");
+    }
+    Request.Builder request = new Request.Builder().url(url);
+    if (authorization != null) {
+      request.header("Authorization", authorization);
+    }
+    return fetch(request.build());
+  }
+}
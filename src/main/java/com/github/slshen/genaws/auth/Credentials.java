@@ -0,0 +1,58 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.time.Instant;
+
+/** Credentials for signing requests; the session token and expiration may be null. */
+public final class Credentials {
+  private final String accessKeyId;
+  private final String secretKey;
+  private final String sessionToken;
+  private final Instant expiration;
+
+  public Credentials(String accessKeyId, String secretKey) {
+    this(accessKeyId, secretKey, null, null);
+  }
+
+  public Credentials(
+      String accessKeyId, String secretKey, String sessionToken, Instant expiration) {
+    this.accessKeyId = accessKeyId;
+    this.secretKey = secretKey;
+    this.sessionToken = sessionToken;
+    this.expiration = expiration;
+  }
+
+  public String getAccessKeyId() {
+    return accessKeyId;
+  }
+
+  public String getSecretKey() {
+    return secretKey;
+  }
+
+  public String getSessionToken() {
+    return sessionToken;
+  }
+
+  public Instant getExpiration() {
+    return expiration;
+  }
+
+  @Override
+  public String toString() {
+    return "Credentials[" + accessKeyId + "]";
+  }
+}
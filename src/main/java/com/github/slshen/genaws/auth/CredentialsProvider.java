@@ -0,0 +1,29 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+/**
+ * Supplies the credentials to sign each request with, or throws a {@link CredentialsException}.
+ * Providers that fetch credentials should cache them; this is called for every request. SDK v1
+ * providers can be used through {@link SdkCredentialsProvider}.
+ */
+@FunctionalInterface
+public interface CredentialsProvider {
+  Credentials getCredentials();
+
+  static CredentialsProvider of(Credentials credentials) {
+    return () -> credentials;
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks for credentials in the environment, a web identity token, the shared profile files, the
+ * container credentials endpoint and then the instance metadata service, and sticks with the first
+ * that has them. This is the client's default. Profiles with {@code role_arn} or {@code
+ * credential_process} aren't supported; give the client the SDK's {@code
+ * DefaultAWSCredentialsProviderChain} where those are needed.
+ */
+public class DefaultCredentialsProvider implements CredentialsProvider {
+  private final List<CredentialsProvider> providers = new ArrayList<>();
+  private volatile CredentialsProvider found;
+
+  public DefaultCredentialsProvider() {
+    providers.add(new EnvironmentCredentialsProvider());
+    if (WebIdentityCredentialsProvider.isAvailable()) {
+      providers.add(new WebIdentityCredentialsProvider());
+    }
+    providers.add(new ProfileCredentialsProvider());
+    if (ContainerCredentialsProvider.isAvailable()) {
+      providers.add(new ContainerCredentialsProvider());
+    }
+    if (InstanceMetadataCredentialsProvider.isEnabled()) {
+      providers.add(new InstanceMetadataCredentialsProvider());
+    }
+  }
+
+  @Override
+  public Credentials getCredentials() {
+    CredentialsProvider provider = found;
+    if (provider != null) {
+      return provider.getCredentials();
+    }
+    StringBuilder errors = new StringBuilder();
+    for (CredentialsProvider p : providers) {
+      try {
+        Credentials credentials = p.getCredentials();
+        found = p;
+        return credentials;
+      } catch (CredentialsException e) {
+        errors.append(errors.length() > 0 ? "; " : "").append(e.getMessage());
+      }
+    }
+    throw new CredentialsException("unable to load credentials: " + errors);
+  }
+}
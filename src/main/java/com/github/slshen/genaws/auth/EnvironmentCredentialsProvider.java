@@ -0,0 +1,58 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.util.Map;
+
+/**
+ * Credentials from {@code AWS_ACCESS_KEY_ID}, {@code AWS_SECRET_ACCESS_KEY} and {@code
+ * AWS_SESSION_TOKEN}, or else the {@code aws.accessKeyId}, {@code aws.secretKey} and {@code
+ * aws.sessionToken} system properties.
+ */
+public class EnvironmentCredentialsProvider implements CredentialsProvider {
+  private final Map<String, String> env;
+
+  public EnvironmentCredentialsProvider() {
+    this(System.getenv());
+  }
+
+  EnvironmentCredentialsProvider(Map<String, String> env) {
+    this.env = env;
+  }
+
+  @Override
+  public Credentials getCredentials() {
+    String accessKeyId = env.get("AWS_ACCESS_KEY_ID");
+    String secretKey = env.get("AWS_SECRET_ACCESS_KEY");
+    String sessionToken = env.get("AWS_SESSION_TOKEN");
+    if (isBlank(accessKeyId) || isBlank(secretKey)) {
+      accessKeyId = System.getProperty("aws.accessKeyId");
+      secretKey = System.getProperty("aws.secretKey");
+      sessionToken = System.getProperty("aws.sessionToken");
+    }
+    if (isBlank(accessKeyId) || isBlank(secretKey)) {
+      throw new CredentialsException("no credentials in the environment");
+    }
+    return new Credentials(
+        accessKeyId.trim(),
+        secretKey.trim(),
+        isBlank(sessionToken) ? null : sessionToken.trim(),
+        null);
+  }
+
+  private static boolean isBlank(String s) {
+    return s == null || s.isBlank();
+  }
+}
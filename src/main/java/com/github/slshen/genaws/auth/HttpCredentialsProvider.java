@@ -0,0 +1,107 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Temporary credentials fetched over HTTP, as from the ECS container endpoint, the EC2 instance
+ * metadata service or STS. They're cached until five minutes before they expire.
+ */
+abstract class HttpCredentialsProvider implements CredentialsProvider {
+  private static final Duration REFRESH_BEFORE_EXPIRY = Duration.ofMinutes(5);
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static OkHttpClient httpClient;
+  private volatile Credentials credentials;
+  Clock clock = Clock.systemUTC();
+
+  /* The local endpoints answer quickly or not at all. */
+  static synchronized OkHttpClient getHttpClient() {
+    if (httpClient == null) {
+      httpClient =
+          GenericAmazonClient.getSharedHttpClient()
+              .newBuilder()
+              .connectTimeout(Duration.ofSeconds(1))
+              .readTimeout(Duration.ofSeconds(2))
+              .build();
+    }
+    return httpClient;
+  }
+
+  @Override
+  public Credentials getCredentials() {
+    Credentials c = credentials;
+    if (c == null || isExpiring(c)) {
+      synchronized (this) {
+        c = credentials;
+        if (c == null || isExpiring(c)) {
+          try {
+            c = credentials = load();
+          } catch (IOException e) {
+            if (c == null || !c.getExpiration().isAfter(clock.instant())) {
+              throw new CredentialsException("unable to load credentials: " + e.getMessage(), e);
+            }
+            /* keep using the old credentials until they expire */
+          }
+        }
+      }
+    }
+    return c;
+  }
+
+  private boolean isExpiring(Credentials c) {
+    return c.getExpiration() != null
+        && c.getExpiration().minus(REFRESH_BEFORE_EXPIRY).isBefore(clock.instant());
+  }
+
+  abstract Credentials load() throws IOException;
+
+  /** Fetch and parse the usual credentials json. */
+  static Credentials fetch(Request request) throws IOException {
+    try (Response response = execute(request)) {
+      JsonNode n = mapper.readTree(response.body().charStream());
+      if (!n.hasNonNull("AccessKeyId") || !n.hasNonNull("SecretAccessKey")) {
+        throw new IOException(request.url() + " returned no credentials");
+      }
+      return new Credentials(
+          n.path("AccessKeyId").asText(),
+          n.path("SecretAccessKey").asText(),
+          n.hasNonNull("Token") ? n.path("Token").asText() : null,
+          n.hasNonNull("Expiration") ? Instant.parse(n.path("Expiration").asText()) : null);
+    }
+  }
+
+  static Response execute(Request request) throws IOException {
+    return execute(getHttpClient(), request);
+  }
+
+  static Response execute(OkHttpClient httpClient, Request request) throws IOException {
+    Response response = httpClient.newCall(request).execute();
+    if (!response.isSuccessful()) {
+      response.close();
+      throw new IOException(request.url() + " returned " + response.code());
+    }
+    return response;
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * The instance profile credentials from the EC2 instance metadata service, using an IMDSv2
+ * session token.
+ */
+public class InstanceMetadataCredentialsProvider extends HttpCredentialsProvider {
+  private static final String TOKEN_HEADER = "X-aws-ec2-metadata-token";
+  private final HttpUrl endpoint;
+
+  public InstanceMetadataCredentialsProvider() {
+    this(
+        HttpUrl.get(
+            System.getenv().getOrDefault(
+                "AWS_EC2_METADATA_SERVICE_ENDPOINT", "http://169.254.169.254")));
+  }
+
+  public InstanceMetadataCredentialsProvider(HttpUrl endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /** Whether the metadata service hasn't been turned off with {@code AWS_EC2_METADATA_DISABLED}. */
+  public static boolean isEnabled() {
+    return !"true".equalsIgnoreCase(System.getenv("AWS_EC2_METADATA_DISABLED"));
+  }
+
+  @Override
+  Credentials load() throws IOException {
+    String token;
+    try (Response response =
+        execute(
+            new Request.Builder()
+                .url(endpoint.resolve("/latest/api/token"))
+                .header("X-aws-ec2-metadata-token-ttl-seconds", "21600")
+                .put(RequestBody.create(new byte[0]))
+                .build())) {
+      token = response.body().string();
+    }
+    HttpUrl roles = endpoint.resolve("/latest/meta-data/iam/security-credentials/");
+    String role;
+    try (Response response =
+        execute(new Request.Builder().url(roles).header(TOKEN_HEADER, token).build())) {
+      role = response.body().string().trim().split("\n")[0];
+    }
+    if (role.isEmpty()) {
+      throw new IOException("no instance profile");
+    }
+    return fetch(
+        new Request.Builder()
+            .url(roles.newBuilder().addPathSegment(role).build())
+            .header(TOKEN_HEADER, token)
+            .build());
+  }
+}
@@ -0,0 +1,27 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+
+/**
+ * Implemented by request bodies that can compute their own SHA-256 payload hash, so the signer
+ * doesn't have to buffer the body to hash it.
+ */
+public interface PayloadHashing {
+
+  /** The lowercase hex SHA-256 of the bytes {@code writeTo} will write. */
+  String getPayloadHash() throws IOException;
+}
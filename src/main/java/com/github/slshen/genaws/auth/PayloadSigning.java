@@ -0,0 +1,31 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+/**
+ * How the request payload is covered by the signature. Set as a {@code Request} tag; S3 requests
+ * without one are {@link #SIGNED}.
+ */
+public enum PayloadSigning {
+  /** The payload's SHA-256 is part of the signature; the body is read once to hash it. */
+  SIGNED,
+  /** The payload isn't signed, only possible over https. */
+  UNSIGNED,
+  /**
+   * The body is sent with {@code aws-chunked} encoding and each chunk is signed as it's written,
+   * so the body is only read once. The body's length must be known.
+   */
+  STREAMING
+}
@@ -0,0 +1,112 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static credentials from a profile in the shared credentials file, {@code ~/.aws/credentials} or
+ * {@code AWS_SHARED_CREDENTIALS_FILE}, or else the config file, {@code ~/.aws/config} or {@code
+ * AWS_CONFIG_FILE}. The profile is {@code AWS_PROFILE}, or {@code default}. The files are read
+ * once.
+ */
+public class ProfileCredentialsProvider implements CredentialsProvider {
+  private final Path credentialsFile;
+  private final Path configFile;
+  private final String profile;
+  private volatile Credentials credentials;
+
+  public ProfileCredentialsProvider() {
+    this(getEnv("AWS_PROFILE", "default"));
+  }
+
+  public ProfileCredentialsProvider(String profile) {
+    this(
+        Paths.get(getEnv("AWS_SHARED_CREDENTIALS_FILE", awsDir("credentials"))),
+        Paths.get(getEnv("AWS_CONFIG_FILE", awsDir("config"))),
+        profile);
+  }
+
+  public ProfileCredentialsProvider(Path credentialsFile, Path configFile, String profile) {
+    this.credentialsFile = credentialsFile;
+    this.configFile = configFile;
+    this.profile = profile;
+  }
+
+  @Override
+  public Credentials getCredentials() {
+    if (credentials == null) {
+      Map<String, String> properties = readProfile(credentialsFile, profile);
+      if (!properties.containsKey("aws_access_key_id")) {
+        /* the config file names all but the default profile "profile name" */
+        properties =
+            readProfile(configFile, profile.equals("default") ? profile : "profile " + profile);
+      }
+      String accessKeyId = properties.get("aws_access_key_id");
+      String secretKey = properties.get("aws_secret_access_key");
+      if (accessKeyId == null || secretKey == null) {
+        throw new CredentialsException("no credentials for profile " + profile);
+      }
+      credentials =
+          new Credentials(accessKeyId, secretKey, properties.get("aws_session_token"), null);
+    }
+    return credentials;
+  }
+
+  /** The properties of {@code section} in an ini file, or an empty map. */
+  static Map<String, String> readProfile(Path file, String section) {
+    Map<String, String> properties = new HashMap<>();
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      boolean inSection = false;
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) {
+          continue;
+        }
+        if (line.startsWith("[") && line.endsWith("]")) {
+          inSection = line.substring(1, line.length() - 1).trim().equals(section);
+        } else if (inSection) {
+          int eq = line.indexOf('=');
+          if (eq > 0) {
+            properties.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      /* no profile */
+    } catch (IOException e) {
+      throw new CredentialsException("unable to read " + file, e);
+    }
+    return properties;
+  }
+
+  private static String awsDir(String name) {
+    return Paths.get(System.getProperty("user.home"), ".aws", name).toString();
+  }
+
+  private static String getEnv(String name, String defaultValue) {
+    String value = System.getenv(name);
+    return value != null && !value.isBlank() ? value : defaultValue;
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+
+/**
+ * Adapts an SDK v1 {@code AWSCredentialsProvider}, or with {@link #toSdk} the other way around.
+ * None of the other credentials providers use the SDK, so its credentials classes are only loaded
+ * by applications that use this.
+ */
+public class SdkCredentialsProvider implements CredentialsProvider {
+  private final AWSCredentialsProvider credentialsProvider;
+
+  public SdkCredentialsProvider(AWSCredentialsProvider credentialsProvider) {
+    this.credentialsProvider = credentialsProvider;
+  }
+
+  public static CredentialsProvider of(AWSCredentialsProvider credentialsProvider) {
+    return credentialsProvider != null ? new SdkCredentialsProvider(credentialsProvider) : null;
+  }
+
+  public AWSCredentialsProvider getCredentialsProvider() {
+    return credentialsProvider;
+  }
+
+  /** The other way around, an SDK v1 provider backed by {@code credentialsProvider}. */
+  public static AWSCredentialsProvider toSdk(CredentialsProvider credentialsProvider) {
+    if (credentialsProvider == null) {
+      return null;
+    }
+    if (credentialsProvider instanceof SdkCredentialsProvider) {
+      return ((SdkCredentialsProvider) credentialsProvider).getCredentialsProvider();
+    }
+    return new AWSCredentialsProvider() {
+      @Override
+      public AWSCredentials getCredentials() {
+        Credentials credentials;
+        try {
+          credentials = credentialsProvider.getCredentials();
+        } catch (CredentialsException e) {
+          throw new AmazonClientException(e.getMessage(), e);
+        }
+        return credentials.getSessionToken() != null
+            ? new BasicSessionCredentials(
+                credentials.getAccessKeyId(),
+                credentials.getSecretKey(),
+                credentials.getSessionToken())
+            : new BasicAWSCredentials(credentials.getAccessKeyId(), credentials.getSecretKey());
+      }
+
+      @Override
+      public void refresh() {}
+    };
+  }
+
+  @Override
+  public Credentials getCredentials() {
+    AWSCredentials credentials;
+    try {
+      credentials = credentialsProvider.getCredentials();
+    } catch (AmazonClientException e) {
+      throw new CredentialsException(e.getMessage(), e);
+    }
+    return toCredentials(credentials);
+  }
+
+  static Credentials toCredentials(AWSCredentials credentials) {
+    // the AWS SDK does this synchronization on credentials thing so we'll do the same
+    synchronized (credentials) {
+      return new Credentials(
+          credentials.getAWSAccessKeyId().trim(),
+          credentials.getAWSSecretKey().trim(),
+          credentials instanceof AWSSessionCredentials
+              ? ((AWSSessionCredentials) credentials).getSessionToken().trim()
+              : null,
+          null);
+    }
+  }
+}
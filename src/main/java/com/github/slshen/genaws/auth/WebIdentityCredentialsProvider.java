@@ -0,0 +1,139 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Credentials for the role {@code AWS_ROLE_ARN} from STS {@code AssumeRoleWithWebIdentity}, with
+ * the token in {@code AWS_WEB_IDENTITY_TOKEN_FILE}, as EKS sets up for a service account. The
+ * token file is read again for each refresh since it's rotated. STS is the regional endpoint of
+ * {@code AWS_REGION} when {@code AWS_STS_REGIONAL_ENDPOINTS} is {@code regional}, otherwise the
+ * global one.
+ */
+public class WebIdentityCredentialsProvider extends HttpCredentialsProvider {
+  private static final Set<String> FIELDS =
+      Set.of("AccessKeyId", "SecretAccessKey", "SessionToken", "Expiration");
+  private final HttpUrl endpoint;
+  private final String roleArn;
+  private final Path tokenFile;
+  private final String sessionName;
+
+  public WebIdentityCredentialsProvider() {
+    this(
+        getStsEndpoint(),
+        System.getenv("AWS_ROLE_ARN"),
+        getTokenFile(),
+        getEnv("AWS_ROLE_SESSION_NAME", "generic-aws-client-" + System.currentTimeMillis()));
+  }
+
+  public WebIdentityCredentialsProvider(
+      HttpUrl endpoint, String roleArn, Path tokenFile, String sessionName) {
+    this.endpoint = endpoint;
+    this.roleArn = roleArn;
+    this.tokenFile = tokenFile;
+    this.sessionName = sessionName;
+  }
+
+  /** Whether the environment has a role and a web identity token file. */
+  public static boolean isAvailable() {
+    return getEnv("AWS_ROLE_ARN", null) != null && getTokenFile() != null;
+  }
+
+  private static Path getTokenFile() {
+    String tokenFile = getEnv("AWS_WEB_IDENTITY_TOKEN_FILE", null);
+    return tokenFile != null ? Paths.get(tokenFile) : null;
+  }
+
+  private static HttpUrl getStsEndpoint() {
+    String region = getEnv("AWS_REGION", null);
+    if (region != null
+        && "regional".equalsIgnoreCase(System.getenv("AWS_STS_REGIONAL_ENDPOINTS"))) {
+      return HttpUrl.get("https://sts." + region + ".amazonaws.com/");
+    }
+    return HttpUrl.get("https://sts.amazonaws.com/");
+  }
+
+  @Override
+  Credentials load() throws IOException {
+    if (roleArn == null || tokenFile == null) {
+      throw new CredentialsException("no web identity role or token file");
+    }
+    String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+    Request request =
+        new Request.Builder()
+            .url(endpoint)
+            .post(
+                new FormBody.Builder()
+                    .add("Action", "AssumeRoleWithWebIdentity")
+                    .add("Version", "2011-06-15")
+                    .add("RoleArn", roleArn)
+                    .add("RoleSessionName", sessionName)
+                    .add("WebIdentityToken", token)
+                    .build())
+            .build();
+    /* STS is a remote service, so it gets the usual timeouts rather than the local endpoints' */
+    try (Response response = execute(GenericAmazonClient.getSharedHttpClient(), request)) {
+      return parse(response.body().charStream());
+    }
+  }
+
+  /** The credentials in an {@code AssumeRoleWithWebIdentity} response. */
+  static Credentials parse(Reader reader) throws IOException {
+    Map<String, String> values = new HashMap<>();
+    try {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      XMLStreamReader xml = factory.createXMLStreamReader(reader);
+      while (xml.hasNext()) {
+        if (xml.next() == XMLStreamReader.START_ELEMENT && FIELDS.contains(xml.getLocalName())) {
+          values.put(xml.getLocalName(), xml.getElementText().trim());
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("could not parse the AssumeRoleWithWebIdentity response", e);
+    }
+    if (!values.containsKey("AccessKeyId") || !values.containsKey("SecretAccessKey")) {
+      throw new IOException("AssumeRoleWithWebIdentity returned no credentials");
+    }
+    return new Credentials(
+        values.get("AccessKeyId"),
+        values.get("SecretAccessKey"),
+        values.get("SessionToken"),
+        values.containsKey("Expiration") ? Instant.parse(values.get("Expiration")) : null);
+  }
+
+  private static String getEnv(String name, String defaultValue) {
+    String value = System.getenv(name);
+    return value != null && !value.isBlank() ? value : defaultValue;
+  }
+}
@@ -0,0 +1,250 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.dynamodb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.GenericAmazonClient;
+
+/**
+ * Scans a DynamoDB table with {@code TotalSegments} segments in parallel, each paging through its
+ * part of the table with {@code LastEvaluatedKey}, and hands the items to one consumer. The
+ * segments block when {@link #bufferSize} items are waiting, so a slow consumer slows the scan
+ * rather than filling the heap.
+ *
+ * <p>Throttling ({@code ProvisionedThroughputExceededException}) is retried indefinitely with a
+ * delay before each page shared by all the segments, doubled on each throttle and reduced
+ * gradually as pages succeed, so the scan settles at a rate the table can sustain. Give the client
+ * a retry policy that doesn't also back off on throttling for the best effect.
+ *
+ * <p>With a {@link #checkpoint} file, the position of each segment is saved once the items of each
+ * page have been consumed, and a later scan of the same table with the same number of segments
+ * resumes from there. Items consumed after the last save are delivered again. The file is deleted
+ * when the scan completes.
+ */
+public class ParallelScan {
+  private static final long MAX_DELAY_MILLIS = 20_000;
+  private final GenericAmazonClient client;
+  private final Regions region;
+  private final String table;
+  private int totalSegments = 8;
+  private int concurrency = -1;
+  private int bufferSize = 1000;
+  private ObjectNode parameters;
+  private Path checkpointFile;
+  private long delayMillis;
+
+  public ParallelScan(GenericAmazonClient client, Regions region, String table) {
+    this.client = client;
+    this.region = region;
+    this.table = table;
+  }
+
+  public ParallelScan totalSegments(int totalSegments) {
+    this.totalSegments = totalSegments;
+    return this;
+  }
+
+  /** The number of segments scanned at once; all of them by default. */
+  public ParallelScan concurrency(int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  /** The most items waiting for the consumer. */
+  public ParallelScan bufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+    return this;
+  }
+
+  /** Other {@code Scan} parameters, e.g. {@code FilterExpression} or {@code Limit}. */
+  public ParallelScan parameters(ObjectNode parameters) {
+    this.parameters = parameters;
+    return this;
+  }
+
+  public ParallelScan checkpoint(Path checkpointFile) {
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+
+  /** The current delay before each page. */
+  public synchronized long getDelayMillis() {
+    return delayMillis;
+  }
+
+  /**
+   * Scan the table, passing each item to {@code consumer} in the calling thread.
+   *
+   * @return the number of items consumed
+   */
+  public long scan(Consumer<? super JsonNode> consumer) {
+    ScanCheckpoint checkpoint = loadCheckpoint();
+    BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(bufferSize);
+    int running = 0;
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            concurrency > 0 ? Math.min(concurrency, totalSegments) : totalSegments,
+            r -> {
+              Thread t = new Thread(r, "dynamodb-scan");
+              t.setDaemon(true);
+              return t;
+            });
+    try {
+      for (int segment = 0; segment < totalSegments; segment++) {
+        if (!checkpoint.isDone(segment)) {
+          int s = segment;
+          JsonNode startKey = checkpoint.getStartKey(segment);
+          executor.execute(() -> scanSegment(s, startKey, queue));
+          running += 1;
+        }
+      }
+      long count = 0;
+      while (running > 0) {
+        Entry entry = queue.take();
+        if (entry.failure != null) {
+          throw entry.failure;
+        } else if (entry.item != null) {
+          consumer.accept(entry.item);
+          count += 1;
+        } else {
+          checkpoint.completePage(entry.segment, entry.nextKey);
+          checkpoint.save(checkpointFile);
+          if (entry.nextKey == null) {
+            running -= 1;
+          }
+        }
+      }
+      if (checkpointFile != null) {
+        Files.deleteIfExists(checkpointFile);
+      }
+      return count;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AmazonClientException("interrupted", e);
+    } catch (IOException e) {
+      throw new AmazonClientException("unable to save scan checkpoint", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ScanCheckpoint loadCheckpoint() {
+    try {
+      ScanCheckpoint checkpoint = ScanCheckpoint.load(checkpointFile);
+      if (checkpoint != null && checkpoint.matches(table, totalSegments)) {
+        return checkpoint;
+      }
+    } catch (IOException e) {
+      throw new AmazonClientException("unable to load scan checkpoint", e);
+    }
+    return new ScanCheckpoint(table, totalSegments);
+  }
+
+  private void scanSegment(int segment, JsonNode startKey, BlockingQueue<Entry> queue) {
+    try {
+      JsonNode key = startKey;
+      while (true) {
+        ObjectNode request = parameters != null ? parameters.deepCopy() : client.objectNode();
+        request.put("TableName", table).put("Segment", segment).put("TotalSegments", totalSegments);
+        if (key != null) {
+          request.set("ExclusiveStartKey", key);
+        }
+        Thread.sleep(getDelayMillis());
+        JsonNode page;
+        try {
+          page =
+              client.execute(
+                  client.newActionBuilder(region, "dynamodb", "Scan").parameters(request).build());
+        } catch (AmazonServiceException e) {
+          if (isThrottling(e)) {
+            throttled();
+            continue;
+          }
+          throw e;
+        }
+        succeeded();
+        for (JsonNode item : page.path("Items")) {
+          queue.put(new Entry(item));
+        }
+        key = page.path("LastEvaluatedKey");
+        key = key.size() > 0 ? key : null;
+        queue.put(new Entry(segment, key));
+        if (key == null) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      /* the scan is being abandoned */
+    } catch (RuntimeException e) {
+      try {
+        queue.put(new Entry(e));
+      } catch (InterruptedException ie) {
+        /* the scan is being abandoned */
+      }
+    }
+  }
+
+  private static boolean isThrottling(AmazonServiceException e) {
+    return "ProvisionedThroughputExceededException".equals(e.getErrorCode())
+        || "ThrottlingException".equals(e.getErrorCode());
+  }
+
+  private synchronized void throttled() {
+    delayMillis = Math.min(MAX_DELAY_MILLIS, Math.max(50, delayMillis * 2));
+  }
+
+  private synchronized void succeeded() {
+    delayMillis = Math.max(0, delayMillis - Math.max(1, delayMillis / 10));
+  }
+
+  /* An item, the end of a segment's page, or a segment's failure. */
+  private static class Entry {
+    final JsonNode item;
+    final int segment;
+    final JsonNode nextKey;
+    final RuntimeException failure;
+
+    Entry(JsonNode item) {
+      this(item, -1, null, null);
+    }
+
+    Entry(int segment, JsonNode nextKey) {
+      this(null, segment, nextKey, null);
+    }
+
+    Entry(RuntimeException failure) {
+      this(null, -1, null, failure);
+    }
+
+    private Entry(JsonNode item, int segment, JsonNode nextKey, RuntimeException failure) {
+      this.item = item;
+      this.segment = segment;
+      this.nextKey = nextKey;
+      this.failure = failure;
+    }
+  }
+}
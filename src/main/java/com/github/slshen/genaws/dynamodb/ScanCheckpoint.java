@@ -0,0 +1,96 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.dynamodb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The progress of a parallel scan: for each segment, the key to continue from, or null once the
+ * segment is done. Saved after each page has been consumed so that an interrupted scan can be
+ * resumed.
+ */
+class ScanCheckpoint {
+  private static final ObjectMapper mapper = new ObjectMapper();
+  final String table;
+  final int totalSegments;
+  /* a segment that hasn't been started has no entry */
+  private final Map<Integer, JsonNode> segments = new TreeMap<>();
+
+  ScanCheckpoint(String table, int totalSegments) {
+    this.table = table;
+    this.totalSegments = totalSegments;
+  }
+
+  /** Load a saved checkpoint, or null if there isn't one. */
+  static ScanCheckpoint load(Path file) throws IOException {
+    if (file == null || !Files.exists(file)) {
+      return null;
+    }
+    JsonNode n = mapper.readTree(file.toFile());
+    ScanCheckpoint checkpoint =
+        new ScanCheckpoint(n.path("table").asText(), n.path("totalSegments").asInt());
+    for (Iterator<Map.Entry<String, JsonNode>> iter = n.path("segments").fields();
+        iter.hasNext(); ) {
+      Map.Entry<String, JsonNode> segment = iter.next();
+      checkpoint.segments.put(Integer.parseInt(segment.getKey()), segment.getValue());
+    }
+    return checkpoint;
+  }
+
+  boolean matches(String table, int totalSegments) {
+    return this.table.equals(table) && this.totalSegments == totalSegments;
+  }
+
+  synchronized boolean isDone(int segment) {
+    JsonNode key = segments.get(segment);
+    return key != null && key.isNull();
+  }
+
+  /** The key to start the segment from, or null to start at the beginning. */
+  synchronized JsonNode getStartKey(int segment) {
+    JsonNode key = segments.get(segment);
+    return key != null && !key.isNull() ? key : null;
+  }
+
+  /** Record that the segment's items up to {@code nextKey} are done; null when it's finished. */
+  synchronized void completePage(int segment, JsonNode nextKey) {
+    segments.put(segment, nextKey != null ? nextKey : NullNode.getInstance());
+  }
+
+  /** Save the checkpoint, atomically replacing the file. */
+  synchronized void save(Path file) throws IOException {
+    if (file == null) {
+      return;
+    }
+    ObjectNode n = mapper.createObjectNode();
+    n.put("table", table);
+    n.put("totalSegments", totalSegments);
+    ObjectNode segmentsNode = n.putObject("segments");
+    segments.forEach((segment, key) -> segmentsNode.set(segment.toString(), key));
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    mapper.writeValue(tmp.toFile(), n);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.eventstream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Decodes {@code application/vnd.amazon.eventstream} frames as they arrive. Each frame is read
+ * into a buffer that's reused from frame to frame, its checksums are verified, and it's handed to
+ * the handler as the one reusable {@link EventStreamMessage}, so a long-lived stream allocates
+ * little more than its header values.
+ */
+public class EventStreamDecoder {
+  private static final int PRELUDE_LENGTH = 12;
+  private static final int CRC_LENGTH = 4;
+  private static final int MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+  private final CRC32 crc = new CRC32();
+  private final EventStreamMessage message = new EventStreamMessage();
+  private byte[] frame = new byte[8192];
+
+  /** Decode messages until the source is exhausted. */
+  public void decode(BufferedSource source, EventStreamHandler handler) throws IOException {
+    while (!source.exhausted()) {
+      handler.onMessage(next(source));
+    }
+  }
+
+  /** Decode the next message, which is only valid until the next call. */
+  public EventStreamMessage next(BufferedSource source) throws IOException {
+    int totalLength = source.readInt();
+    int headersLength = source.readInt();
+    int preludeCrc = source.readInt();
+    if (totalLength < PRELUDE_LENGTH + CRC_LENGTH || totalLength > MAX_MESSAGE_LENGTH) {
+      throw new IOException("invalid event stream message length " + totalLength);
+    }
+    if (headersLength < 0 || headersLength > totalLength - PRELUDE_LENGTH - CRC_LENGTH) {
+      throw new IOException("invalid event stream headers length " + headersLength);
+    }
+    if (frame.length < totalLength) {
+      frame = new byte[Math.max(totalLength, frame.length * 2)];
+    }
+    ByteBuffer b = ByteBuffer.wrap(frame, 0, totalLength);
+    b.putInt(0, totalLength).putInt(4, headersLength).putInt(8, preludeCrc);
+    crc.reset();
+    crc.update(frame, 0, 8);
+    if ((int) crc.getValue() != preludeCrc) {
+      throw new IOException("event stream prelude checksum mismatch");
+    }
+    for (int offset = PRELUDE_LENGTH; offset < totalLength; ) {
+      int n = source.read(frame, offset, totalLength - offset);
+      if (n == -1) {
+        throw new EOFException("truncated event stream message");
+      }
+      offset += n;
+    }
+    crc.update(frame, 8, totalLength - 8 - CRC_LENGTH);
+    if ((int) crc.getValue() != b.getInt(totalLength - CRC_LENGTH)) {
+      throw new IOException("event stream message checksum mismatch");
+    }
+    message.clear();
+    b.position(PRELUDE_LENGTH);
+    int headersEnd = PRELUDE_LENGTH + headersLength;
+    while (b.position() < headersEnd) {
+      String name = readString(b, b.get() & 0xff);
+      message.headers.put(name, readHeaderValue(b));
+    }
+    message.payload.write(frame, headersEnd, totalLength - CRC_LENGTH - headersEnd);
+    return message;
+  }
+
+  private static Object readHeaderValue(ByteBuffer b) throws IOException {
+    int type = b.get();
+    switch (type) {
+      case 0:
+        return Boolean.TRUE;
+      case 1:
+        return Boolean.FALSE;
+      case 2:
+        return b.get();
+      case 3:
+        return b.getShort();
+      case 4:
+        return b.getInt();
+      case 5:
+        return b.getLong();
+      case 6:
+        {
+          byte[] bytes = new byte[b.getShort() & 0xffff];
+          b.get(bytes);
+          return ByteString.of(bytes);
+        }
+      case 7:
+        return readString(b, b.getShort() & 0xffff);
+      case 8:
+        return Instant.ofEpochMilli(b.getLong());
+      case 9:
+        return new UUID(b.getLong(), b.getLong());
+      default:
+        throw new IOException("unknown event stream header type " + type);
+    }
+  }
+
+  private static String readString(ByteBuffer b, int length) {
+    String value = new String(b.array(), b.position(), length, StandardCharsets.UTF_8);
+    b.position(b.position() + length);
+    return value;
+  }
+}
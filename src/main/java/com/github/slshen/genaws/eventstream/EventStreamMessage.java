@@ -0,0 +1,73 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.eventstream;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * One message of an {@code application/vnd.amazon.eventstream} body. The decoder reuses the same
+ * instance for every message, so it's only valid during {@link EventStreamHandler#onMessage};
+ * copy anything that's needed later, e.g. with {@link #getPayloadBytes()}.
+ */
+public class EventStreamMessage {
+  final Map<String, Object> headers = new LinkedHashMap<>();
+  final Buffer payload = new Buffer();
+
+  void clear() {
+    headers.clear();
+    payload.clear();
+  }
+
+  /**
+   * The headers. Values are {@code Boolean}, {@code Byte}, {@code Short}, {@code Integer}, {@code
+   * Long}, {@code ByteString}, {@code String}, {@code java.time.Instant} or {@code
+   * java.util.UUID}.
+   */
+  public Map<String, Object> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  public Object getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public String getStringHeader(String name) {
+    Object value = headers.get(name);
+    return value != null ? value.toString() : null;
+  }
+
+  /** {@code event}, {@code exception} or {@code error}. */
+  public String getMessageType() {
+    return getStringHeader(":message-type");
+  }
+
+  public String getEventType() {
+    return getStringHeader(":event-type");
+  }
+
+  /** The payload; reading it consumes it. */
+  public Buffer getPayload() {
+    return payload;
+  }
+
+  /** A copy of the payload. */
+  public ByteString getPayloadBytes() {
+    return payload.snapshot();
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.s3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The progress of a multipart upload of a file, saved after every part so that an interrupted
+ * upload can be resumed.
+ */
+class MultipartUploadState {
+  private static final ObjectMapper mapper = new ObjectMapper();
+  final String bucket;
+  final String key;
+  final String uploadId;
+  final long length;
+  final long partSize;
+  private final SortedMap<Integer, String> parts = new TreeMap<>();
+
+  MultipartUploadState(String bucket, String key, String uploadId, long length, long partSize) {
+    this.bucket = bucket;
+    this.key = key;
+    this.uploadId = uploadId;
+    this.length = length;
+    this.partSize = partSize;
+  }
+
+  /** Load saved state, or null if there isn't any. */
+  static MultipartUploadState load(Path file) throws IOException {
+    if (file == null || !Files.exists(file)) {
+      return null;
+    }
+    JsonNode n = mapper.readTree(file.toFile());
+    MultipartUploadState state =
+        new MultipartUploadState(
+            n.path("bucket").asText(),
+            n.path("key").asText(),
+            n.path("uploadId").asText(),
+            n.path("length").asLong(),
+            n.path("partSize").asLong());
+    for (Iterator<Map.Entry<String, JsonNode>> iter = n.path("parts").fields(); iter.hasNext(); ) {
+      Map.Entry<String, JsonNode> part = iter.next();
+      state.parts.put(Integer.parseInt(part.getKey()), part.getValue().asText());
+    }
+    return state;
+  }
+
+  boolean matches(String bucket, String key, long length) {
+    return this.bucket.equals(bucket) && this.key.equals(key) && this.length == length;
+  }
+
+  int getPartCount() {
+    return (int) ((length + partSize - 1) / partSize);
+  }
+
+  synchronized boolean isComplete(int partNumber) {
+    return parts.containsKey(partNumber);
+  }
+
+  synchronized void completePart(int partNumber, String etag) {
+    parts.put(partNumber, etag);
+  }
+
+  synchronized SortedMap<Integer, String> getParts() {
+    return new TreeMap<>(parts);
+  }
+
+  /** Save the state, atomically replacing the file. */
+  synchronized void save(Path file) throws IOException {
+    if (file == null) {
+      return;
+    }
+    ObjectNode n = mapper.createObjectNode();
+    n.put("bucket", bucket);
+    n.put("key", key);
+    n.put("uploadId", uploadId);
+    n.put("length", length);
+    n.put("partSize", partSize);
+    ObjectNode partsNode = n.putObject("parts");
+    parts.forEach((partNumber, etag) -> partsNode.put(partNumber.toString(), etag));
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    mapper.writeValue(tmp.toFile(), n);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
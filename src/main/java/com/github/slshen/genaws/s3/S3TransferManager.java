@@ -0,0 +1,532 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.s3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.slshen.genaws.FileRequestBody;
+import com.github.slshen.genaws.GenericAmazonActionBuilder;
+import com.github.slshen.genaws.GenericAmazonClient;
+import com.github.slshen.genaws.auth.PayloadSigning;
+import com.google.common.xml.XmlEscapers;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * Moves large S3 objects using several connections at once. Downloads are split into ranged GETs
+ * written at their offsets into a preallocated file, and uploads are split into the parts of a
+ * multipart upload.
+ */
+public class S3TransferManager implements Closeable {
+  private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+  private static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+  private static final int MAX_PARTS = 10_000;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final MediaType XML = MediaType.get("application/xml");
+  private final GenericAmazonClient client;
+  private final Regions region;
+  private int concurrency = 8;
+  private long partSize = 8L * 1024 * 1024;
+  private long maxInFlightBytes = 128L * 1024 * 1024;
+  private int partRetries = 3;
+  private RetryPolicy.BackoffStrategy partBackoff =
+      PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY;
+  private boolean pathStyle;
+  private ExecutorService executor;
+
+  public S3TransferManager(GenericAmazonClient client, Regions region) {
+    this.client = client;
+    this.region = region;
+  }
+
+  /**
+   * The number of parts or ranges transferred at once. The threads are started by the first
+   * transfer, so this can't be changed after that.
+   */
+  public synchronized S3TransferManager concurrency(int concurrency) {
+    if (executor != null) {
+      throw new IllegalStateException("concurrency can't be changed after a transfer has started");
+    }
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  /** The smallest part size; it's increased as needed to keep under the 10,000 part limit. */
+  public S3TransferManager partSize(long partSize) {
+    this.partSize = Math.max(partSize, MIN_PART_SIZE);
+    return this;
+  }
+
+  /**
+   * The most part data buffered in memory at once when uploading from a stream; at least one
+   * part's worth, 5 MiB.
+   */
+  public S3TransferManager maxInFlightBytes(long maxInFlightBytes) {
+    if (maxInFlightBytes < MIN_PART_SIZE) {
+      throw new IllegalArgumentException("maxInFlightBytes is less than the 5 MiB minimum part");
+    }
+    this.maxInFlightBytes = maxInFlightBytes;
+    return this;
+  }
+
+  /** How many times a part is retried after the client's own retries are exhausted. */
+  public S3TransferManager partRetries(int partRetries) {
+    this.partRetries = partRetries;
+    return this;
+  }
+
+  /**
+   * How long to wait before retrying a part. The default is the SDK's exponential backoff with
+   * jitter, which waits longer after throttling such as S3's {@code SlowDown}.
+   */
+  public S3TransferManager partBackoff(RetryPolicy.BackoffStrategy partBackoff) {
+    this.partBackoff = partBackoff;
+    return this;
+  }
+
+  public S3TransferManager pathStyle(boolean pathStyle) {
+    this.pathStyle = pathStyle;
+    return this;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor =
+          Executors.newFixedThreadPool(
+              concurrency,
+              r -> {
+                Thread t = new Thread(r, "s3-transfer");
+                t.setDaemon(true);
+                return t;
+              });
+    }
+    return executor;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private GenericAmazonActionBuilder newActionBuilder(String action, String bucket, String key) {
+    return client
+        .newActionBuilder(region, "s3", action)
+        .bucket(bucket)
+        .key(key)
+        .pathStyle(pathStyle);
+  }
+
+  /**
+   * Download an object into {@code file}, replacing it. If the object's length isn't known it's
+   * downloaded with a single GET.
+   */
+  public void download(String bucket, String key, Path file) {
+    Headers head =
+        client.execute(
+            newActionBuilder("HeadObject", bucket, key).method("HEAD").build(), Response::headers);
+    String contentLength = head.get("Content-Length");
+    String etag = head.get("ETag");
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (contentLength == null) {
+        withRetries(() -> downloadRange(bucket, key, etag, channel, 0, -1));
+        channel.force(false);
+        return;
+      }
+      long length = Long.parseLong(contentLength);
+      if (length > 0) {
+        // preallocate so ranges can be written in any order
+        channel.write(ByteBuffer.allocate(1), length - 1);
+      }
+      long rangeSize = getPartSize(length);
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (long start = 0; start < length; start += rangeSize) {
+        long end = Math.min(start + rangeSize, length);
+        long rangeStart = start;
+        tasks.add(
+            () -> {
+              withRetries(() -> downloadRange(bucket, key, etag, channel, rangeStart, end));
+              return null;
+            });
+      }
+      runAll(tasks);
+      channel.force(false);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new AmazonClientException(e.getMessage(), e);
+    }
+  }
+
+  /* Download bytes [start, end) of an object, or all of it if end is -1. */
+  private Void downloadRange(
+      String bucket, String key, String etag, FileChannel channel, long start, long end) {
+    GenericAmazonActionBuilder builder = newActionBuilder("GetObject", bucket, key).method("GET");
+    if (end >= 0) {
+      builder.header("Range", "bytes=" + start + "-" + (end - 1));
+    }
+    if (etag != null) {
+      // fail rather than mix ranges of different versions
+      builder.header("If-Match", etag);
+    }
+    return client.execute(
+        builder.build(),
+        response -> {
+          BufferedSource source = response.body().source();
+          ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+          long position = start;
+          while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+              position += channel.write(buffer, position);
+            }
+            buffer.clear();
+          }
+          if (end >= 0 && position != end) {
+            throw new IOException("expected " + (end - start) + " bytes for range at " + start);
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Upload a file.
+   *
+   * @return the ETag of the new object
+   */
+  public String upload(String bucket, String key, Path file) {
+    return upload(bucket, key, file, null);
+  }
+
+  /**
+   * Upload a file, saving the progress of a multipart upload to {@code stateFile} so that calling
+   * this again after a failure only uploads the parts that are missing. The state file is deleted
+   * once the upload completes.
+   *
+   * @return the ETag of the new object
+   */
+  public String upload(String bucket, String key, Path file, Path stateFile) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length <= partSize) {
+        return putObject(bucket, key, FileRequestBody.of(channel, 0, length));
+      }
+      MultipartUploadState state = MultipartUploadState.load(stateFile);
+      if (state == null || !state.matches(bucket, key, length)) {
+        state =
+            new MultipartUploadState(
+                bucket, key, createMultipartUpload(bucket, key), length, getPartSize(length));
+        state.save(stateFile);
+      }
+      MultipartUploadState upload = state;
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int partNumber = 1; partNumber <= upload.getPartCount(); partNumber++) {
+        if (upload.isComplete(partNumber)) {
+          continue;
+        }
+        int part = partNumber;
+        long offset = (part - 1) * upload.partSize;
+        long size = Math.min(upload.partSize, length - offset);
+        tasks.add(
+            () -> {
+              String etag =
+                  withRetries(
+                      () ->
+                          uploadPart(
+                              upload, part, FileRequestBody.of(channel, offset, size)));
+              upload.completePart(part, etag);
+              upload.save(stateFile);
+              return null;
+            });
+      }
+      try {
+        runAll(tasks);
+      } catch (RuntimeException e) {
+        if (stateFile == null) {
+          abortMultipartUpload(upload);
+        }
+        throw e;
+      }
+      String etag = completeMultipartUpload(upload, upload.getParts());
+      if (stateFile != null) {
+        Files.deleteIfExists(stateFile);
+      }
+      return etag;
+    } catch (IOException e) {
+      throw new AmazonClientException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Upload the content of a stream of unknown length. Parts are buffered in memory, at most {@code
+   * maxInFlightBytes} at once, and the part size grows as the upload does so that large streams
+   * stay under the part limit.
+   *
+   * @return the ETag of the new object
+   */
+  public String upload(String bucket, String key, InputStream in) {
+    try {
+      int firstSize = (int) Math.min(partSize, maxInFlightBytes);
+      byte[] first = in.readNBytes(firstSize);
+      if (first.length < firstSize) {
+        return putObject(bucket, key, RequestBody.create(first));
+      }
+      MultipartUploadState upload =
+          new MultipartUploadState(bucket, key, createMultipartUpload(bucket, key), -1, partSize);
+      Semaphore memory = new Semaphore((int) Math.min(maxInFlightBytes, Integer.MAX_VALUE));
+      Map<Integer, String> etags = new ConcurrentSkipListMap<>();
+      List<Future<Void>> futures = new ArrayList<>();
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      try {
+        byte[] data = first;
+        memory.acquire(data.length);
+        for (int partNumber = 1; data.length > 0; partNumber++) {
+          byte[] partData = data;
+          int part = partNumber;
+          futures.add(
+              getExecutor()
+                  .submit(
+                      () -> {
+                        try {
+                          etags.put(
+                              part,
+                              withRetries(
+                                  () -> uploadPart(upload, part, RequestBody.create(partData))));
+                        } catch (Exception | Error e) {
+                          failure.compareAndSet(null, e);
+                          throw e;
+                        } finally {
+                          memory.release(partData.length);
+                        }
+                        return null;
+                      }));
+          /* fail fast if a part that's already finished has failed */
+          Throwable failed = failure.get();
+          if (failed != null) {
+            throw toRuntimeException(failed);
+          }
+          /* after the last part there can be, only look for one more byte */
+          int size =
+              partNumber < MAX_PARTS
+                  ? (int) Math.min(getStreamPartSize(partNumber + 1), maxInFlightBytes)
+                  : 1;
+          memory.acquire(size);
+          data = in.readNBytes(size);
+          memory.release(size - data.length);
+          if (data.length > 0 && partNumber == MAX_PARTS) {
+            throw new AmazonClientException("stream too large for a multipart upload");
+          }
+        }
+        await(futures);
+      } catch (InterruptedException | IOException | RuntimeException e) {
+        futures.forEach(f -> f.cancel(true));
+        abortMultipartUpload(upload);
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        throw e instanceof RuntimeException
+            ? (RuntimeException) e
+            : new AmazonClientException(e.getMessage(), e);
+      }
+      return completeMultipartUpload(upload, new TreeMap<>(etags));
+    } catch (IOException e) {
+      throw new AmazonClientException(e.getMessage(), e);
+    }
+  }
+
+  /** The part size for a file, adjusted to keep under the part limit. */
+  private long getPartSize(long length) {
+    long size = Math.max(partSize, (length + MAX_PARTS - 1) / MAX_PARTS);
+    // round up to a whole MB
+    size = (size + 1024 * 1024 - 1) / (1024 * 1024) * (1024 * 1024);
+    return Math.min(size, MAX_PART_SIZE);
+  }
+
+  /**
+   * The part size for a stream of unknown length, doubling every 1,000 parts, which allows for
+   * streams of up to about 5,000 times the initial part size.
+   */
+  private long getStreamPartSize(int partNumber) {
+    return Math.min(partSize << ((partNumber - 1) / 1000), MAX_PART_SIZE);
+  }
+
+  private String putObject(String bucket, String key, RequestBody body) {
+    return client.execute(
+        newActionBuilder("PutObject", bucket, key)
+            .method("PUT")
+            .body(body)
+            .payloadSigning(PayloadSigning.STREAMING)
+            .build(),
+        response -> response.header("ETag"));
+  }
+
+  private String createMultipartUpload(String bucket, String key) {
+    JsonNode result =
+        client.execute(
+            newActionBuilder("CreateMultipartUpload", bucket, key)
+                .method("POST")
+                .parameters(client.objectNode().put("uploads", ""))
+                .build());
+    return result.path("UploadId").asText();
+  }
+
+  private String uploadPart(MultipartUploadState upload, int partNumber, RequestBody body) {
+    return client.execute(
+        newActionBuilder("UploadPart", upload.bucket, upload.key)
+            .method("PUT")
+            .parameters(
+                client
+                    .objectNode()
+                    .put("partNumber", partNumber)
+                    .put("uploadId", upload.uploadId))
+            .body(body)
+            .payloadSigning(PayloadSigning.STREAMING)
+            .build(),
+        response -> response.header("ETag"));
+  }
+
+  private String completeMultipartUpload(
+      MultipartUploadState upload, SortedMap<Integer, String> parts) {
+    StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+    parts.forEach(
+        (partNumber, etag) ->
+            xml.append("<Part><PartNumber>")
+                .append(partNumber)
+                .append("</PartNumber><ETag>")
+                .append(XmlEscapers.xmlContentEscaper().escape(etag))
+                .append("</ETag></Part>"));
+    xml.append("</CompleteMultipartUpload>");
+    JsonNode result =
+        client.execute(
+            newActionBuilder("CompleteMultipartUpload", upload.bucket, upload.key)
+                .method("POST")
+                .parameters(client.objectNode().put("uploadId", upload.uploadId))
+                .body(RequestBody.create(xml.toString(), XML))
+                .build());
+    if (result.has("Code")) {
+      // S3 can report a failure to complete with a 200 response
+      AmazonServiceException ase = new AmazonServiceException(result.path("Message").asText());
+      ase.setErrorCode(result.path("Code").asText());
+      ase.setServiceName("s3");
+      throw ase;
+    }
+    return result.path("ETag").asText();
+  }
+
+  private void abortMultipartUpload(MultipartUploadState upload) {
+    try {
+      client.execute(
+          newActionBuilder("AbortMultipartUpload", upload.bucket, upload.key)
+              .method("DELETE")
+              .parameters(client.objectNode().put("uploadId", upload.uploadId))
+              .build());
+    } catch (AmazonClientException e) {
+      // the original failure is more interesting
+    }
+  }
+
+  private <T> T withRetries(Callable<T> part) throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return part.call();
+      } catch (AmazonClientException e) {
+        if (attempt >= partRetries
+            || (e instanceof AmazonServiceException
+                && ((AmazonServiceException) e).getStatusCode() < 500)) {
+          throw e;
+        }
+        /* the parts that failed together don't all retry at once */
+        try {
+          Thread.sleep(partBackoff.delayBeforeNextRetry(null, e, attempt));
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new AmazonClientException("interrupted", ie);
+        }
+      }
+    }
+  }
+
+  private void runAll(List<Callable<Void>> tasks) {
+    List<Future<Void>> futures = new ArrayList<>();
+    try {
+      for (Callable<Void> task : tasks) {
+        futures.add(getExecutor().submit(task));
+      }
+      await(futures);
+    } catch (InterruptedException e) {
+      futures.forEach(f -> f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new AmazonClientException("interrupted", e);
+    } catch (RuntimeException e) {
+      futures.forEach(f -> f.cancel(true));
+      throw e;
+    }
+  }
+
+  private static void await(List<Future<Void>> futures) throws InterruptedException {
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      }
+    }
+  }
+
+  private static RuntimeException unwrap(ExecutionException e) {
+    return toRuntimeException(e.getCause());
+  }
+
+  private static RuntimeException toRuntimeException(Throwable t) {
+    return t instanceof RuntimeException
+        ? (RuntimeException) t
+        : new AmazonClientException(t.getMessage(), t);
+  }
+}
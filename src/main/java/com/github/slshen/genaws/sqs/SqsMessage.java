@@ -0,0 +1,81 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.sqs;
+
+import java.util.List;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A message received by an {@link SqsPump}. Pass it back to the pump's {@code delete} once it's
+ * been processed, or to {@code release} to have it redelivered.
+ */
+public class SqsMessage {
+  private final String messageId;
+  private final String receiptHandle;
+  private final String body;
+  private final JsonNode message;
+  /* when the message becomes visible again unless it's extended, in System.nanoTime terms */
+  volatile long visibleAtNanos;
+
+  SqsMessage(JsonNode message) {
+    this.messageId = message.path("MessageId").asText();
+    this.receiptHandle = message.path("ReceiptHandle").asText();
+    this.body = message.path("Body").asText();
+    this.message = message;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getReceiptHandle() {
+    return receiptHandle;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  /** A system attribute, e.g. {@code ApproximateReceiveCount}, or null. */
+  public String getAttribute(String name) {
+    return findValue(message.path("Attribute"), name, "Value");
+  }
+
+  /** A string or number message attribute, or null. */
+  public String getMessageAttribute(String name) {
+    return findValue(message.path("MessageAttribute"), name, "Value");
+  }
+
+  /** The message as parsed from the response. */
+  public JsonNode getMessage() {
+    return message;
+  }
+
+  private static String findValue(JsonNode attributes, String name, String field) {
+    /* a single attribute is parsed as an object rather than a list of one */
+    for (JsonNode attribute : attributes.isArray() ? attributes : List.of(attributes)) {
+      if (attribute.path("Name").asText().equals(name)) {
+        JsonNode value = attribute.path(field);
+        return value.isObject() ? value.path("StringValue").asText(null) : value.asText(null);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return messageId;
+  }
+}
@@ -0,0 +1,402 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.sqs;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.GenericAmazonClient;
+
+/**
+ * Receives messages from an SQS queue ahead of the consumer. {@link #receivers} long-poll {@code
+ * ReceiveMessage} calls are kept in flight, each asking for no more messages than there's room
+ * for in the buffer of {@link #bufferSize}, so prefetching never holds more than that. Received
+ * messages that haven't been deleted, whether still buffered or being processed, have their
+ * visibility timeout extended before it runs out. Deletes, releases and extensions are sent as
+ * {@code DeleteMessageBatch} and {@code ChangeMessageVisibilityBatch} calls of up to ten, when a
+ * batch fills or has waited {@link #linger}.
+ *
+ * <pre>
+ * try (SqsPump pump = new SqsPump(client, Regions.US_EAST_1, queueUrl).start()) {
+ *   while (true) {
+ *     SqsMessage message = pump.take();
+ *     process(message);
+ *     pump.delete(message);
+ *   }
+ * }
+ * </pre>
+ */
+public class SqsPump implements Closeable {
+  private static final int MAX_BATCH = 10;
+  private final GenericAmazonClient client;
+  private final Regions region;
+  private final String queueUrl;
+  private final Map<String, SqsMessage> unacknowledged = new ConcurrentHashMap<>();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final Batcher deletes =
+      new Batcher("DeleteMessageBatch", "DeleteMessageBatchRequestEntry");
+  private final Batcher visibilityChanges =
+      new Batcher("ChangeMessageVisibilityBatch", "ChangeMessageVisibilityBatchRequestEntry");
+  private int receivers = 4;
+  private int bufferSize = 100;
+  private int waitTimeSeconds = 20;
+  private int visibilityTimeoutSeconds = 30;
+  private boolean extendVisibility = true;
+  private long lingerMillis = 50;
+  private BlockingQueue<SqsMessage> buffer;
+  private Semaphore capacity;
+  private ExecutorService receiverPool;
+  private ScheduledExecutorService scheduler;
+  private volatile boolean running;
+
+  public SqsPump(GenericAmazonClient client, Regions region, String queueUrl) {
+    this.client = client;
+    this.region = region;
+    this.queueUrl = queueUrl;
+  }
+
+  /** The number of receives kept in flight. */
+  public SqsPump receivers(int receivers) {
+    this.receivers = receivers;
+    return this;
+  }
+
+  /** The most messages received ahead of the consumer. */
+  public SqsPump bufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+    return this;
+  }
+
+  public SqsPump waitTimeSeconds(int waitTimeSeconds) {
+    this.waitTimeSeconds = waitTimeSeconds;
+    return this;
+  }
+
+  /** The visibility timeout to receive with, and to extend by. */
+  public SqsPump visibilityTimeoutSeconds(int visibilityTimeoutSeconds) {
+    this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+    return this;
+  }
+
+  public SqsPump extendVisibility(boolean extendVisibility) {
+    this.extendVisibility = extendVisibility;
+    return this;
+  }
+
+  /** How long a partial batch of deletes or visibility changes waits before it's sent. */
+  public SqsPump linger(Duration linger) {
+    this.lingerMillis = linger.toMillis();
+    return this;
+  }
+
+  public synchronized SqsPump start() {
+    if (running) {
+      throw new IllegalStateException("already started");
+    }
+    running = true;
+    buffer = new ArrayBlockingQueue<>(bufferSize);
+    capacity = new Semaphore(bufferSize);
+    receiverPool = Executors.newFixedThreadPool(receivers, r -> newThread(r, "sqs-receive"));
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "sqs-batch"));
+    for (int i = 0; i < receivers; i++) {
+      receiverPool.execute(this::receive);
+    }
+    scheduler.scheduleWithFixedDelay(
+        this::flushAll, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    if (extendVisibility) {
+      scheduler.scheduleWithFixedDelay(this::extend, 1, 1, TimeUnit.SECONDS);
+    }
+    return this;
+  }
+
+  private static Thread newThread(Runnable r, String name) {
+    Thread t = new Thread(r, name);
+    t.setDaemon(true);
+    return t;
+  }
+
+  /** Wait for the next message. */
+  public SqsMessage take() throws InterruptedException {
+    SqsMessage message = buffer.take();
+    capacity.release();
+    return message;
+  }
+
+  /** The next message, waiting up to {@code timeout}, or null if there isn't one. */
+  public SqsMessage poll(Duration timeout) throws InterruptedException {
+    SqsMessage message = buffer.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    if (message != null) {
+      capacity.release();
+    }
+    return message;
+  }
+
+  /** Delete a processed message, in a batch. */
+  public void delete(SqsMessage message) {
+    if (unacknowledged.remove(message.getReceiptHandle()) != null) {
+      deletes.add(entry(message));
+    }
+  }
+
+  /** Make a message visible again now, so that it's redelivered. */
+  public void release(SqsMessage message) {
+    if (unacknowledged.remove(message.getReceiptHandle()) != null) {
+      visibilityChanges.add(entry(message).put("VisibilityTimeout", 0));
+    }
+  }
+
+  /** The number of messages received. */
+  public long getReceived() {
+    return received.get();
+  }
+
+  /** The number of failed receives and batch entries. */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  private ObjectNode entry(SqsMessage message) {
+    ObjectNode entry = client.objectNode();
+    entry.put("ReceiptHandle", message.getReceiptHandle());
+    return entry;
+  }
+
+  private void receive() {
+    while (running) {
+      try {
+        capacity.acquire();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!running) {
+        return;
+      }
+      int n = 1;
+      while (n < MAX_BATCH && capacity.tryAcquire()) {
+        n += 1;
+      }
+      List<JsonNode> messages;
+      try {
+        ObjectNode parameters =
+            client
+                .objectNode()
+                .put("QueueUrl", queueUrl)
+                .put("MaxNumberOfMessages", n)
+                .put("WaitTimeSeconds", waitTimeSeconds)
+                .put("VisibilityTimeout", visibilityTimeoutSeconds);
+        parameters.putArray("AttributeName").add("All");
+        parameters.putArray("MessageAttributeName").add("All");
+        JsonNode response =
+            client.execute(
+                client
+                    .newActionBuilder(region, "sqs", "ReceiveMessage")
+                    .parameters(parameters)
+                    .readTimeout(Duration.ofSeconds(waitTimeSeconds + 10))
+                    .build());
+        messages = list(response.path("ReceiveMessageResult").path("Message"));
+      } catch (RuntimeException e) {
+        /* whatever went wrong, keep receiving */
+        capacity.release(n);
+        if (running) {
+          failures.incrementAndGet();
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+        continue;
+      }
+      capacity.release(n - messages.size());
+      long visibleAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds);
+      boolean closed;
+      /* against close() draining the buffer */
+      synchronized (this) {
+        closed = !running;
+        for (JsonNode m : messages) {
+          SqsMessage message = new SqsMessage(m);
+          message.visibleAtNanos = visibleAt;
+          unacknowledged.put(message.getReceiptHandle(), message);
+          received.incrementAndGet();
+          if (closed) {
+            release(message);
+          } else {
+            /* there's room, it was reserved above */
+            buffer.add(message);
+          }
+        }
+      }
+      if (closed) {
+        /* close() may have sent its final batches already */
+        visibilityChanges.flush();
+      }
+    }
+  }
+
+  /* the schemaless parser gives a single element as an object rather than a list of one */
+  private static List<JsonNode> list(JsonNode node) {
+    List<JsonNode> result = new ArrayList<>();
+    if (node.isArray()) {
+      node.forEach(result::add);
+    } else if (node.isObject()) {
+      result.add(node);
+    }
+    return result;
+  }
+
+  private void extend() {
+    long now = System.nanoTime();
+    long margin = TimeUnit.SECONDS.toNanos(Math.max(2, visibilityTimeoutSeconds / 3));
+    for (String receiptHandle : unacknowledged.keySet()) {
+      /*
+       * Atomic with the removal in delete and release, so an extension is never queued after the
+       * message's release.
+       */
+      unacknowledged.computeIfPresent(
+          receiptHandle,
+          (handle, message) -> {
+            if (message.visibleAtNanos - now < margin) {
+              message.visibleAtNanos = now + TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds);
+              visibilityChanges.add(
+                  entry(message).put("VisibilityTimeout", visibilityTimeoutSeconds));
+            }
+            return message;
+          });
+    }
+  }
+
+  private void flushAll() {
+    deletes.flush();
+    visibilityChanges.flush();
+  }
+
+  /**
+   * Stop receiving, release the messages that were received but not taken, and send the pending
+   * deletes and visibility changes. Messages from receives still in flight are released when they
+   * arrive.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      SqsMessage message;
+      while ((message = buffer.poll()) != null) {
+        release(message);
+      }
+    }
+    /*
+     * Wake the receivers waiting for room rather than interrupting them, so that a receive in
+     * flight finishes and releases its messages instead of leaving them invisible.
+     */
+    receiverPool.shutdown();
+    capacity.release(receivers);
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flushAll();
+  }
+
+  /**
+   * Pending entries for one batch action, sent ten at a time. A newer entry for a message replaces
+   * a pending one, so a release isn't sent in the same batch as an extension it should override.
+   */
+  private class Batcher {
+    private final String action;
+    private final String entryName;
+    private final Map<String, ObjectNode> pending = new LinkedHashMap<>();
+    private int nextId;
+
+    Batcher(String action, String entryName) {
+      this.action = action;
+      this.entryName = entryName;
+    }
+
+    void add(ObjectNode entry) {
+      boolean full;
+      synchronized (this) {
+        entry.put("Id", Integer.toString(nextId++));
+        String receiptHandle = entry.path("ReceiptHandle").asText();
+        pending.remove(receiptHandle);
+        pending.put(receiptHandle, entry);
+        full = pending.size() >= MAX_BATCH;
+      }
+      if (full && running) {
+        try {
+          scheduler.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+          /* closing, the entry is sent by the final flush */
+        }
+      }
+    }
+
+    void flush() {
+      while (true) {
+        List<ObjectNode> batch;
+        synchronized (this) {
+          if (pending.isEmpty()) {
+            return;
+          }
+          batch = new ArrayList<>();
+          for (Iterator<ObjectNode> i = pending.values().iterator();
+              i.hasNext() && batch.size() < MAX_BATCH; ) {
+            batch.add(i.next());
+            i.remove();
+          }
+        }
+        send(batch);
+      }
+    }
+
+    private void send(List<ObjectNode> batch) {
+      ObjectNode parameters = client.objectNode().put("QueueUrl", queueUrl);
+      parameters.putArray(entryName).addAll(batch);
+      try {
+        JsonNode response =
+            client.execute(
+                client.newActionBuilder(region, "sqs", action).parameters(parameters).build());
+        failures.addAndGet(
+            list(response.path(action + "Result").path("BatchResultErrorEntry")).size());
+      } catch (AmazonClientException e) {
+        /* the messages will become visible again and be redelivered */
+        failures.addAndGet(batch.size());
+      }
+    }
+  }
+}
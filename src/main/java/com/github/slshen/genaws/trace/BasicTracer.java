@@ -0,0 +1,186 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.AmazonAction;
+import com.github.slshen.genaws.AmazonServiceData;
+import okhttp3.Request;
+
+/**
+ * A self-contained {@link Tracer} that reports finished spans as json objects. Calls are sampled at
+ * {@link #sampleRate}, unless the request already carries an {@code X-Amzn-Trace-Id} or {@code
+ * traceparent} header, e.g. copied from the incoming request being served, in which case the call
+ * joins that trace and follows its sampling decision. Each attempt sends the trace context on in
+ * the header for {@link #propagation}.
+ */
+public class BasicTracer implements Tracer {
+  private static final String XRAY_HEADER = "X-Amzn-Trace-Id";
+  private static final String W3C_HEADER = "traceparent";
+  private static final Pattern XRAY =
+      Pattern.compile(
+          "Root=1-([0-9a-f]{8})-([0-9a-f]{24})(?:;Parent=([0-9a-f]{16}))?(?:;Sampled=([01]))?.*");
+  private static final Pattern W3C =
+      Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+  public enum Propagation {
+    XRAY,
+    W3C
+  }
+
+  private final Consumer<ObjectNode> reporter;
+  private volatile double sampleRate = 1;
+  private volatile Propagation propagation = Propagation.XRAY;
+
+  /** @param reporter called with each span as it ends, attempts before their call */
+  public BasicTracer(Consumer<ObjectNode> reporter) {
+    this.reporter = reporter;
+  }
+
+  public BasicTracer sampleRate(double sampleRate) {
+    this.sampleRate = sampleRate;
+    return this;
+  }
+
+  public BasicTracer propagation(Propagation propagation) {
+    this.propagation = propagation;
+    return this;
+  }
+
+  @Override
+  public Span startCall(Request request) {
+    String traceId = null;
+    String parentId = null;
+    Boolean sampled = null;
+    String xray = request.header(XRAY_HEADER);
+    String w3c = request.header(W3C_HEADER);
+    Matcher m;
+    if (xray != null && (m = XRAY.matcher(xray)).matches()) {
+      traceId = m.group(1) + m.group(2);
+      parentId = m.group(3);
+      sampled = m.group(4) != null ? m.group(4).equals("1") : null;
+    } else if (w3c != null && (m = W3C.matcher(w3c)).matches()) {
+      traceId = m.group(1);
+      parentId = m.group(2);
+      sampled = (Integer.parseInt(m.group(3), 16) & 1) == 1;
+    }
+    if (sampled == null) {
+      sampled = ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+    if (!sampled) {
+      return null;
+    }
+    if (traceId == null) {
+      /* the X-Ray form of a trace id starts with the time, and is also a valid W3C id */
+      traceId =
+          String.format(
+              "%08x%08x%016x",
+              System.currentTimeMillis() / 1000,
+              ThreadLocalRandom.current().nextInt(),
+              ThreadLocalRandom.current().nextLong());
+    }
+    AmazonServiceData service = request.tag(AmazonServiceData.class);
+    AmazonAction action = request.tag(AmazonAction.class);
+    return new BasicSpan(
+        traceId,
+        parentId,
+        (service != null ? service.getEndpointPrefix() : request.url().host())
+            + (action != null ? "." + action.getName() : ""));
+  }
+
+  private static String newSpanId() {
+    return String.format("%016x", ThreadLocalRandom.current().nextLong());
+  }
+
+  private class BasicSpan implements Span {
+    private final String traceId;
+    private final String spanId = newSpanId();
+    private final ObjectNode record = JsonNodeFactory.instance.objectNode();
+    private final ArrayNode events = record.putArray("events");
+    private final ObjectNode tags = record.putObject("tags");
+    private final long startNanos = System.nanoTime();
+
+    BasicSpan(String traceId, String parentId, String name) {
+      this.traceId = traceId;
+      record.put("name", name);
+      record.put("traceId", traceId);
+      record.put("spanId", spanId);
+      if (parentId != null) {
+        record.put("parentId", parentId);
+      }
+      record.put("startMicros", TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+    }
+
+    private long elapsedMicros() {
+      return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public Span startAttempt(int attempt) {
+      BasicSpan span = new BasicSpan(traceId, spanId, record.path("name").asText());
+      span.tag("attempt", Integer.toString(attempt));
+      return span;
+    }
+
+    @Override
+    public void inject(Request.Builder request) {
+      if (propagation == Propagation.W3C) {
+        request.header(W3C_HEADER, "00-" + traceId + "-" + spanId + "-01");
+      } else {
+        request.header(
+            XRAY_HEADER,
+            "Root=1-"
+                + traceId.substring(0, 8)
+                + "-"
+                + traceId.substring(8)
+                + ";Parent="
+                + spanId
+                + ";Sampled=1");
+      }
+    }
+
+    @Override
+    public synchronized void event(String name) {
+      events.addObject().put("name", name).put("offsetMicros", elapsedMicros());
+    }
+
+    @Override
+    public synchronized void tag(String key, String value) {
+      if (value != null) {
+        tags.put(key, value);
+      }
+    }
+
+    @Override
+    public synchronized void error(Throwable e) {
+      record.put("error", e.toString());
+    }
+
+    @Override
+    public void end() {
+      synchronized (this) {
+        record.put("durationMicros", elapsedMicros());
+      }
+      reporter.accept(record);
+    }
+  }
+}
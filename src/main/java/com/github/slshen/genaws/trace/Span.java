@@ -0,0 +1,41 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.trace;
+
+import okhttp3.Request;
+
+/**
+ * A span for a call, or for one attempt at it. An attempt's span gets events as it passes the
+ * phases of the call: {@code signed}, {@code connected} (when the connection is ready, so the time
+ * since {@code signed} is DNS, connecting and the TLS handshake), {@code response} (when the
+ * response headers arrive, so the time since {@code connected} is mostly the server's) and {@code
+ * handled} (when the response body has been read and parsed).
+ */
+public interface Span {
+
+  /** Start the span for attempt {@code attempt}, counting from 0, as a child of this one. */
+  Span startAttempt(int attempt);
+
+  /** Add the trace context headers, e.g. {@code X-Amzn-Trace-Id}, before the request is signed. */
+  void inject(Request.Builder request);
+
+  void event(String name);
+
+  void tag(String key, String value);
+
+  void error(Throwable e);
+
+  void end();
+}
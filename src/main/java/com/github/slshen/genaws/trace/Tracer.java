@@ -0,0 +1,31 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.trace;
+
+import okhttp3.Request;
+
+/**
+ * Creates spans for the calls a {@link com.github.slshen.genaws.GenericAmazonClient} makes, e.g.
+ * bridging to a tracing library. When there's no tracer the client does no tracing work at all.
+ */
+@FunctionalInterface
+public interface Tracer {
+
+  /**
+   * Start the span for one logical call, before any attempt is made, or return null if the call
+   * isn't sampled.
+   */
+  Span startCall(Request request);
+}
@@ -0,0 +1,144 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class AdaptiveConcurrencyLimiterTest {
+  private static final HttpUrl URL = HttpUrl.get("https://dynamodb.us-east-1.amazonaws.com/");
+  private static final String HOST = "dynamodb.us-east-1.amazonaws.com";
+
+  private static void round(AdaptiveConcurrencyLimiter limiter, int concurrency, long millis)
+      throws InterruptedException {
+    List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      permits.add(limiter.acquire(URL, null));
+    }
+    Thread.sleep(millis);
+    permits.forEach(AdaptiveConcurrencyLimiter.Permit::onSuccess);
+  }
+
+  @Test
+  public void testGrowsWhileLatencyHolds() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter().initialLimit(10);
+    for (int i = 0; i < 5; i++) {
+      round(limiter, limiter.getLimit(HOST), 5);
+    }
+    Assertions.assertThat(limiter.getLimit(HOST)).isGreaterThan(10);
+    Assertions.assertThat(limiter.getInFlight(HOST)).isZero();
+  }
+
+  @Test
+  public void testShrinksAsLatencyRises() throws InterruptedException {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter().initialLimit(20);
+    for (int i = 0; i < 20; i++) {
+      round(limiter, 1, 2);
+    }
+    int before = limiter.getLimit(HOST);
+    for (int i = 0; i < 5; i++) {
+      round(limiter, 1, 40);
+    }
+    Assertions.assertThat(limiter.getLimit(HOST)).isLessThan(before);
+  }
+
+  @Test
+  public void testQueuesOverLimit() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter().initialLimit(1);
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(URL, null);
+    Assertions.assertThatThrownBy(() -> limiter.acquire(URL, Deadline.after(Duration.ofMillis(50))))
+        .isInstanceOf(AmazonClientException.class);
+    permit.close();
+    limiter.acquire(URL, Deadline.after(Duration.ofMillis(50))).close();
+  }
+
+  @Test
+  public void testBacksOffOnThrottling() throws IOException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(new LocalAwsDispatcher().credentials("AKLIMIT", "secret").throttleRate(1));
+    server.start();
+    try {
+      AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter().initialLimit(20);
+      GenericAmazonClient client =
+          new GenericAmazonClient(
+                  new OkHttpClient(),
+                  new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKLIMIT", "secret")))
+              .endpoint("sts", server.url("/"))
+              .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY)
+              .concurrencyLimiter(limiter);
+      for (int i = 0; i < 5; i++) {
+        Assertions.assertThatThrownBy(
+                () ->
+                    client.execute(
+                        client
+                            .newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity")
+                            .build()))
+            .isInstanceOf(AmazonServiceException.class);
+      }
+      String host = EndpointResolver.getHost(server.url("/"));
+      Assertions.assertThat(limiter.getLimits()).containsKey(host);
+      Assertions.assertThat(limiter.getLimit(host)).isLessThan(20);
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testIgnoresCallerDeadlines() throws IOException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new LocalAwsDispatcher().credentials("AKLIMIT", "secret").latency(() -> 500));
+    server.start();
+    try {
+      AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter().initialLimit(20);
+      GenericAmazonClient client =
+          new GenericAmazonClient(
+                  new OkHttpClient(),
+                  new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKLIMIT", "secret")))
+              .endpoint("sts", server.url("/"))
+              .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY)
+              .concurrencyLimiter(limiter);
+      for (int i = 0; i < 5; i++) {
+        Assertions.assertThatThrownBy(
+                () ->
+                    client.execute(
+                        client
+                            .newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity")
+                            .deadline(Duration.ofMillis(50))
+                            .build()))
+            .isInstanceOf(AmazonClientException.class);
+      }
+      /* the caller gave up, the endpoint didn't fail */
+      String host = EndpointResolver.getHost(server.url("/"));
+      Assertions.assertThat(limiter.getLimit(host)).isEqualTo(20);
+      Assertions.assertThat(limiter.getInFlight(host)).isZero();
+    } finally {
+      server.shutdown();
+    }
+  }
+}
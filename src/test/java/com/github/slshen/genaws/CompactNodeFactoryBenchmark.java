@@ -0,0 +1,127 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.slshen.genaws.auth.Credentials;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Measures the heap retained by parsed {@code DescribeInstances} responses built with the default
+ * node factory ({@code default}), a {@link CompactNodeFactory} per response ({@code per-parse})
+ * or one shared {@link CompactNodeFactory} ({@code shared}). Run each mode in a fresh JVM; see
+ * {@code CompactNodeFactoryBenchmarkTest}.
+ */
+public class CompactNodeFactoryBenchmark {
+  private static final String[] TYPES = {"m5.large", "m5.xlarge", "c5.2xlarge", "r5.large"};
+  private static final String[] ZONES = {"us-east-1a", "us-east-1b", "us-east-1c"};
+  private static final String[] TEAMS = {"search", "billing", "ingest", "web", "platform"};
+
+  static String describeInstances(int count) {
+    StringBuilder xml =
+        new StringBuilder(
+            "<DescribeInstancesResponse><requestId>59dbff89-35bd-4eac-99ed-be587EXAMPLE"
+                + "</requestId><reservationSet>");
+    for (int i = 0; i < count; i++) {
+      String id = String.format("i-%017x", i * 7919L);
+      xml.append("<item><reservationId>r-")
+          .append(id, 2, id.length())
+          .append("</reservationId><ownerId>123456789012</ownerId><instancesSet><item>")
+          .append("<instanceId>")
+          .append(id)
+          .append("</instanceId><imageId>ami-0abcdef1234567890</imageId>")
+          .append("<instanceState><code>16</code><name>running</name></instanceState>")
+          .append("<privateDnsName>ip-10-0-")
+          .append(i / 250)
+          .append('-')
+          .append(i % 250)
+          .append(".ec2.internal</privateDnsName><instanceType>")
+          .append(TYPES[i % TYPES.length])
+          .append("</instanceType><placement><availabilityZone>")
+          .append(ZONES[i % ZONES.length])
+          .append("</availabilityZone><tenancy>default</tenancy></placement>")
+          .append("<monitoring><state>disabled</state></monitoring>")
+          .append("<subnetId>subnet-0123456789abcdef0</subnetId>")
+          .append("<vpcId>vpc-0123456789abcdef0</vpcId><architecture>x86_64</architecture>")
+          .append("<rootDeviceType>ebs</rootDeviceType><rootDeviceName>/dev/xvda")
+          .append("</rootDeviceName><virtualizationType>hvm</virtualizationType>")
+          .append("<hypervisor>xen</hypervisor><ebsOptimized>true</ebsOptimized><tagSet>")
+          .append("<item><key>Name</key><value>node-")
+          .append(i)
+          .append("</value></item><item><key>team</key><value>")
+          .append(TEAMS[i % TEAMS.length])
+          .append("</value></item><item><key>env</key><value>production</value></item>")
+          .append("</tagSet></item></instancesSet></item>");
+    }
+    return xml.append("</reservationSet></DescribeInstancesResponse>").toString();
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "default";
+    int responses = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    MockWebServer server = new MockWebServer();
+    String body = describeInstances(2000);
+    server.setDispatcher(
+        new LocalAwsDispatcher()
+            .credentials("AKHEAP", "secret")
+            .action("DescribeInstances", request -> new MockResponse().setBody(body)));
+    server.start();
+    try {
+      GenericAmazonClient client =
+          GenericAmazonClient.create(
+                  GenericAmazonClient.getSharedHttpClient(),
+                  CredentialsProvider.of(new Credentials("AKHEAP", "secret")))
+              .endpoint("ec2", server.url("/"));
+      if (mode.equals("per-parse")) {
+        client.nodeFactory(CompactNodeFactory::new);
+      } else if (mode.equals("shared")) {
+        CompactNodeFactory shared = new CompactNodeFactory();
+        client.nodeFactory(() -> shared);
+      }
+      List<JsonNode> cache = new ArrayList<>();
+      /* one response first so that the baseline includes the classes and connection */
+      cache.add(
+          client.execute(
+              client.newActionBuilder(Regions.US_EAST_1, "ec2", "DescribeInstances").build()));
+      long before = usedHeap();
+      for (int i = 1; i < responses; i++) {
+        cache.add(
+            client.execute(
+                client.newActionBuilder(Regions.US_EAST_1, "ec2", "DescribeInstances").build()));
+      }
+      long retained = (usedHeap() - before) / (responses - 1);
+      System.out.printf("%s %d bytes per response%n", mode, retained);
+      if (cache.get(responses - 1).path("reservationSet").size() != 2000) {
+        throw new IllegalStateException("unexpected response " + cache.get(responses - 1));
+      }
+    } finally {
+      server.shutdown();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(ForkedBenchmark.TAG)
+public class CompactNodeFactoryBenchmarkTest {
+  private static final Pattern RESULT = Pattern.compile("([\\w-]+) (\\d+) bytes per response");
+
+  private long run(String mode) throws IOException, InterruptedException {
+    Matcher m =
+        new ForkedBenchmark(CompactNodeFactoryBenchmark.class).jvmArg("-Xmx512m").run(RESULT, mode);
+    return Long.parseLong(m.group(2));
+  }
+
+  @Test
+  public void testRetainedHeap() throws IOException, InterruptedException {
+    long standard = run("default");
+    long perParse = run("per-parse");
+    long shared = run("shared");
+    Assertions.assertThat(perParse).isLessThan(standard * 3 / 4);
+    Assertions.assertThat(shared).isLessThan(standard * 3 / 4);
+  }
+}
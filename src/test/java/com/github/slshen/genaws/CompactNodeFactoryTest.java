@@ -0,0 +1,65 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+public class CompactNodeFactoryTest {
+
+  @Test
+  public void testSameTree() throws IOException {
+    String xml = CompactNodeFactoryBenchmark.describeInstances(50);
+    AwsXmlParser parser = new AwsXmlParser();
+    JsonNode standard = parser.parse(JsonNodeFactory.instance, new StringReader(xml));
+    JsonNode compact = parser.parse(new CompactNodeFactory(), new StringReader(xml));
+    Assertions.assertThat(compact).isEqualTo(standard);
+    String json = new ObjectMapper().writeValueAsString(standard);
+    Assertions.assertThat(new ObjectMapper().reader(new CompactNodeFactory()).readTree(json))
+        .isEqualTo(standard);
+  }
+
+  @Test
+  public void testRepeatedValuesShared() throws IOException {
+    JsonNode instances =
+        new AwsXmlParser()
+            .parse(
+                new CompactNodeFactory(),
+                new StringReader(CompactNodeFactoryBenchmark.describeInstances(8)))
+            .path("reservationSet");
+    JsonNode first = instances.path(0).path("instancesSet").path("item");
+    JsonNode fifth = instances.path(4).path("instancesSet").path("item");
+    Assertions.assertThat(fifth.path("instanceType")).isSameAs(first.path("instanceType"));
+    Assertions.assertThat(fifth.path("instanceState").path("name"))
+        .isSameAs(first.path("instanceState").path("name"));
+    Assertions.assertThat(fifth.path("instanceId")).isNotEqualTo(first.path("instanceId"));
+  }
+
+  @Test
+  public void testBounded() {
+    CompactNodeFactory factory = new CompactNodeFactory(16);
+    for (int i = 0; i < 1000; i++) {
+      Assertions.assertThat(factory.textNode("value " + i).textValue()).isEqualTo("value " + i);
+    }
+    Assertions.assertThat(factory.textNode("x".repeat(100)))
+        .isNotSameAs(factory.textNode("x".repeat(100)));
+    Assertions.assertThat(factory.textNode("")).isSameAs(factory.textNode(""));
+  }
+}
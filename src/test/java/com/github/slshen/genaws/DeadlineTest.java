@@ -0,0 +1,107 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class DeadlineTest {
+  private MockWebServer server;
+  private GenericAmazonClient client;
+  /* for each attempt, whether its deadline had passed when it started */
+  private final List<Boolean> attemptsExpired = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient.Builder()
+                    .addInterceptor(
+                        chain -> {
+                          Deadline deadline = chain.request().tag(Deadline.class);
+                          attemptsExpired.add(deadline != null && deadline.isExpired());
+                          return chain.proceed(chain.request());
+                        })
+                    .build(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+            .endpoint("sts", server.url("/"))
+            .retryPolicy(
+                new RetryPolicy(
+                    PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                    (request, e, retries) -> 50,
+                    10,
+                    false));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testRetriesStopAtDeadline() {
+    for (int i = 0; i < 20; i++) {
+      server.enqueue(
+          new MockResponse().setResponseCode(503).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+    }
+    Assertions.assertThatThrownBy(
+            () ->
+                client.execute(
+                    client
+                        .newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity")
+                        .deadline(Duration.ofMillis(1000))
+                        .build()))
+        .isInstanceOf(AmazonClientException.class);
+    /* the deadline, not the policy's ten retries, ended it, and no attempt started after it */
+    Assertions.assertThat(attemptsExpired).isNotEmpty().hasSizeLessThan(11).containsOnly(false);
+  }
+
+  @Test
+  public void testSlowResponseCancelled() {
+    server.enqueue(
+        new MockResponse()
+            .setBody("<GetCallerIdentityResponse/>")
+            .setBodyDelay(5, TimeUnit.SECONDS));
+    Assertions.assertThatThrownBy(
+            () ->
+                client.execute(
+                    client
+                        .newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity")
+                        .deadline(Duration.ofMillis(300))
+                        .build()))
+        .isInstanceOf(AmazonClientException.class)
+        .hasMessageContaining("deadline exceeded");
+    /* the cancelled attempt isn't retried once the deadline has passed */
+    Assertions.assertThat(attemptsExpired).containsExactly(false);
+  }
+}
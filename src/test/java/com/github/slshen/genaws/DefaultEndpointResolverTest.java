@@ -0,0 +1,66 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.regions.Regions;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+public class DefaultEndpointResolverTest {
+
+  @Test
+  public void testStandard() {
+    DefaultEndpointResolver resolver = new DefaultEndpointResolver("sts");
+    Assertions.assertThat(resolver.resolve(Regions.US_WEST_2, "sts"))
+        .isEqualTo(HttpUrl.get("https://sts.us-west-2.amazonaws.com/"));
+    Assertions.assertThat(resolver.resolve(Regions.US_WEST_2, "sts"))
+        .isSameAs(resolver.resolve(Regions.US_WEST_2, "sts"));
+  }
+
+  @Test
+  public void testVariants() {
+    Assertions.assertThat(
+            new DefaultEndpointResolver().fips(true).resolve(Regions.US_WEST_2, "sts").host())
+        .isEqualTo("sts-fips.us-west-2.amazonaws.com");
+    Assertions.assertThat(
+            new DefaultEndpointResolver().dualStack(true).resolve(Regions.US_WEST_2, "s3").host())
+        .isEqualTo("s3.dualstack.us-west-2.amazonaws.com");
+    DefaultEndpointResolver resolver = new DefaultEndpointResolver();
+    Assertions.assertThat(resolver.resolve(Regions.US_WEST_2, "sts").host())
+        .isEqualTo("sts.us-west-2.amazonaws.com");
+    Assertions.assertThat(resolver.fips(true).resolve(Regions.US_WEST_2, "sts").host())
+        .isEqualTo("sts-fips.us-west-2.amazonaws.com");
+  }
+
+  @Test
+  public void testOverrides() {
+    HttpUrl vpce = HttpUrl.get("https://vpce-0123-abcd.sts.us-west-2.vpce.amazonaws.com");
+    HttpUrl local = HttpUrl.get("http://localhost:4566");
+    DefaultEndpointResolver resolver = new DefaultEndpointResolver();
+    Assertions.assertThat(resolver.resolve(Regions.US_WEST_2, "sts").host())
+        .isEqualTo("sts.us-west-2.amazonaws.com");
+    resolver.override("sts", Regions.US_WEST_2, vpce).override("sts", local);
+    Assertions.assertThat(resolver.resolve(Regions.US_WEST_2, "sts")).isEqualTo(vpce);
+    Assertions.assertThat(resolver.resolve(Regions.EU_WEST_1, "sts")).isEqualTo(local);
+
+    GenericAmazonClient client = new GenericAmazonClient().endpointResolver(resolver);
+    Request request =
+        client.newActionBuilder(Regions.EU_WEST_1, "sts", "GetCallerIdentity").build();
+    Assertions.assertThat(request.url().toString()).isEqualTo("http://localhost:4566/");
+    Assertions.assertThat(EndpointResolver.getHost(request.url())).isEqualTo("localhost:4566");
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class ExecuteRawTest {
+  private static final String BODY = "{\"TableNames\": [ \"a\",\"b\" ]}";
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+            .endpoint("dynamodb", server.url("/"));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private Request listTables() {
+    return client
+        .newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables")
+        .parameters(new ObjectMapper().createObjectNode())
+        .build();
+  }
+
+  @Test
+  public void testPassesBodyThrough() throws IOException {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(
+        new MockResponse()
+            .setHeader("Content-Type", "application/x-amz-json-1.0")
+            .setHeader("x-amzn-RequestId", "r1")
+            .setBody(BODY));
+    try (Response response = client.executeRaw(listTables())) {
+      Assertions.assertThat(response.header("x-amzn-RequestId")).isEqualTo("r1");
+      Assertions.assertThat(response.body().source().readUtf8()).isEqualTo(BODY);
+    }
+    Assertions.assertThat(server.getRequestCount()).isEqualTo(2);
+    server.enqueue(new MockResponse().setBody(BODY));
+    Assertions.assertThat(client.executeToByteString(listTables()).utf8()).isEqualTo(BODY);
+  }
+
+  @Test
+  public void testClassifiesErrors() {
+    server.enqueue(
+        new MockResponse()
+            .setResponseCode(400)
+            .setHeader("Content-Type", "application/x-amz-json-1.0")
+            .setBody(
+                "{\"__type\":\"com.amazonaws.dynamodb.v20120810#ResourceNotFoundException\","
+                    + "\"message\":\"no table\"}"));
+    Assertions.assertThatThrownBy(() -> client.executeRaw(listTables()))
+        .isInstanceOfSatisfying(
+            AmazonServiceException.class,
+            e -> Assertions.assertThat(e.getErrorCode()).isEqualTo("ResourceNotFoundException"));
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.github.slshen.genaws.auth.Credentials;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class FanOutExecutorTest {
+
+  /** Tracks the most concurrent requests seen for each region. */
+  private static class ConcurrencyDispatcher extends Dispatcher {
+    private final Pattern scope = Pattern.compile("Credential=(\\w+)/\\d+/([\\w-]+)/");
+    final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    final Map<String, Integer> maxRunning = new ConcurrentHashMap<>();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+      Matcher m = scope.matcher(request.getHeader("Authorization"));
+      m.find();
+      String accessKeyId = m.group(1);
+      String region = m.group(2);
+      AtomicInteger counter = running.computeIfAbsent(region, r -> new AtomicInteger());
+      int n = counter.incrementAndGet();
+      maxRunning.merge(region, n, Math::max);
+      try {
+        Thread.sleep(50);
+      } finally {
+        counter.decrementAndGet();
+      }
+      if (accessKeyId.equals("BAD")) {
+        return new MockResponse()
+            .setResponseCode(403)
+            .setBody(
+                "<ErrorResponse><Error><Code>InvalidClientTokenId</Code>"
+                    + "<Message>bad</Message></Error></ErrorResponse>");
+      }
+      return new MockResponse()
+          .setBody(
+              "<GetCallerIdentityResponse><GetCallerIdentityResult><Account>"
+                  + accessKeyId
+                  + "</Account></GetCallerIdentityResult></GetCallerIdentityResponse>");
+    }
+  }
+
+  @Test
+  public void testFanOut() throws IOException, InterruptedException {
+    ConcurrencyDispatcher dispatcher = new ConcurrencyDispatcher();
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(dispatcher);
+    server.start();
+    List<FanOutTarget> targets = new ArrayList<>();
+    for (Regions region : new Regions[] {Regions.US_EAST_1, Regions.US_WEST_2, Regions.EU_WEST_1}) {
+      for (String account : new String[] {"A1", "A2", "A3", "BAD"}) {
+        /* targets take either kind of credentials provider */
+        targets.add(
+            account.equals("A2")
+                ? new FanOutTarget(
+                    region, CredentialsProvider.of(new Credentials(account, "secret")), account)
+                : new FanOutTarget(
+                    region,
+                    new AWSStaticCredentialsProvider(new BasicAWSCredentials(account, "secret")),
+                    account));
+      }
+    }
+    List<FanOutResult> results = new ArrayList<>();
+    // the client has no credentials of its own, each request has its target's
+    GenericAmazonClient client = new GenericAmazonClient(new OkHttpClient(), null);
+    try (FanOutExecutor executor =
+        new FanOutExecutor(client).maxConcurrency(4).maxConcurrencyPerRegion(2)) {
+      executor.execute(
+          targets,
+          "sts",
+          "GetCallerIdentity",
+          builder -> builder.endpoint(server.url("/")),
+          results::add);
+    } finally {
+      server.shutdown();
+    }
+    Assertions.assertThat(results).hasSize(12);
+    for (FanOutResult result : results) {
+      if (result.getTarget().getLabel().equals("BAD")) {
+        Assertions.assertThat(result.getError()).isInstanceOf(AmazonServiceException.class);
+      } else {
+        Assertions.assertThat(
+                result.getResult().path("GetCallerIdentityResult").path("Account").asText())
+            .isEqualTo(result.getTarget().getLabel());
+      }
+    }
+    Assertions.assertThat(dispatcher.maxRunning.values()).allMatch(n -> n <= 2);
+  }
+
+  @Test
+  @Timeout(10)
+  public void testErrorInWorker() throws InterruptedException {
+    List<FanOutTarget> targets = new ArrayList<>();
+    for (Regions region : new Regions[] {Regions.US_EAST_1, Regions.US_WEST_2}) {
+      targets.add(
+          new FanOutTarget(region, CredentialsProvider.of(new Credentials("A", "s")), "A"));
+    }
+    List<FanOutResult> results = new ArrayList<>();
+    try (FanOutExecutor executor =
+        new FanOutExecutor(new GenericAmazonClient(new OkHttpClient(), null))) {
+      /* an Error skips the target's result but mustn't leave execute waiting for it */
+      executor.execute(
+          targets,
+          "sts",
+          "GetCallerIdentity",
+          builder -> {
+            throw new AssertionError("template");
+          },
+          results::add);
+    }
+    Assertions.assertThat(results).isEmpty();
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.assertj.core.api.Assertions;
+
+/**
+ * Runs a benchmark's main in a fresh JVM on the test class path, so class loading, JIT and heap
+ * measurements don't see the other tests, and returns the match of its result line. Tests that use
+ * it are tagged {@value #TAG} and only run with {@code mvn -Pbenchmark test}.
+ */
+class ForkedBenchmark {
+  static final String TAG = "benchmark";
+  private final Class<?> mainClass;
+  private final List<String> jvmArgs = new ArrayList<>();
+  private final Map<String, String> environment = new HashMap<>();
+
+  ForkedBenchmark(Class<?> mainClass) {
+    this.mainClass = mainClass;
+  }
+
+  ForkedBenchmark jvmArg(String arg) {
+    jvmArgs.add(arg);
+    return this;
+  }
+
+  ForkedBenchmark env(String name, String value) {
+    environment.put(name, value);
+    return this;
+  }
+
+  /** Run the benchmark with {@code args} and match {@code result} against its output. */
+  Matcher run(Pattern result, String... args) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(mainClass.getName());
+    command.addAll(List.of(args));
+    ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+    builder.environment().putAll(environment);
+    Process process = builder.start();
+    String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertThat(process.waitFor()).as(output).isZero();
+    Matcher m = result.matcher(output);
+    Assertions.assertThat(m.find()).as(output).isTrue();
+    System.out.println(m.group());
+    return m;
+  }
+}
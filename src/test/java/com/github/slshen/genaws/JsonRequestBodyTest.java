@@ -0,0 +1,71 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.auth.Hashing;
+import okhttp3.MediaType;
+import okio.Buffer;
+
+public class JsonRequestBodyTest {
+
+  @Test
+  public void testBlob() throws IOException {
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    ObjectNode parameters = JsonNodeFactory.instance.objectNode();
+    parameters.put("StreamName", "s");
+    parameters.putPOJO("Data", Blob.of(ByteBuffer.wrap(data)));
+    JsonRequestBody body =
+        new JsonRequestBody(parameters, MediaType.get("application/x-amz-json-1.1"));
+    Buffer b = new Buffer();
+    body.writeTo(b);
+    String json = b.readUtf8();
+    Assertions.assertThat(json)
+        .isEqualTo(
+            "{\"StreamName\":\"s\",\"Data\":\""
+                + Base64.getEncoder().encodeToString(data)
+                + "\"}");
+    Assertions.assertThat(body.contentLength())
+        .isEqualTo(json.getBytes(StandardCharsets.UTF_8).length);
+    Assertions.assertThat(body.getPayloadHash()).isEqualTo(Hashing.hash(json));
+    b = new Buffer();
+    body.writeTo(b);
+    Assertions.assertThat(b.readUtf8()).isEqualTo(json);
+  }
+
+  @Test
+  public void testSmallBodyKept() throws IOException {
+    ObjectNode parameters = JsonNodeFactory.instance.objectNode();
+    parameters.put("TableName", "t");
+    JsonRequestBody body =
+        new JsonRequestBody(parameters, MediaType.get("application/x-amz-json-1.0"));
+    Assertions.assertThat(body.getPayloadHash()).isEqualTo(Hashing.hash("{\"TableName\":\"t\"}"));
+    /* the body written is the one that was hashed, without serializing it again */
+    parameters.put("TableName", "changed");
+    Buffer b = new Buffer();
+    body.writeTo(b);
+    Assertions.assertThat(b.readUtf8()).isEqualTo("{\"TableName\":\"t\"}");
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import okhttp3.Request;
+
+/**
+ * Drives a client with a fixed number of requests from {@code concurrency} threads and reports
+ * throughput, latency percentiles and the allocation rate of the calling threads. Run it against a
+ * {@link LocalAwsDispatcher} to compare client changes without a network.
+ */
+public class LoadHarness {
+  private final GenericAmazonClient client;
+  private final IntFunction<Request> requests;
+  private int concurrency = 16;
+  private int count = 1000;
+
+  /** @param requests makes the i'th request */
+  public LoadHarness(GenericAmazonClient client, IntFunction<Request> requests) {
+    this.client = client;
+    this.requests = requests;
+  }
+
+  public LoadHarness concurrency(int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  public LoadHarness count(int count) {
+    this.count = count;
+    return this;
+  }
+
+  public Report run() throws InterruptedException {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long[] latencies = new long[count];
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger errors = new AtomicInteger();
+    AtomicLong allocated = new AtomicLong();
+    CountDownLatch done = new CountDownLatch(concurrency);
+    long start = System.nanoTime();
+    for (int t = 0; t < concurrency; t++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                long id = Thread.currentThread().getId();
+                long allocatedBefore = threads.getThreadAllocatedBytes(id);
+                try {
+                  int i;
+                  while ((i = next.getAndIncrement()) < count) {
+                    long requestStart = System.nanoTime();
+                    try {
+                      client.execute(requests.apply(i));
+                    } catch (RuntimeException e) {
+                      errors.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - requestStart;
+                  }
+                } finally {
+                  allocated.addAndGet(threads.getThreadAllocatedBytes(id) - allocatedBefore);
+                  done.countDown();
+                }
+              },
+              "load-" + t);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    done.await();
+    return new Report(count, errors.get(), System.nanoTime() - start, latencies, allocated.get());
+  }
+
+  public static class Report {
+    private final int count;
+    private final int errors;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+    private final long allocatedBytes;
+
+    Report(int count, int errors, long elapsedNanos, long[] latencies, long allocatedBytes) {
+      this.count = count;
+      this.errors = errors;
+      this.elapsedNanos = elapsedNanos;
+      this.sortedLatencies = latencies.clone();
+      Arrays.sort(sortedLatencies);
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public int getErrors() {
+      return errors;
+    }
+
+    public double getThroughput() {
+      return count * 1e9 / elapsedNanos;
+    }
+
+    /** The latency at percentile {@code p}, 0 to 100, in milliseconds. */
+    public double getLatencyMillis(double p) {
+      int i = (int) Math.ceil(p / 100 * sortedLatencies.length) - 1;
+      return sortedLatencies[Math.max(0, Math.min(sortedLatencies.length - 1, i))] / 1e6;
+    }
+
+    public long getAllocatedBytesPerRequest() {
+      return allocatedBytes / count;
+    }
+
+    /** Bytes allocated per second by the threads making requests. */
+    public double getAllocationRate() {
+      return allocatedBytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d requests, %d errors, %.0f req/s, p50 %.2fms p90 %.2fms p99 %.2fms max %.2fms, "
+              + "%d bytes/req, %.1f MB/s allocated",
+          count,
+          errors,
+          getThroughput(),
+          getLatencyMillis(50),
+          getLatencyMillis(90),
+          getLatencyMillis(99),
+          getLatencyMillis(100),
+          getAllocatedBytesPerRequest(),
+          getAllocationRate() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * A short load run against the local stand-in. Use {@code -Dload.concurrency} and {@code
+ * -Dload.count} for a longer one.
+ */
+public class LoadHarnessTest {
+  private final int concurrency = Integer.getInteger("load.concurrency", 8);
+  private final int count = Integer.getInteger("load.count", 400);
+  private MockWebServer server;
+  private LocalAwsDispatcher dispatcher;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    dispatcher =
+        new LocalAwsDispatcher()
+            .credentials("AKLOAD", "secret")
+            .latency(LocalAwsDispatcher.logNormal(1, 0.5));
+    server = new MockWebServer();
+    server.setDispatcher(dispatcher);
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKLOAD", "secret")))
+            .endpoint("sts", server.url("/"))
+            .endpoint("dynamodb", server.url("/"))
+            .endpoint("ec2", server.url("/"));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testQuery() throws InterruptedException {
+    LoadHarness.Report report =
+        new LoadHarness(
+                client,
+                i -> client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build())
+            .concurrency(concurrency)
+            .count(count)
+            .run();
+    System.out.println("sts GetCallerIdentity: " + report);
+    Assertions.assertThat(report.getErrors()).isZero();
+    Assertions.assertThat(dispatcher.signatureFailures).hasValue(0);
+  }
+
+  @Test
+  public void testEc2() throws InterruptedException {
+    LoadHarness.Report report =
+        new LoadHarness(
+                client,
+                i ->
+                    client
+                        .newActionBuilder(Regions.US_WEST_2, "ec2", "DescribeInstances")
+                        .parameters(client.objectNode().put("MaxResults", 5))
+                        .build())
+            .concurrency(concurrency)
+            .count(count)
+            .run();
+    System.out.println("ec2 DescribeInstances: " + report);
+    Assertions.assertThat(report.getErrors()).isZero();
+    Assertions.assertThat(dispatcher.signatureFailures).hasValue(0);
+  }
+
+  @Test
+  public void testJsonWithFaults() throws InterruptedException {
+    dispatcher
+        .throttleRate(0.05)
+        .serverErrorRate(0.02)
+        .action(
+            "GetItem",
+            request -> new MockResponse().setBody("{\"Item\":{\"id\":{\"S\":\"1\"}}}"));
+    LoadHarness.Report report =
+        new LoadHarness(
+                client,
+                i ->
+                    client
+                        .newActionBuilder(Regions.US_EAST_1, "dynamodb", "GetItem")
+                        .parameters(
+                            client
+                                .objectNode()
+                                .put("TableName", "t")
+                                .set(
+                                    "Key",
+                                    client
+                                        .objectNode()
+                                        .set("id", client.objectNode().put("S", "" + i))))
+                        .build())
+            .concurrency(concurrency)
+            .count(count)
+            .run();
+    System.out.println("dynamodb GetItem: " + report);
+    /* the retries absorb the injected faults */
+    Assertions.assertThat(report.getErrors()).isZero();
+    Assertions.assertThat(dispatcher.injectedErrors.get()).isPositive();
+    Assertions.assertThat(dispatcher.signatureFailures).hasValue(0);
+  }
+}
@@ -0,0 +1,229 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A stand-in for the query, ec2, json and rest-json protocol services, for tests and load runs
+ * without a network. Every request's SigV4 signature is checked against the registered
+ * credentials, and latency, throttling and server errors can be injected. Actions answer with an
+ * empty result unless a response is registered for them.
+ */
+public class LocalAwsDispatcher extends Dispatcher {
+  private static final Pattern AUTHORIZATION =
+      Pattern.compile(
+          "AWS4-HMAC-SHA256 Credential=([^/]+)/\\d{8}/([^/]+)/([^/]+)/aws4_request, "
+              + "SignedHeaders=([^,]+), Signature=([0-9a-f]+)");
+  private static final Pattern FORM_ACTION = Pattern.compile("(?:^|&)Action=([^&]+)");
+  final AtomicInteger requests = new AtomicInteger();
+  final AtomicInteger signatureFailures = new AtomicInteger();
+  final AtomicInteger injectedErrors = new AtomicInteger();
+  private final Map<String, String> secretKeys = new ConcurrentHashMap<>();
+  private final Map<String, Function<RecordedRequest, MockResponse>> actions =
+      new ConcurrentHashMap<>();
+  private volatile LongSupplier latencyMillis = () -> 0;
+  private volatile double throttleRate;
+  private volatile double serverErrorRate;
+
+  public LocalAwsDispatcher credentials(String accessKeyId, String secretKey) {
+    secretKeys.put(accessKeyId, secretKey);
+    return this;
+  }
+
+  /**
+   * Answer {@code action} with {@code handler}; for rest-json the action is the method and path,
+   * e.g. {@code GET /2015-03-31/functions/}.
+   */
+  public LocalAwsDispatcher action(String action, Function<RecordedRequest, MockResponse> handler) {
+    actions.put(action, handler);
+    return this;
+  }
+
+  /** Delay each response by a value drawn from {@code latencyMillis}. */
+  public LocalAwsDispatcher latency(LongSupplier latencyMillis) {
+    this.latencyMillis = latencyMillis;
+    return this;
+  }
+
+  /** A log-normal latency distribution, the usual shape of service response times. */
+  public static LongSupplier logNormal(double medianMillis, double sigma) {
+    return () ->
+        Math.round(
+            medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+  }
+
+  /** Reject this fraction of requests with the protocol's throttling error. */
+  public LocalAwsDispatcher throttleRate(double throttleRate) {
+    this.throttleRate = throttleRate;
+    return this;
+  }
+
+  /** Fail this fraction of requests with a 500 or 503. */
+  public LocalAwsDispatcher serverErrorRate(double serverErrorRate) {
+    this.serverErrorRate = serverErrorRate;
+    return this;
+  }
+
+  @Override
+  public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+    requests.incrementAndGet();
+    long latency = latencyMillis.getAsLong();
+    if (latency > 0) {
+      Thread.sleep(latency);
+    }
+    Matcher m = AUTHORIZATION.matcher(String.valueOf(request.getHeader("Authorization")));
+    if (!m.matches()) {
+      signatureFailures.incrementAndGet();
+      return new MockResponse().setResponseCode(403).setBody("missing or bad Authorization");
+    }
+    String protocol = getProtocol(m.group(3), request);
+    if (!verify(request, m)) {
+      signatureFailures.incrementAndGet();
+      return error(protocol, 403, "SignatureDoesNotMatch");
+    }
+    double r = ThreadLocalRandom.current().nextDouble();
+    if (r < throttleRate) {
+      injectedErrors.incrementAndGet();
+      return error(protocol, 400, protocol.equals("json") ? "ThrottlingException" : "Throttling");
+    }
+    if (r < throttleRate + serverErrorRate) {
+      injectedErrors.incrementAndGet();
+      return error(protocol, r < throttleRate + serverErrorRate / 2 ? 500 : 503, "InternalError");
+    }
+    String action = getAction(protocol, request);
+    Function<RecordedRequest, MockResponse> handler = actions.get(action);
+    if (handler != null) {
+      return handler.apply(request);
+    }
+    switch (protocol) {
+      case "query":
+      case "ec2":
+        return new MockResponse()
+            .setBody(
+                "<" + action + "Response><" + action + "Result/><ResponseMetadata><RequestId>"
+                    + requests.get()
+                    + "</RequestId></ResponseMetadata></" + action + "Response>");
+      default:
+        return new MockResponse().setBody("{}");
+    }
+  }
+
+  /*
+   * Tell the protocol from the request itself, since the signing name in the credential scope
+   * isn't always a service name.
+   */
+  private static String getProtocol(String signingName, RecordedRequest request) {
+    if (request.getHeader("X-Amz-Target") != null) {
+      return "json";
+    }
+    if (FORM_ACTION.matcher(request.getBody().clone().readUtf8()).find()
+        || request.getRequestUrl().queryParameter("Action") != null) {
+      return signingName.equals("ec2") ? "ec2" : "query";
+    }
+    return "rest-json";
+  }
+
+  private static String getAction(String protocol, RecordedRequest request) {
+    switch (protocol) {
+      case "query":
+      case "ec2":
+        {
+          Matcher m = FORM_ACTION.matcher(request.getBody().clone().readUtf8());
+          String action = m.find() ? m.group(1) : request.getRequestUrl().queryParameter("Action");
+          return action != null ? action : "";
+        }
+      case "json":
+        {
+          String target = String.valueOf(request.getHeader("X-Amz-Target"));
+          return target.substring(target.lastIndexOf('.') + 1);
+        }
+      default:
+        return request.getMethod() + " " + request.getRequestUrl().encodedPath();
+    }
+  }
+
+  /* Check the signature with an implementation independent of the client's signer. */
+  private boolean verify(RecordedRequest recorded, Matcher authorization) {
+    String secretKey = secretKeys.get(authorization.group(1));
+    String amzDate = recorded.getHeader("X-Amz-Date");
+    if (secretKey == null || amzDate == null) {
+      return false;
+    }
+    List<String> signedHeaders = Arrays.asList(authorization.group(4).split(";"));
+    Headers headers = recorded.getHeaders();
+    for (String name : signedHeaders) {
+      if (headers.get(name) == null) {
+        return false;
+      }
+    }
+    String payloadHash = recorded.getHeader("X-Amz-Content-Sha256");
+    HttpUrl url = recorded.getRequestUrl();
+    String canonicalRequest =
+        SignatureVerifier.canonicalRequest(
+            recorded.getMethod(),
+            url.encodedPath(),
+            url.encodedQuery(),
+            headers::values,
+            signedHeaders,
+            payloadHash != null
+                ? payloadHash
+                : SignatureVerifier.sha256(recorded.getBody().clone().readByteArray()));
+    String credentialScope =
+        amzDate.substring(0, 8)
+            + "/"
+            + authorization.group(2)
+            + "/"
+            + authorization.group(3)
+            + "/aws4_request";
+    return SignatureVerifier.signature(secretKey, amzDate, credentialScope, canonicalRequest)
+        .equals(authorization.group(5));
+  }
+
+  private static MockResponse error(String protocol, int status, String code) {
+    switch (protocol) {
+      case "query":
+        return new MockResponse()
+            .setResponseCode(status)
+            .setBody(
+                "<ErrorResponse><Error><Code>" + code + "</Code><Message>" + code
+                    + "</Message></Error><RequestId>0</RequestId></ErrorResponse>");
+      case "ec2":
+        return new MockResponse()
+            .setResponseCode(status)
+            .setBody(
+                "<Response><Errors><Error><Code>" + code + "</Code><Message>" + code
+                    + "</Message></Error></Errors><RequestID>0</RequestID></Response>");
+      default:
+        return new MockResponse()
+            .setResponseCode(status)
+            .setBody("{\"__type\":\"" + code + "\",\"message\":\"" + code + "\"}");
+    }
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class MemoryBudgetTest {
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+            .endpoint("dynamodb", server.url("/"));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private Request listTables() {
+    return client
+        .newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables")
+        .parameters(new ObjectMapper().createObjectNode())
+        .build();
+  }
+
+  @Test
+  public void testRejectsWhenExhausted() {
+    MemoryBudget budget = new MemoryBudget(10000).initialReservation(6000).maxWait(Duration.ZERO);
+    MemoryBudget.Reservation first = budget.reserve(null);
+    Assertions.assertThatThrownBy(() -> budget.reserve(null))
+        .isInstanceOf(AmazonClientException.class);
+    Assertions.assertThat(budget.getRejected()).isEqualTo(1);
+    first.close();
+    Assertions.assertThat(budget.getUsed()).isZero();
+    budget.reserve(null).close();
+  }
+
+  @Test
+  public void testQueuesUntilReleased() throws InterruptedException {
+    MemoryBudget budget = new MemoryBudget(10000).initialReservation(6000);
+    MemoryBudget.Reservation first = budget.reserve(null);
+    Thread releaser =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(100);
+              } catch (InterruptedException e) {
+                return;
+              }
+              first.close();
+            });
+    releaser.start();
+    budget.reserve(Deadline.after(Duration.ofSeconds(5))).close();
+    releaser.join();
+    Assertions.assertThat(budget.getUsed()).isZero();
+  }
+
+  @Test
+  public void testAccountsResponses() {
+    MemoryBudget budget = new MemoryBudget(1 << 20).treeSizeFactor(4).maxWait(Duration.ZERO);
+    client.memoryBudget(budget);
+    StringBuilder body = new StringBuilder("{\"TableNames\":[");
+    for (int i = 0; i < 5000; i++) {
+      body.append(i == 0 ? "" : ",").append("\"table").append(i).append('"');
+    }
+    body.append("]}");
+    server.enqueue(new MockResponse().setChunkedBody(body.toString(), 1024));
+    server.enqueue(new MockResponse().setBody(body.toString()));
+    for (int i = 0; i < 2; i++) {
+      JsonNode result = client.execute(listTables());
+      Assertions.assertThat(result.path("TableNames").size()).isEqualTo(5000);
+      Assertions.assertThat(budget.getUsed()).isZero();
+    }
+
+    MemoryBudget.Reservation hog = budget.reserve(null);
+    hog.track(
+        new Response.Builder()
+            .request(listTables())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(ResponseBody.create(new byte[1 << 20], null))
+            .build());
+    Assertions.assertThatThrownBy(() -> client.execute(listTables()))
+        .isInstanceOf(AmazonClientException.class)
+        .hasMessageContaining("memory budget");
+    Assertions.assertThat(server.getRequestCount()).isEqualTo(2);
+    hog.close();
+  }
+}
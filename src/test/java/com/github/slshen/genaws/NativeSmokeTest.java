@@ -0,0 +1,72 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.slshen.genaws.auth.Credentials;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Signs, sends and parses xml and json protocol requests. With {@code -Pnative} this runs under
+ * the tracing agent and then in a native image built with the traced metadata and the service
+ * metadata parsed at build time.
+ */
+public class NativeSmokeTest {
+
+  @Test
+  public void testSignedRequests() throws IOException, InterruptedException {
+    MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                "<GetCallerIdentityResponse><GetCallerIdentityResult><Account>123</Account>"
+                    + "</GetCallerIdentityResult></GetCallerIdentityResponse>"));
+    server.enqueue(new MockResponse().setBody("{\"TableNames\":[\"t\"]}"));
+    server.start();
+    try {
+      GenericAmazonClient client =
+          GenericAmazonClient.create(
+                  new OkHttpClient(), CredentialsProvider.of(new Credentials("AK", "secret")))
+              .endpoint("sts", server.url("/"))
+              .endpoint("dynamodb", server.url("/"));
+      Assertions.assertThat(GenericAmazonClient.getUserAgent()).isNotNull();
+      Assertions.assertThat(AmazonServiceData.getServiceNames()).contains("sts", "dynamodb");
+
+      JsonNode identity =
+          client.execute(
+              client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build());
+      Assertions.assertThat(identity.at("/GetCallerIdentityResult/Account").asText())
+          .isEqualTo("123");
+      JsonNode tables =
+          client.execute(
+              client.newActionBuilder(Regions.US_WEST_2, "dynamodb", "ListTables").build());
+      Assertions.assertThat(tables.at("/TableNames/0").asText()).isEqualTo("t");
+
+      Assertions.assertThat(server.takeRequest().getHeader("Authorization"))
+          .startsWith("AWS4-HMAC-SHA256 Credential=AK/");
+      Assertions.assertThat(server.takeRequest().getHeader("X-Amz-Target"))
+          .isEqualTo("DynamoDB_20120810.ListTables");
+    } finally {
+      server.shutdown();
+    }
+  }
+}
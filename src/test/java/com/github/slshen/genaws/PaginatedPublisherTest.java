@@ -0,0 +1,185 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+public class PaginatedPublisherTest {
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  /** Requests one item at a time, only when the test asks for it. */
+  private static class TestSubscriber implements Flow.Subscriber<JsonNode> {
+    final List<JsonNode> received = new ArrayList<>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+    volatile CountDownLatch next;
+
+    void request() throws InterruptedException {
+      next = new CountDownLatch(1);
+      subscription.request(1);
+      Assertions.assertThat(next.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(JsonNode item) {
+      received.add(item);
+      next.countDown();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      finished.countDown();
+      next.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      finished.countDown();
+      next.countDown();
+    }
+  }
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+            .endpoint("dynamodb", server.url("/"));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private PaginatedPublisher scan() {
+    return client.paginate(
+        token -> {
+          ObjectNode parameters = client.objectNode();
+          parameters.put("TableName", "t");
+          if (token != null) {
+            parameters.set("ExclusiveStartKey", token);
+          }
+          return client
+              .newActionBuilder(Regions.US_EAST_1, "dynamodb", "Scan")
+              .parameters(parameters)
+              .build();
+        });
+  }
+
+  @Test
+  public void testItemsFetchedOnDemand() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                "{\"Count\":2,\"Items\":[{\"id\":{\"S\":\"1\"}},{\"id\":{\"S\":\"2\"}}],"
+                    + "\"LastEvaluatedKey\":{\"id\":{\"S\":\"2\"}}}"));
+    server.enqueue(
+        new MockResponse()
+            .setBody("{\"LastEvaluatedKey\":null,\"Items\":[{\"id\":{\"S\":\"3\"}}]}"));
+    TestSubscriber subscriber = new TestSubscriber();
+    scan().nextToken("/LastEvaluatedKey").items("/Items").subscribe(subscriber);
+    subscriber.request();
+    subscriber.request();
+    Assertions.assertThat(server.getRequestCount()).isEqualTo(1);
+    subscriber.request();
+    Assertions.assertThat(server.getRequestCount()).isEqualTo(2);
+    server.takeRequest();
+    Assertions.assertThat(server.takeRequest().getBody().readUtf8())
+        .contains("\"ExclusiveStartKey\":{\"id\":{\"S\":\"2\"}}");
+    subscriber.request();
+    Assertions.assertThat(subscriber.finished.await(5, TimeUnit.SECONDS)).isTrue();
+    Assertions.assertThat(subscriber.error).isNull();
+    Assertions.assertThat(subscriber.received)
+        .extracting(n -> n.path("id").path("S").asText())
+        .containsExactly("1", "2", "3");
+  }
+
+  @Test
+  public void testPages() throws Exception {
+    server.enqueue(new MockResponse().setBody("{\"Items\":[],\"LastEvaluatedKey\":{\"id\":1}}"));
+    server.enqueue(new MockResponse().setBody("{\"Items\":[]}"));
+    TestSubscriber subscriber = new TestSubscriber();
+    scan().nextToken("/LastEvaluatedKey").subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Assertions.assertThat(subscriber.finished.await(5, TimeUnit.SECONDS)).isTrue();
+    Assertions.assertThat(subscriber.received).hasSize(2);
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    StringBuilder body = new StringBuilder("{\"Items\":[");
+    for (int i = 0; i < 10000; i++) {
+      body.append(i == 0 ? "" : ",").append("{\"id\":{\"N\":\"").append(i).append("\"}}");
+    }
+    body.append("],\"LastEvaluatedKey\":{\"id\":1}}");
+    server.enqueue(new MockResponse().setBody(body.toString()));
+    TestSubscriber subscriber = new TestSubscriber();
+    scan().nextToken("/LastEvaluatedKey").items("/Items").subscribe(subscriber);
+    subscriber.request();
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(1);
+    Thread.sleep(200);
+    Assertions.assertThat(subscriber.received).hasSize(1);
+    Assertions.assertThat(server.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCancelWhileWaiting() throws Exception {
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    TestSubscriber subscriber = new TestSubscriber();
+    scan().items("/Items").executor(executor).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    server.takeRequest();
+    subscriber.subscription.cancel();
+    executor.shutdown();
+    /* the drain loop doesn't wait for the read timeout */
+    Assertions.assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    Assertions.assertThat(subscriber.received).isEmpty();
+    Assertions.assertThat(subscriber.error).isNull();
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import com.amazonaws.AmazonClientException;
+
+public class RequestSchedulerTest {
+  private final PriorityClass interactive = new PriorityClass("interactive", 3, 1);
+  private final PriorityClass background = new PriorityClass("background", 1, 0);
+
+  @Test
+  public void testReservedConcurrency() {
+    RequestScheduler scheduler = new RequestScheduler(2).register(interactive);
+    RequestScheduler.Permit bulk = scheduler.acquire(background, null);
+    Assertions.assertThatThrownBy(
+            () -> scheduler.acquire(background, Deadline.after(Duration.ofMillis(100))))
+        .isInstanceOf(AmazonClientException.class);
+    Assertions.assertThat(scheduler.getStats(background).getRejected()).isEqualTo(1);
+    scheduler.acquire(interactive, Deadline.after(Duration.ofMillis(100))).close();
+    bulk.close();
+    Assertions.assertThat(scheduler.getInFlight(background)).isZero();
+    Assertions.assertThatThrownBy(() -> scheduler.register(new PriorityClass("greedy", 1, 2)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testWeightedFair() throws InterruptedException {
+    /* one shared slot, so the grant order is the order the permits are used */
+    PriorityClass interactive = new PriorityClass("interactive", 3, 0);
+    RequestScheduler scheduler = new RequestScheduler(1);
+    RequestScheduler.Permit hold = scheduler.acquire(PriorityClass.DEFAULT, null);
+    List<PriorityClass> order = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+    for (PriorityClass priorityClass : List.of(interactive, background)) {
+      for (int i = 0; i < 8; i++) {
+        Thread thread =
+            new Thread(
+                () -> {
+                  try (RequestScheduler.Permit permit = scheduler.acquire(priorityClass, null)) {
+                    order.add(priorityClass);
+                  }
+                });
+        thread.start();
+        threads.add(thread);
+      }
+    }
+    while (scheduler.getQueueLength(interactive) < 8 || scheduler.getQueueLength(background) < 8) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+    hold.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assertions.assertThat(order).hasSize(16);
+    Assertions.assertThat(order.subList(0, 8)).filteredOn(c -> c == interactive).hasSize(6);
+    Assertions.assertThat(scheduler.getStats(interactive).getCount()).isEqualTo(8);
+    Assertions.assertThat(scheduler.getStats(background).getMaxQueuedMillis()).isGreaterThan(0);
+  }
+
+  @Test
+  @Timeout(10)
+  public void testSubMillisecondDeadline() {
+    RequestScheduler scheduler = new RequestScheduler(1);
+    try (RequestScheduler.Permit held = scheduler.acquire(background, null)) {
+      Assertions.assertThatThrownBy(
+              () -> scheduler.acquire(background, Deadline.after(Duration.ofNanos(500_000))))
+          .isInstanceOf(AmazonClientException.class);
+    }
+    Assertions.assertThat(scheduler.getInFlight(background)).isZero();
+  }
+
+  @Test
+  @Timeout(10)
+  public void testInterruptedWaiter() throws InterruptedException {
+    RequestScheduler scheduler = new RequestScheduler(1);
+    RequestScheduler.Permit held = scheduler.acquire(background, null);
+    Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                scheduler.acquire(background, null).close();
+              } catch (AmazonClientException e) {
+                /* interrupted */
+              }
+            });
+    waiter.start();
+    while (scheduler.getQueueLength(background) == 0) {
+      Thread.sleep(1);
+    }
+    /* hand the slot to the waiter while it's being interrupted */
+    synchronized (scheduler) {
+      waiter.interrupt();
+      held.close();
+    }
+    waiter.join();
+    Assertions.assertThat(scheduler.getInFlight(background)).isZero();
+    scheduler.acquire(background, Deadline.after(Duration.ofMillis(100))).close();
+  }
+}
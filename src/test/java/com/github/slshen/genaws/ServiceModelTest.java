@@ -0,0 +1,204 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import okhttp3.Request;
+import okio.Buffer;
+
+public class ServiceModelTest {
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private ServiceModel model(String json) throws IOException {
+    return new ServiceModel(mapper.readTree(json.replace('\'', '"')));
+  }
+
+  @Test
+  public void testEc2Output() throws IOException {
+    ServiceModel model =
+        model(
+            "{'operations': {'DescribeInstances': {'output': {'shape': 'Result'}}},"
+                + "'shapes': {"
+                + "'Result': {'type': 'structure', 'members': {"
+                + "  'Reservations': {'shape': 'ReservationList',"
+                + "    'locationName': 'reservationSet'},"
+                + "  'NextToken': {'shape': 'String', 'locationName': 'nextToken'}}},"
+                + "'ReservationList': {'type': 'list', 'member': {'shape': 'Reservation',"
+                + "  'locationName': 'item'}},"
+                + "'Reservation': {'type': 'structure', 'members': {"
+                + "  'ReservationId': {'shape': 'String', 'locationName': 'reservationId'},"
+                + "  'Count': {'shape': 'Integer', 'locationName': 'count'},"
+                + "  'Reservation': {'shape': 'Reservation', 'locationName': 'nested'}}},"
+                + "'String': {'type': 'string'},"
+                + "'Integer': {'type': 'integer'}}}");
+    JsonNode n =
+        new ShapeXmlParser()
+            .parse(
+                JsonNodeFactory.instance,
+                new StringReader(
+                    "<DescribeInstancesResponse><requestId>x</requestId>"
+                        + "<reservationSet><item><reservationId>r-1</reservationId>"
+                        + "<count>3</count><unknown><a/></unknown></item></reservationSet>"
+                        + "</DescribeInstancesResponse>"),
+                model.getOperation("DescribeInstances"));
+    Assertions.assertThat(n.toString())
+        .isEqualTo("{\"Reservations\":[{\"ReservationId\":\"r-1\",\"Count\":3}]}");
+  }
+
+  @Test
+  public void testQueryOutput() throws IOException {
+    ServiceModel model =
+        model(
+            "{'operations': {'ReceiveMessage': {'output': {'shape': 'Result',"
+                + "  'resultWrapper': 'ReceiveMessageResult'}}},"
+                + "'shapes': {"
+                + "'Result': {'type': 'structure', 'members': {"
+                + "  'Messages': {'shape': 'MessageList'}}},"
+                + "'MessageList': {'type': 'list', 'flattened': true,"
+                + "  'member': {'shape': 'Message', 'locationName': 'Message'}},"
+                + "'Message': {'type': 'structure', 'members': {"
+                + "  'Body': {'shape': 'String'},"
+                + "  'Attributes': {'shape': 'Attributes', 'locationName': 'Attribute'}}},"
+                + "'Attributes': {'type': 'map', 'flattened': true,"
+                + "  'key': {'shape': 'String', 'locationName': 'Name'},"
+                + "  'value': {'shape': 'String', 'locationName': 'Value'}},"
+                + "'String': {'type': 'string'}}}");
+    JsonNode n =
+        new ShapeXmlParser()
+            .parse(
+                JsonNodeFactory.instance,
+                new StringReader(
+                    "<ReceiveMessageResponse><ReceiveMessageResult><Message><Body>hi</Body>"
+                        + "<Attribute><Name>a</Name><Value>1</Value></Attribute>"
+                        + "<Attribute><Name>b</Name><Value>2</Value></Attribute>"
+                        + "</Message></ReceiveMessageResult>"
+                        + "<ResponseMetadata><RequestId>x</RequestId></ResponseMetadata>"
+                        + "</ReceiveMessageResponse>"),
+                model.getOperation("ReceiveMessage"));
+    Assertions.assertThat(n.toString())
+        .isEqualTo(
+            "{\"Messages\":[{\"Body\":\"hi\",\"Attributes\":{\"a\":\"1\",\"b\":\"2\"}}]}");
+  }
+
+  @Test
+  public void testRestJsonBinding() throws IOException {
+    ServiceModel model =
+        model(
+            "{'operations': {'Invoke': {'http': {'method': 'POST',"
+                + "  'requestUri': '/2015-03-31/functions/{FunctionName}/invocations'},"
+                + "  'input': {'shape': 'InvocationRequest'}}},"
+                + "'shapes': {"
+                + "'InvocationRequest': {'type': 'structure', 'payload': 'Payload', 'members': {"
+                + "  'FunctionName': {'shape': 'String', 'location': 'uri',"
+                + "    'locationName': 'FunctionName'},"
+                + "  'InvocationType': {'shape': 'String', 'location': 'header',"
+                + "    'locationName': 'X-Amz-Invocation-Type'},"
+                + "  'Qualifier': {'shape': 'String', 'location': 'querystring',"
+                + "    'locationName': 'Qualifier'},"
+                + "  'Payload': {'shape': 'Blob'}}},"
+                + "'String': {'type': 'string'},"
+                + "'Blob': {'type': 'blob'}}}");
+    AmazonServiceData lambda =
+        new AmazonServiceData(
+            mapper.readTree(
+                "{\"endpointPrefix\": \"lambda\", \"protocol\": \"rest-json\","
+                    + "\"apiVersion\": \"2015-03-31\"}"));
+    Request request =
+        new GenericAmazonActionBuilder(Regions.US_WEST_2, lambda, "Invoke")
+            .operation(model.getOperation("Invoke"))
+            .parameters(
+                mapper
+                    .createObjectNode()
+                    .put("FunctionName", "my function")
+                    .put("InvocationType", "Event")
+                    .put("Qualifier", "1")
+                    .putPOJO("Payload", Blob.of("{}".getBytes())))
+            .build();
+    Assertions.assertThat(request.method()).isEqualTo("POST");
+    Assertions.assertThat(request.url().encodedPath())
+        .isEqualTo("/2015-03-31/functions/my%20function/invocations");
+    Assertions.assertThat(request.url().queryParameter("Qualifier")).isEqualTo("1");
+    Assertions.assertThat(request.header("X-Amz-Invocation-Type")).isEqualTo("Event");
+    Buffer body = new Buffer();
+    request.body().writeTo(body);
+    Assertions.assertThat(body.readUtf8()).isEqualTo("{}");
+  }
+
+  private static final String RECEIVE_MESSAGE_RESPONSE =
+      "<ReceiveMessageResponse><ReceiveMessageResult>"
+          + "<Message><MessageId>m1</MessageId><ReceiptHandle>r1</ReceiptHandle>"
+          + "<MD5OfBody>49f68a5c8493ec2c0bf489821c21fc3b</MD5OfBody><Body>hi</Body>"
+          + "<Attribute><Name>ApproximateReceiveCount</Name><Value>2</Value></Attribute>"
+          + "<Attribute><Name>SenderId</Name><Value>AIDAEXAMPLE</Value></Attribute>"
+          + "<MessageAttribute><Name>color</Name><Value><StringValue>red</StringValue>"
+          + "<DataType>String</DataType></Value></MessageAttribute></Message>"
+          + "<Message><MessageId>m2</MessageId><ReceiptHandle>r2</ReceiptHandle>"
+          + "<Body>there</Body></Message>"
+          + "</ReceiveMessageResult><ResponseMetadata><RequestId>x</RequestId>"
+          + "</ResponseMetadata></ReceiveMessageResponse>";
+
+  @Test
+  public void testClasspathModel() throws IOException {
+    JsonNode n =
+        new ShapeXmlParser()
+            .parse(
+                JsonNodeFactory.instance,
+                new StringReader(RECEIVE_MESSAGE_RESPONSE),
+                ServiceModel.getServiceModel("sqs").getOperation("ReceiveMessage"));
+    Assertions.assertThat(n.path("Messages").size()).isEqualTo(2);
+    JsonNode first = n.path("Messages").path(0);
+    Assertions.assertThat(first.path("Attributes").path("ApproximateReceiveCount").asText())
+        .isEqualTo("2");
+    Assertions.assertThat(first.path("MessageAttributes").path("color").toString())
+        .isEqualTo("{\"StringValue\":\"red\",\"DataType\":\"String\"}");
+    Assertions.assertThat(n.path("Messages").path(1).path("Body").asText()).isEqualTo("there");
+    Assertions.assertThatThrownBy(() -> ServiceModel.getServiceModel("no-such-service"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testBotocoreDirectory(@TempDir Path dir) throws IOException {
+    /* botocore's layout, with the latest api version gzipped as newer releases ship it */
+    Path older = Files.createDirectories(dir.resolve("local-sqs/2011-10-01"));
+    Files.writeString(older.resolve("service-2.json"), "{\"operations\": {}, \"shapes\": {}}");
+    Path latest = Files.createDirectories(dir.resolve("local-sqs/2012-11-05"));
+    try (InputStream in = getClass().getResourceAsStream("data/sqs-service-2.json");
+        OutputStream out =
+            new GZIPOutputStream(Files.newOutputStream(latest.resolve("service-2.json.gz")))) {
+      in.transferTo(out);
+    }
+    ServiceModel.addModelDirectory(dir);
+    JsonNode n =
+        new ShapeXmlParser()
+            .parse(
+                JsonNodeFactory.instance,
+                new StringReader(RECEIVE_MESSAGE_RESPONSE),
+                ServiceModel.getServiceModel("local-sqs").getOperation("ReceiveMessage"));
+    Assertions.assertThat(n.path("Messages").path(0).path("Body").asText()).isEqualTo("hi");
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes SigV4 signatures from what a server sees of a request, written from the spec rather
+ * than shared with {@link com.github.slshen.genaws.auth.AwsV4Signer}, so a test server can check
+ * the client's signatures instead of repeating them. Checked against the aws-sig-v4-test-suite.
+ */
+class SignatureVerifier {
+  private static final String EMPTY_HASH =
+      "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * The canonical request. {@code encodedPath} and {@code encodedQuery} are as sent, {@code
+   * headers} looks up all the values of a header, and {@code signedHeaders} are lower case.
+   */
+  static String canonicalRequest(
+      String method,
+      String encodedPath,
+      String encodedQuery,
+      Function<String, List<String>> headers,
+      List<String> signedHeaders,
+      String payloadHash) {
+    StringBuilder s = new StringBuilder(method).append('\n');
+    s.append(canonicalPath(encodedPath)).append('\n');
+    s.append(canonicalQuery(encodedQuery)).append('\n');
+    for (String name : signedHeaders) {
+      s.append(name).append(':');
+      List<String> values = headers.apply(name);
+      for (int i = 0; i < values.size(); i++) {
+        s.append(i > 0 ? "," : "").append(values.get(i).trim().replaceAll("\\s+", " "));
+      }
+      s.append('\n');
+    }
+    s.append('\n').append(String.join(";", signedHeaders)).append('\n');
+    return s.append(payloadHash).toString();
+  }
+
+  /** The signature of {@code canonicalRequest}, the hex HMAC of the string to sign. */
+  static String signature(
+      String secretKey, String amzDate, String credentialScope, String canonicalRequest) {
+    String[] scope = credentialScope.split("/");
+    String stringToSign =
+        "AWS4-HMAC-SHA256\n"
+            + amzDate
+            + "\n"
+            + credentialScope
+            + "\n"
+            + sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8));
+    byte[] key = ("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8);
+    for (String part : scope) {
+      key = hmac(key, part);
+    }
+    return hex(hmac(key, stringToSign));
+  }
+
+  static String sha256(byte[] data) {
+    if (data.length == 0) {
+      return EMPTY_HASH;
+    }
+    try {
+      return hex(MessageDigest.getInstance("SHA-256").digest(data));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /* Dot segments are already gone from a url that's been sent; empty segments are dropped. */
+  private static String canonicalPath(String encodedPath) {
+    StringBuilder s = new StringBuilder();
+    String[] segments = encodedPath.split("/", -1);
+    for (int i = 0; i < segments.length; i++) {
+      if (!segments[i].isEmpty()) {
+        s.append('/').append(encode(decode(segments[i], false)));
+      }
+    }
+    if (s.length() == 0 || encodedPath.endsWith("/")) {
+      s.append('/');
+    }
+    return s.toString();
+  }
+
+  private static String canonicalQuery(String encodedQuery) {
+    if (encodedQuery == null || encodedQuery.isEmpty()) {
+      return "";
+    }
+    List<String[]> parameters = new ArrayList<>();
+    for (String parameter : encodedQuery.split("&")) {
+      int eq = parameter.indexOf('=');
+      String name = eq < 0 ? parameter : parameter.substring(0, eq);
+      String value = eq < 0 ? "" : parameter.substring(eq + 1);
+      parameters.add(new String[] {encode(decode(name, true)), encode(decode(value, true))});
+    }
+    parameters.sort(Comparator.<String[], String>comparing(p -> p[0]).thenComparing(p -> p[1]));
+    StringBuilder s = new StringBuilder();
+    for (String[] p : parameters) {
+      s.append(s.length() > 0 ? "&" : "").append(p[0]).append('=').append(p[1]);
+    }
+    return s.toString();
+  }
+
+  private static String decode(String s, boolean plusIsSpace) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '%' && i + 2 < s.length()) {
+        out.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+        i += 2;
+      } else if (c == '+' && plusIsSpace) {
+        out.write(' ');
+      } else {
+        byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+      }
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /* RFC 3986: everything but the unreserved characters is percent encoded */
+  private static String encode(String s) {
+    StringBuilder out = new StringBuilder();
+    for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xff);
+      if ((c >= 'A' && c <= 'Z')
+          || (c >= 'a' && c <= 'z')
+          || (c >= '0' && c <= '9')
+          || c == '-'
+          || c == '_'
+          || c == '.'
+          || c == '~') {
+        out.append(c);
+      } else {
+        out.append(String.format("%%%02X", (int) c));
+      }
+    }
+    return out.toString();
+  }
+
+  private static byte[] hmac(byte[] key, String data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder s = new StringBuilder();
+    for (byte b : bytes) {
+      s.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    return s.toString();
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import com.github.slshen.genaws.auth.AmazonTestDataTest;
+import com.github.slshen.genaws.auth.TestData;
+import okhttp3.Request;
+import okio.Buffer;
+
+/** Checks the test server's signature verification against the aws-sig-v4-test-suite. */
+public class SignatureVerifierTest {
+  private static final Pattern AUTHORIZATION =
+      Pattern.compile("Credential=[^/]+/([^,]+), SignedHeaders=([^,]+), Signature=([0-9a-f]+)");
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "get-header-key-duplicate",
+        "get-header-value-multiline",
+        "get-header-value-order",
+        "get-header-value-trim",
+        "get-unreserved",
+        "get-utf8",
+        "get-vanilla",
+        "get-vanilla-empty-query-key",
+        "get-vanilla-query",
+        "get-vanilla-query-order-key",
+        "get-vanilla-query-order-key-case",
+        "get-vanilla-query-order-value",
+        "get-vanilla-query-unreserved",
+        "get-vanilla-utf8-query",
+        "normalize-path/get-relative",
+        "normalize-path/get-relative-relative",
+        "normalize-path/get-slash",
+        "normalize-path/get-slash-dot-slash",
+        "normalize-path/get-slash-pointless-dot",
+        "normalize-path/get-slashes",
+        "normalize-path/get-space",
+        "post-header-key-case",
+        "post-header-key-sort",
+        "post-header-value-case",
+        "post-sts-token/post-sts-header-after",
+        "post-sts-token/post-sts-header-before",
+        "post-vanilla",
+        "post-vanilla-empty-query-value",
+        "post-vanilla-query",
+        // the creq and authz of the x-www-form-urlencoded cases don't agree with each other
+      })
+  public void testSuite(String name) throws IOException {
+    TestData testData = new TestData(name);
+    Request request = testData.request();
+    Matcher authorization = AUTHORIZATION.matcher(testData.authz);
+    Assertions.assertThat(authorization.find()).isTrue();
+    Buffer body = new Buffer();
+    if (request.body() != null) {
+      request.body().writeTo(body);
+    }
+    String canonicalRequest =
+        SignatureVerifier.canonicalRequest(
+            request.method(),
+            request.url().encodedPath(),
+            request.url().encodedQuery(),
+            request.headers()::values,
+            Arrays.asList(authorization.group(2).split(";")),
+            SignatureVerifier.sha256(body.readByteArray()));
+    Assertions.assertThat(canonicalRequest).isEqualTo(testData.creq);
+    Assertions.assertThat(
+            SignatureVerifier.signature(
+                AmazonTestDataTest.secretKey,
+                request.header("X-Amz-Date"),
+                authorization.group(1),
+                canonicalRequest))
+        .isEqualTo(authorization.group(3));
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.regions.Regions;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Measures the time from {@code main} to the first signed request and the number of classes loaded
+ * by then, using the client's default credentials chain ({@code core}) or the SDK's ({@code
+ * sdk}). Run each mode in a fresh JVM with {@code AWS_ACCESS_KEY_ID} and {@code
+ * AWS_SECRET_ACCESS_KEY} set; see {@code StartupBenchmarkTest}.
+ */
+public class StartupBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    long start = System.nanoTime();
+    boolean sdk = args.length > 0 && args[0].equals("sdk");
+    GenericAmazonClient client =
+        sdk
+            ? new GenericAmazonClient(new DefaultAWSCredentialsProviderChain())
+            : new GenericAmazonClient();
+    Request request =
+        client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build();
+    /* answer after signing rather than going to the network */
+    try (Response response =
+        client
+            .getHttpClient()
+            .newBuilder()
+            .addInterceptor(
+                chain ->
+                    new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .header(
+                            "X-Signed", String.valueOf(chain.request().header("Authorization")))
+                        .body(ResponseBody.create("", null))
+                        .build())
+            .build()
+            .newCall(request)
+            .execute()) {
+      long elapsed = System.nanoTime() - start;
+      if (!response.header("X-Signed").startsWith("AWS4-HMAC-SHA256")) {
+        throw new IllegalStateException("request wasn't signed");
+      }
+      System.out.printf(
+          "%s %.1f ms %d classes%n",
+          sdk ? "sdk" : "core",
+          elapsed / 1e6,
+          ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(ForkedBenchmark.TAG)
+public class StartupBenchmarkTest {
+  private static final Pattern RESULT = Pattern.compile("(\\w+) ([\\d.]+) ms (\\d+) classes");
+
+  private Matcher run(String mode) throws IOException, InterruptedException {
+    return new ForkedBenchmark(StartupBenchmark.class)
+        .env("AWS_ACCESS_KEY_ID", "AKSTARTUP")
+        .env("AWS_SECRET_ACCESS_KEY", "secret")
+        .env("AWS_EC2_METADATA_DISABLED", "true")
+        .run(RESULT, mode);
+  }
+
+  @Test
+  public void testStartup() throws IOException, InterruptedException {
+    Matcher core = run("core");
+    Matcher sdk = run("sdk");
+    Assertions.assertThat(Integer.parseInt(core.group(3)))
+        .isLessThan(Integer.parseInt(sdk.group(3)));
+  }
+}
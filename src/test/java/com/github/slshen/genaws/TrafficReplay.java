@@ -0,0 +1,188 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.slshen.genaws.auth.Credentials;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Replays a {@link TrafficRecorder} file: each exchange is sent again at its recorded time, divided
+ * by {@link #speed}, to a local server that answers with the recorded status and body after the
+ * recorded latency, or an empty body if it wasn't recorded. Requests are issued on schedule whether
+ * or not earlier ones have finished, as the original traffic was, and the resulting {@link
+ * LoadHarness.Report} can be compared across client versions. Exchanges are replayed as recorded,
+ * retries included, so the client doesn't retry.
+ */
+public class TrafficReplay {
+  private static final String REPLAY_ID = "X-Replay-Id";
+  private final List<JsonNode> records = new ArrayList<>();
+  private double speed = 1;
+
+  public TrafficReplay(Path recording) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    for (String line : Files.readAllLines(recording)) {
+      if (!line.isBlank()) {
+        records.add(mapper.readTree(line));
+      }
+    }
+  }
+
+  /** Replay this many times faster than recorded; response latencies aren't scaled. */
+  public TrafficReplay speed(double speed) {
+    this.speed = speed;
+    return this;
+  }
+
+  public int size() {
+    return records.size();
+  }
+
+  public LoadHarness.Report run() throws IOException, InterruptedException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            JsonNode record = records.get(Integer.parseInt(request.getHeader(REPLAY_ID)));
+            MockResponse response =
+                new MockResponse()
+                    .setResponseCode(record.path("status").asInt())
+                    .setHeadersDelay(record.path("latencyMicros").asLong(), TimeUnit.MICROSECONDS)
+                    .setBody(new Buffer().write(decode(record.path("responseBody"))));
+            if (record.has("responseType")) {
+              response.setHeader("Content-Type", record.path("responseType").asText());
+            }
+            return response;
+          }
+        });
+    server.start();
+    GenericAmazonClient client =
+        GenericAmazonClient.create(
+                new OkHttpClient(), CredentialsProvider.of(new Credentials("AKREPLAY", "secret")))
+            .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long[] latencies = new long[records.size()];
+    AtomicInteger errors = new AtomicInteger();
+    AtomicLong allocated = new AtomicLong();
+    ExecutorService executor = Executors.newCachedThreadPool();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < records.size(); i++) {
+        JsonNode record = records.get(i);
+        long due =
+            start + (long) (TimeUnit.MILLISECONDS.toNanos(record.path("t").asLong()) / speed);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        Request request = toRequest(server.url(""), record, i);
+        int index = i;
+        executor.execute(
+            () -> {
+              long id = Thread.currentThread().getId();
+              long allocatedBefore = threads.getThreadAllocatedBytes(id);
+              long requestStart = System.nanoTime();
+              int status;
+              try (Response response = client.executeRaw(request)) {
+                response.body().source().readByteString();
+                status = response.code();
+              } catch (AmazonServiceException e) {
+                status = e.getStatusCode();
+              } catch (IOException | RuntimeException e) {
+                status = -1;
+              }
+              latencies[index] = System.nanoTime() - requestStart;
+              /* a recorded error replayed as the same error is a match */
+              if (status != record.path("status").asInt()) {
+                errors.incrementAndGet();
+              }
+              allocated.addAndGet(threads.getThreadAllocatedBytes(id) - allocatedBefore);
+            });
+      }
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.HOURS);
+      return new LoadHarness.Report(
+          records.size(), errors.get(), System.nanoTime() - start, latencies, allocated.get());
+    } finally {
+      executor.shutdownNow();
+      server.shutdown();
+    }
+  }
+
+  private static Request toRequest(HttpUrl server, JsonNode record, int index) {
+    HttpUrl.Builder url = server.newBuilder().encodedPath(record.path("path").asText());
+    if (record.has("query")) {
+      url.encodedQuery(record.path("query").asText());
+    }
+    RequestBody body = null;
+    if (record.has("requestBytes")) {
+      MediaType type =
+          record.has("requestType") ? MediaType.get(record.path("requestType").asText()) : null;
+      body = RequestBody.create(decode(record.path("requestBody")), type);
+    }
+    Request.Builder builder =
+        new Request.Builder()
+            .url(url.build())
+            .method(record.path("method").asText(), body)
+            .header(REPLAY_ID, Integer.toString(index))
+            .tag(
+                AmazonServiceData.class,
+                AmazonServiceData.getServiceData(record.path("service").asText()))
+            .tag(
+                Region.class,
+                Region.getRegion(Regions.fromName(record.path("region").asText("us-east-1"))));
+    if (record.has("action")) {
+      builder.tag(AmazonAction.class, new AmazonAction(record.path("action").asText()));
+    }
+    if (record.has("target")) {
+      builder.header("X-Amz-Target", record.path("target").asText());
+    }
+    return builder.build();
+  }
+
+  private static ByteString decode(JsonNode base64) {
+    return base64.isMissingNode() ? ByteString.EMPTY : ByteString.decodeBase64(base64.asText());
+  }
+}
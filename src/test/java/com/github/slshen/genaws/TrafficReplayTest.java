@@ -0,0 +1,157 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class TrafficReplayTest {
+  @Test
+  public void testRecordAndReplay(@TempDir Path dir) throws IOException, InterruptedException {
+    Path recording = dir.resolve("traffic.jsonl");
+    LocalAwsDispatcher dispatcher =
+        new LocalAwsDispatcher()
+            .credentials("AKRECORD", "secret")
+            .latency(() -> 5)
+            .action(
+                "DeleteTable",
+                request ->
+                    new MockResponse()
+                        .setResponseCode(400)
+                        .setBody("{\"__type\":\"ResourceNotFoundException\"}"));
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(dispatcher);
+    server.start();
+    try (TrafficRecorder recorder = new TrafficRecorder(recording).recordResponseBodies(true)) {
+      GenericAmazonClient client =
+          new GenericAmazonClient(
+                  new OkHttpClient.Builder().addInterceptor(recorder).build(),
+                  new AWSStaticCredentialsProvider(
+                      new BasicSessionCredentials("AKRECORD", "secret", "sessiontoken")))
+              .endpoint("sts", server.url("/"))
+              .endpoint("dynamodb", server.url("/"))
+              .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+      for (int i = 0; i < 20; i++) {
+        client.execute(
+            client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build());
+        client.execute(
+            client
+                .newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables")
+                .parameters(client.objectNode().put("Limit", i + 1))
+                .build());
+      }
+      Assertions.assertThatThrownBy(
+              () ->
+                  client.execute(
+                      client
+                          .newActionBuilder(Regions.US_EAST_1, "dynamodb", "DeleteTable")
+                          .parameters(client.objectNode().put("TableName", "t"))
+                          .build()))
+          .isInstanceOf(AmazonServiceException.class);
+    } finally {
+      server.shutdown();
+    }
+    String recorded = new String(Files.readAllBytes(recording), StandardCharsets.UTF_8);
+    Assertions.assertThat(recorded).doesNotContain("AKRECORD", "sessiontoken", "Authorization");
+
+    TrafficReplay replay = new TrafficReplay(recording).speed(2);
+    Assertions.assertThat(replay.size()).isEqualTo(41);
+    LoadHarness.Report report = replay.run();
+    System.out.println(report);
+    Assertions.assertThat(report.getCount()).isEqualTo(41);
+    Assertions.assertThat(report.getErrors()).isZero();
+    Assertions.assertThat(report.getLatencyMillis(50)).isGreaterThanOrEqualTo(5);
+  }
+
+  @Test
+  public void testRecorderDefaults(@TempDir Path dir) throws IOException {
+    Path recording = dir.resolve("traffic.jsonl");
+    LocalAwsDispatcher dispatcher =
+        new LocalAwsDispatcher()
+            .credentials("AKRECORD", "secret")
+            .action(
+                "AssumeRole",
+                request ->
+                    new MockResponse()
+                        .setBody(
+                            "<AssumeRoleResponse><AssumeRoleResult><Credentials>"
+                                + "<SecretAccessKey>plainsecret</SecretAccessKey>"
+                                + "</Credentials></AssumeRoleResult></AssumeRoleResponse>"))
+            .action(
+                "ListTables",
+                request -> new MockResponse().setChunkedBody("{\"TableNames\":[\"t\"]}", 4));
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(dispatcher);
+    server.start();
+    TrafficRecorder recorder = new TrafficRecorder(recording);
+    try {
+      GenericAmazonClient client =
+          new GenericAmazonClient(
+                  new OkHttpClient.Builder().addInterceptor(recorder).build(),
+                  new AWSStaticCredentialsProvider(
+                      new BasicSessionCredentials("AKRECORD", "secret", "sessiontoken")))
+              .endpoint("sts", server.url("/"))
+              .endpoint("dynamodb", server.url("/"))
+              .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+      client.execute(
+          client
+              .newActionBuilder(Regions.US_EAST_1, "sts", "AssumeRole")
+              .parameters(client.objectNode().put("RoleArn", "arn").put("RoleSessionName", "s"))
+              .build());
+      client.execute(client.newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables").build());
+      recorder.recordResponseBodies(true).maxBodyBytes(8);
+      client.execute(client.newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables").build());
+      recorder.maxBodyBytes(1024);
+      client.execute(client.newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables").build());
+      recorder.close();
+      /* a recorder that can't write must not fail the call */
+      client.execute(client.newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables").build());
+      Assertions.assertThat(recorder.getFailures()).isEqualTo(1);
+    } finally {
+      recorder.close();
+      server.shutdown();
+    }
+    String recorded = new String(Files.readAllBytes(recording), StandardCharsets.UTF_8);
+    Assertions.assertThat(recorded).doesNotContain("plainsecret");
+    ObjectMapper mapper = new ObjectMapper();
+    List<String> lines = Files.readAllLines(recording);
+    Assertions.assertThat(lines).hasSize(4);
+    JsonNode assumeRole = mapper.readTree(lines.get(0));
+    Assertions.assertThat(assumeRole.path("action").asText()).isEqualTo("AssumeRole");
+    Assertions.assertThat(assumeRole.has("requestBody")).isFalse();
+    /* off by default, then an unknown length body that's too long, then one that fits */
+    Assertions.assertThat(mapper.readTree(lines.get(1)).has("responseBody")).isFalse();
+    Assertions.assertThat(mapper.readTree(lines.get(2)).has("responseBody")).isFalse();
+    JsonNode listTables = mapper.readTree(lines.get(3));
+    Assertions.assertThat(listTables.path("responseBytes").asLong()).isEqualTo(-1);
+    Assertions.assertThat(listTables.path("responseBody").asText()).isNotEmpty();
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.List;
+import com.amazonaws.regions.Regions;
+import com.github.slshen.genaws.auth.Credentials;
+import com.github.slshen.genaws.auth.CredentialsProvider;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Measures the time to the first response from a {@link LocalAwsDispatcher} with ({@code warm})
+ * or without ({@code cold}) {@link GenericAmazonClient#warmUp} first. Run each mode in a fresh JVM;
+ * see {@code WarmUpBenchmarkTest}. The stand-in is plain HTTP on localhost, so this doesn't count
+ * the DNS and TLS handshake a real endpoint would add to a cold call.
+ */
+public class WarmUpBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    boolean warm = args.length > 0 && args[0].equals("warm");
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(new LocalAwsDispatcher().credentials("AKWARM", "secret"));
+    server.start();
+    try {
+      GenericAmazonClient client =
+          GenericAmazonClient.create(
+                  GenericAmazonClient.getSharedHttpClient(),
+                  CredentialsProvider.of(new Credentials("AKWARM", "secret")))
+              .endpoint("sts", server.url("/"));
+      if (warm) {
+        client.warmUp(List.of("sts"), List.of(Regions.US_EAST_1));
+      }
+      long start = System.nanoTime();
+      client.execute(
+          client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build());
+      long elapsed = System.nanoTime() - start;
+      System.out.printf("%s %.1f ms%n", warm ? "warm" : "cold", elapsed / 1e6);
+    } finally {
+      server.shutdown();
+      /* warmUp's callbacks run on the shared client's dispatcher threads */
+      GenericAmazonClient.getSharedHttpClient().dispatcher().executorService().shutdown();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag(ForkedBenchmark.TAG)
+public class WarmUpBenchmarkTest {
+  private static final Pattern RESULT = Pattern.compile("(\\w+) ([\\d.]+) ms");
+
+  private double run(String mode) throws IOException, InterruptedException {
+    Matcher m = new ForkedBenchmark(WarmUpBenchmark.class).run(RESULT, mode);
+    return Double.parseDouble(m.group(2));
+  }
+
+  @Test
+  public void testWarmUp() throws IOException, InterruptedException {
+    double cold = run("cold");
+    double warm = run("warm");
+    /* timings vary too much between machines to fail a build on */
+    System.out.printf("time to first response saved %.1f ms%n", cold - warm);
+  }
+}
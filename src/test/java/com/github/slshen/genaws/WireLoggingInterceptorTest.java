@@ -0,0 +1,132 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class WireLoggingInterceptorTest {
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(
+                    new BasicSessionCredentials("AK", "secret", "token")))
+            .endpoint("dynamodb", server.url("/"));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private JsonNode call(WireLoggingInterceptor wireLogging, String action) throws IOException {
+    return call(wireLogging, action, 0);
+  }
+
+  private JsonNode call(WireLoggingInterceptor wireLogging, String action, long delayMillis)
+      throws IOException {
+    return call(wireLogging, action, delayMillis, mapper.createObjectNode());
+  }
+
+  private JsonNode call(
+      WireLoggingInterceptor wireLogging, String action, long delayMillis, ObjectNode parameters)
+      throws IOException {
+    client.wireLogging(wireLogging);
+    server.enqueue(
+        new MockResponse()
+            .setHeadersDelay(delayMillis, TimeUnit.MILLISECONDS)
+            .setHeader("Content-Type", "application/x-amz-json-1.0")
+            .setBody("{\"TableNames\":[\"a\",\"b\",\"c\"]}"));
+    client.execute(
+        client
+            .newActionBuilder(Regions.US_EAST_1, "dynamodb", action)
+            .parameters(parameters)
+            .build());
+    try {
+      String line = lines.poll(500, TimeUnit.MILLISECONDS);
+      return line == null ? null : mapper.readTree(line);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void testRedactsAndCapsBody() throws IOException {
+    JsonNode entry =
+        call(new WireLoggingInterceptor(lines::add, 10).maxBodyBytes(16), "ListTables");
+    Assertions.assertThat(entry.path("service").asText()).isEqualTo("dynamodb");
+    Assertions.assertThat(entry.path("action").asText()).isEqualTo("ListTables");
+    Assertions.assertThat(entry.path("status").asInt()).isEqualTo(200);
+    Assertions.assertThat(entry.path("requestBody").asText()).isEqualTo("{}");
+    Assertions.assertThat(entry.path("responseBody").asText()).hasSize(16);
+    JsonNode headers = entry.path("requestHeaders");
+    Assertions.assertThat(headers.path("Authorization").asText()).isEqualTo("<redacted>");
+    Assertions.assertThat(headers.path("X-Amz-Security-Token").asText()).isEqualTo("<redacted>");
+    Assertions.assertThat(entry.toString()).doesNotContain("secret", "token\"");
+  }
+
+  @Test
+  public void testCapsRequestBody() throws IOException {
+    ObjectNode parameters = mapper.createObjectNode().put("TableName", "t".repeat(100_000));
+    JsonNode entry =
+        call(
+            new WireLoggingInterceptor(lines::add, 10).maxBodyBytes(16),
+            "DescribeTable",
+            0,
+            parameters);
+    Assertions.assertThat(entry.path("requestBody").asText()).isEqualTo("{\"TableName\":\"ttt");
+  }
+
+  @Test
+  public void testSampling() throws IOException {
+    WireLoggingInterceptor wireLogging =
+        new WireLoggingInterceptor(lines::add, 10).sampleRate(0).sampleRate("DescribeTable", 1);
+    Assertions.assertThat(call(wireLogging, "ListTables")).isNull();
+    Assertions.assertThat(call(wireLogging, "DescribeTable")).isNotNull();
+  }
+
+  @Test
+  public void testOnlySlowOrFailed() throws IOException {
+    WireLoggingInterceptor wireLogging =
+        new WireLoggingInterceptor(lines::add, 10).onlySlowOrFailed(Duration.ofMillis(200));
+    Assertions.assertThat(call(wireLogging, "ListTables")).isNull();
+    Assertions.assertThat(call(wireLogging, "ListTables", 300)).isNotNull();
+  }
+}
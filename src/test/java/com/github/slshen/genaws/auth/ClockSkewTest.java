@@ -0,0 +1,92 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class ClockSkewTest {
+  private static final DateTimeFormatter amzDate =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+  /** Rejects requests signed more than five minutes away from the real time. */
+  private static class SkewCheckingDispatcher extends Dispatcher {
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+      ZonedDateTime signed = ZonedDateTime.parse(request.getHeader("X-Amz-Date"), amzDate);
+      MockResponse response =
+          new MockResponse().setHeader("Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(now));
+      if (Duration.between(signed, now).abs().toMinutes() >= 5) {
+        return response
+            .setResponseCode(403)
+            .setBody(
+                "<ErrorResponse><Error><Code>SignatureDoesNotMatch</Code>"
+                    + "<Message>Signature expired</Message></Error></ErrorResponse>");
+      }
+      return response.setBody("<GetCallerIdentityResponse/>");
+    }
+  }
+
+  @Test
+  public void testSkewCorrected() throws IOException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(new SkewCheckingDispatcher());
+    server.start();
+    try {
+      AwsV4SigningInterceptor signer =
+          new AwsV4SigningInterceptor(
+                  new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+              .clock(Clock.offset(Clock.systemUTC(), Duration.ofHours(-1)));
+      OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(signer).build();
+      GenericAmazonClient client = new GenericAmazonClient();
+      for (int i = 0; i < 3; i++) {
+        try (Response response =
+            httpClient
+                .newCall(
+                    client
+                        .newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity")
+                        .endpoint(server.url("/"))
+                        .build())
+                .execute()) {
+          Assertions.assertThat(response.code()).isEqualTo(200);
+        }
+      }
+      /* one rejected request, then everything is signed with the corrected time */
+      Assertions.assertThat(server.getRequestCount()).isEqualTo(4);
+      Assertions.assertThat(signer.getClockSkew(server.getHostName()))
+          .isBetween(TimeUnit.MINUTES.toMillis(59), TimeUnit.MINUTES.toMillis(61));
+    } finally {
+      server.shutdown();
+    }
+  }
+}
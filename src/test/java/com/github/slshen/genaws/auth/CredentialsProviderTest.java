@@ -0,0 +1,233 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.auth;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class CredentialsProviderTest {
+  private static final String CREDENTIALS_JSON =
+      "{\"AccessKeyId\":\"ASIA1\",\"SecretAccessKey\":\"secret\",\"Token\":\"token\","
+          + "\"Expiration\":\"2100-01-01T00:00:00Z\"}";
+
+  @Test
+  public void testEnvironment() {
+    Credentials credentials =
+        new EnvironmentCredentialsProvider(
+                Map.of("AWS_ACCESS_KEY_ID", "AK", "AWS_SECRET_ACCESS_KEY", "secret "))
+            .getCredentials();
+    Assertions.assertThat(credentials.getAccessKeyId()).isEqualTo("AK");
+    Assertions.assertThat(credentials.getSecretKey()).isEqualTo("secret");
+    Assertions.assertThat(credentials.getSessionToken()).isNull();
+  }
+
+  @Test
+  public void testProfile(@TempDir Path dir) throws IOException {
+    Path credentialsFile = dir.resolve("credentials");
+    Path configFile = dir.resolve("config");
+    Files.writeString(
+        credentialsFile,
+        "[default]\naws_access_key_id = AK1\naws_secret_access_key = s1\n\n"
+            + "# comment\n[dev]\naws_access_key_id=AK2\naws_secret_access_key=s2\n"
+            + "aws_session_token=t2\n");
+    Files.writeString(
+        configFile, "[profile other]\naws_access_key_id=AK3\naws_secret_access_key=s3\n");
+    Assertions.assertThat(
+            new ProfileCredentialsProvider(credentialsFile, configFile, "default")
+                .getCredentials()
+                .getAccessKeyId())
+        .isEqualTo("AK1");
+    Credentials dev =
+        new ProfileCredentialsProvider(credentialsFile, configFile, "dev").getCredentials();
+    Assertions.assertThat(dev.getAccessKeyId()).isEqualTo("AK2");
+    Assertions.assertThat(dev.getSessionToken()).isEqualTo("t2");
+    Assertions.assertThat(
+            new ProfileCredentialsProvider(credentialsFile, configFile, "other")
+                .getCredentials()
+                .getSecretKey())
+        .isEqualTo("s3");
+    Assertions.assertThatThrownBy(
+            () -> new ProfileCredentialsProvider(credentialsFile, configFile, "x").getCredentials())
+        .isInstanceOf(CredentialsException.class);
+  }
+
+  @Test
+  public void testContainer() throws IOException, InterruptedException {
+    MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody(CREDENTIALS_JSON));
+    server.start();
+    try {
+      ContainerCredentialsProvider provider =
+          new ContainerCredentialsProvider(server.url("/v2/credentials/abc"), "Bearer x");
+      Assertions.assertThat(provider.getCredentials().getSessionToken()).isEqualTo("token");
+      /* cached until it's about to expire */
+      Assertions.assertThat(provider.getCredentials().getAccessKeyId()).isEqualTo("ASIA1");
+      Assertions.assertThat(server.getRequestCount()).isEqualTo(1);
+      Assertions.assertThat(server.takeRequest().getHeader("Authorization")).isEqualTo("Bearer x");
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testInstanceMetadata() throws IOException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            if (request.getMethod().equals("PUT")
+                && request.getPath().equals("/latest/api/token")) {
+              return new MockResponse().setBody("session");
+            }
+            if (!"session".equals(request.getHeader("X-aws-ec2-metadata-token"))) {
+              return new MockResponse().setResponseCode(401);
+            }
+            switch (request.getPath()) {
+              case "/latest/meta-data/iam/security-credentials/":
+                return new MockResponse().setBody("my-role\n");
+              case "/latest/meta-data/iam/security-credentials/my-role":
+                return new MockResponse().setBody(CREDENTIALS_JSON);
+              default:
+                return new MockResponse().setResponseCode(404);
+            }
+          }
+        });
+    server.start();
+    try {
+      Credentials credentials =
+          new InstanceMetadataCredentialsProvider(server.url("/")).getCredentials();
+      Assertions.assertThat(credentials.getAccessKeyId()).isEqualTo("ASIA1");
+      Assertions.assertThat(credentials.getExpiration().toString())
+          .isEqualTo("2100-01-01T00:00:00Z");
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testWebIdentity(@TempDir Path dir) throws IOException, InterruptedException {
+    Path tokenFile = dir.resolve("token");
+    Files.writeString(tokenFile, "jwt\n");
+    MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                "<AssumeRoleWithWebIdentityResponse"
+                    + " xmlns=\"https://sts.amazonaws.com/doc/2011-06-15/\">"
+                    + "<AssumeRoleWithWebIdentityResult><AssumedRoleUser><Arn>arn</Arn>"
+                    + "</AssumedRoleUser><Credentials><AccessKeyId>ASIA2</AccessKeyId>"
+                    + "<SecretAccessKey>secret</SecretAccessKey><SessionToken>token</SessionToken>"
+                    + "<Expiration>2100-01-01T00:00:00Z</Expiration></Credentials>"
+                    + "</AssumeRoleWithWebIdentityResult></AssumeRoleWithWebIdentityResponse>"));
+    server.start();
+    try {
+      Credentials credentials =
+          new WebIdentityCredentialsProvider(
+                  server.url("/"), "arn:aws:iam::123456789012:role/r", tokenFile, "session")
+              .getCredentials();
+      Assertions.assertThat(credentials.getAccessKeyId()).isEqualTo("ASIA2");
+      Assertions.assertThat(credentials.getSessionToken()).isEqualTo("token");
+      Assertions.assertThat(credentials.getExpiration().toString())
+          .isEqualTo("2100-01-01T00:00:00Z");
+      String body = server.takeRequest().getBody().readUtf8();
+      Assertions.assertThat(body)
+          .contains("Action=AssumeRoleWithWebIdentity", "RoleSessionName=session")
+          .contains("WebIdentityToken=jwt&")
+          .contains("RoleArn=arn%3Aaws%3Aiam%3A%3A123456789012%3Arole%2Fr");
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testSdkExceptions() throws IOException {
+    AWSCredentialsProvider failing =
+        new AWSCredentialsProvider() {
+          @Override
+          public AWSCredentials getCredentials() {
+            throw new AmazonClientException("no sdk credentials");
+          }
+
+          @Override
+          public void refresh() {}
+        };
+    Assertions.assertThatThrownBy(() -> new SdkCredentialsProvider(failing).getCredentials())
+        .isInstanceOf(CredentialsException.class)
+        .hasMessage("no sdk credentials");
+    CredentialsProvider none =
+        () -> {
+          throw new CredentialsException("no credentials");
+        };
+    Assertions.assertThatThrownBy(() -> SdkCredentialsProvider.toSdk(none).getCredentials())
+        .isInstanceOf(AmazonClientException.class)
+        .hasCauseInstanceOf(CredentialsException.class);
+    /* the client reports a credentials failure like its other failures */
+    MockWebServer server = new MockWebServer();
+    server.start();
+    try {
+      GenericAmazonClient client =
+          GenericAmazonClient.create(new OkHttpClient(), none).endpoint("sts", server.url("/"));
+      Request request =
+          client.newActionBuilder(Regions.US_EAST_1, "sts", "GetCallerIdentity").build();
+      Assertions.assertThatThrownBy(() -> client.execute(request))
+          .isInstanceOf(AmazonClientException.class)
+          .hasCauseInstanceOf(CredentialsException.class);
+      Assertions.assertThat(server.getRequestCount()).isZero();
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testClientCredentialsGetters() {
+    Assertions.assertThat(new GenericAmazonClient().getSigningCredentialsProvider())
+        .isInstanceOf(DefaultCredentialsProvider.class);
+    AWSStaticCredentialsProvider sdk =
+        new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret"));
+    GenericAmazonClient client = new GenericAmazonClient(sdk);
+    Assertions.assertThat(client.getCredentialsProvider()).isSameAs(sdk);
+    Assertions.assertThat(client.getSigningCredentialsProvider().getCredentials().getAccessKeyId())
+        .isEqualTo("AK");
+    GenericAmazonClient own =
+        GenericAmazonClient.create(
+            CredentialsProvider.of(new Credentials("ASIA1", "secret", "token", null)));
+    AWSSessionCredentials credentials =
+        (AWSSessionCredentials) own.getCredentialsProvider().getCredentials();
+    Assertions.assertThat(credentials.getAWSAccessKeyId()).isEqualTo("ASIA1");
+    Assertions.assertThat(credentials.getSessionToken()).isEqualTo("token");
+    GenericAmazonClient anonymous = new GenericAmazonClient(new OkHttpClient(), null);
+    Assertions.assertThat(anonymous.getCredentialsProvider()).isNull();
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.dynamodb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.GenericAmazonClient;
+import com.github.slshen.genaws.LocalAwsDispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class ParallelScanTest {
+  private static final int ITEMS = 500;
+  private static final int PAGE = 20;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final AtomicInteger throttles = new AtomicInteger(3);
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(
+        new LocalAwsDispatcher().credentials("AKSCAN", "secret").action("Scan", this::scan));
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKSCAN", "secret")))
+            .endpoint("dynamodb", server.url("/"))
+            .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  /* Items 0 to ITEMS - 1, segment s has the ids congruent to s. */
+  private MockResponse scan(RecordedRequest request) {
+    if (throttles.getAndDecrement() > 0) {
+      return new MockResponse()
+          .setResponseCode(400)
+          .setBody(
+              "{\"__type\":\"com.amazonaws.dynamodb.v20120810#"
+                  + "ProvisionedThroughputExceededException\",\"message\":\"slow down\"}");
+    }
+    try {
+      JsonNode params = mapper.readTree(request.getBody().readUtf8());
+      int segment = params.path("Segment").asInt();
+      int total = params.path("TotalSegments").asInt();
+      JsonNode startKey = params.path("ExclusiveStartKey").path("id").path("N");
+      int id = startKey.isMissingNode() ? segment : startKey.asInt() + total;
+      ObjectNode page = mapper.createObjectNode();
+      int last = -1;
+      for (int n = 0; n < PAGE && id < ITEMS; n++, id += total) {
+        page.withArray("Items").addObject().putObject("id").put("N", Integer.toString(id));
+        last = id;
+      }
+      if (id < ITEMS) {
+        page.putObject("LastEvaluatedKey").putObject("id").put("N", Integer.toString(last));
+      }
+      return new MockResponse().setBody(page.toString());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  @Timeout(30)
+  public void testScansEverySegment() {
+    Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    ParallelScan scan = new ParallelScan(client, Regions.US_EAST_1, "t").totalSegments(4);
+    long count = scan.scan(item -> ids.add(item.path("id").path("N").asInt()));
+    Assertions.assertThat(count).isEqualTo(ITEMS);
+    Assertions.assertThat(ids).hasSize(ITEMS);
+    Assertions.assertThat(throttles.get()).isNegative();
+  }
+
+  @Test
+  @Timeout(30)
+  public void testResumesFromCheckpoint(@TempDir Path dir) {
+    throttles.set(0);
+    Path checkpoint = dir.resolve("scan.json");
+    Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    ParallelScan scan =
+        new ParallelScan(client, Regions.US_EAST_1, "t")
+            .totalSegments(4)
+            .bufferSize(10)
+            .checkpoint(checkpoint);
+    AtomicInteger consumed = new AtomicInteger();
+    Assertions.assertThatThrownBy(
+            () ->
+                scan.scan(
+                    item -> {
+                      if (consumed.incrementAndGet() > 200) {
+                        throw new IllegalStateException("stop");
+                      }
+                      ids.add(item.path("id").path("N").asInt());
+                    }))
+        .hasMessage("stop");
+    Assertions.assertThat(checkpoint).exists();
+
+    long count = scan.scan(item -> ids.add(item.path("id").path("N").asInt()));
+    Assertions.assertThat(count).isLessThan(ITEMS);
+    Assertions.assertThat(ids).hasSize(ITEMS);
+    Assertions.assertThat(Files.exists(checkpoint)).isFalse();
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.eventstream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import okio.Buffer;
+import okio.ByteString;
+
+public class EventStreamDecoderTest {
+
+  private static ByteString encode(String eventType, String payload) {
+    Buffer headers = new Buffer();
+    writeStringHeader(headers, ":message-type", "event");
+    writeStringHeader(headers, ":event-type", eventType);
+    headers.writeByte(":seq".length()).writeUtf8(":seq").writeByte(4).writeInt(42);
+    Buffer payloadBytes = new Buffer().writeUtf8(payload);
+    int totalLength = 12 + (int) headers.size() + (int) payloadBytes.size() + 4;
+    Buffer prelude = new Buffer().writeInt(totalLength).writeInt((int) headers.size());
+    CRC32 crc = new CRC32();
+    crc.update(prelude.snapshot().toByteArray());
+    Buffer message = new Buffer().write(prelude.snapshot()).writeInt((int) crc.getValue());
+    message.writeAll(headers);
+    message.writeAll(payloadBytes);
+    crc.reset();
+    crc.update(message.snapshot().toByteArray());
+    return message.writeInt((int) crc.getValue()).readByteString();
+  }
+
+  private static void writeStringHeader(Buffer b, String name, String value) {
+    b.writeByte(name.length()).writeUtf8(name).writeByte(7).writeShort(value.length());
+    b.writeUtf8(value);
+  }
+
+  @Test
+  public void testDecode() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      large.append("record ").append(i);
+    }
+    Buffer source =
+        new Buffer().write(encode("Records", "{}")).write(encode("Stats", large.toString()));
+    List<String> events = new ArrayList<>();
+    new EventStreamDecoder()
+        .decode(
+            source,
+            message -> {
+              Assertions.assertThat(message.getMessageType()).isEqualTo("event");
+              Assertions.assertThat(message.getHeader(":seq")).isEqualTo(42);
+              events.add(message.getEventType() + ":" + message.getPayload().readUtf8());
+            });
+    Assertions.assertThat(events).containsExactly("Records:{}", "Stats:" + large);
+  }
+
+  @Test
+  public void testChecksum() {
+    ByteString message = encode("Records", "{\"a\":1}");
+    Buffer corrupt =
+        new Buffer()
+            .write(message.substring(0, message.size() - 6))
+            .writeUtf8("2}")
+            .write(message.substring(message.size() - 4));
+    Assertions.assertThatThrownBy(() -> new EventStreamDecoder().next(corrupt))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("checksum");
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.s3;
+
+import java.io.EOFException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ByteString;
+
+/** Just enough of S3 to test transfers, objects are kept in memory. Path-style only. */
+class LocalS3Dispatcher extends Dispatcher {
+  final Map<String, ByteString> objects = new ConcurrentHashMap<>();
+  final Map<String, SortedMap<Integer, ByteString>> uploads = new ConcurrentHashMap<>();
+  final AtomicInteger partUploads = new AtomicInteger();
+  final AtomicInteger rangeRequests = new AtomicInteger();
+  private final AtomicInteger nextUploadId = new AtomicInteger();
+  private final Map<Integer, AtomicInteger> partFailures = new ConcurrentHashMap<>();
+  /* answer HEAD without a Content-Length, as some proxies do */
+  volatile boolean headWithoutLength;
+  /* throttle failed parts rather than reject them */
+  volatile boolean slowDown;
+
+  /** Reject the next {@code times} uploads of a part with a 400, or a 503 if {@link #slowDown}. */
+  void failPart(int partNumber, int times) {
+    partFailures.put(partNumber, new AtomicInteger(times));
+  }
+
+  @Override
+  public MockResponse dispatch(RecordedRequest request) {
+    try {
+      return handle(request);
+    } catch (EOFException e) {
+      return new MockResponse().setResponseCode(400);
+    }
+  }
+
+  private MockResponse handle(RecordedRequest request) throws EOFException {
+    HttpUrl url = request.getRequestUrl();
+    List<String> segments = url.pathSegments();
+    String objectName = String.join("/", segments);
+    String uploadId = url.queryParameter("uploadId");
+    switch (request.getMethod()) {
+      case "HEAD":
+        {
+          ByteString object = objects.get(objectName);
+          if (object == null) {
+            return new MockResponse().setResponseCode(404);
+          }
+          MockResponse response = new MockResponse().setHeader("ETag", etag(object));
+          return headWithoutLength
+              ? response.removeHeader("Content-Length")
+              : response.setHeader("Content-Length", object.size());
+        }
+      case "GET":
+        {
+          ByteString object = objects.get(objectName);
+          if (object == null) {
+            return error(404, "NoSuchKey");
+          }
+          String ifMatch = request.getHeader("If-Match");
+          if (ifMatch != null && !ifMatch.equals(etag(object))) {
+            return error(412, "PreconditionFailed");
+          }
+          String range = request.getHeader("Range");
+          if (range == null) {
+            return new MockResponse().setBody(new Buffer().write(object));
+          }
+          rangeRequests.incrementAndGet();
+          Matcher m = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(range);
+          if (!m.matches()) {
+            return error(416, "InvalidRange");
+          }
+          int start = Integer.parseInt(m.group(1));
+          int end = Math.min(Integer.parseInt(m.group(2)) + 1, object.size());
+          return new MockResponse()
+              .setResponseCode(206)
+              .setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + object.size())
+              .setBody(new Buffer().write(object.substring(start, end)));
+        }
+      case "PUT":
+        {
+          ByteString data = getBody(request);
+          if (uploadId == null) {
+            objects.put(objectName, data);
+            return new MockResponse().setHeader("ETag", etag(data));
+          }
+          SortedMap<Integer, ByteString> parts = uploads.get(uploadId);
+          if (parts == null) {
+            return error(404, "NoSuchUpload");
+          }
+          int partNumber = Integer.parseInt(url.queryParameter("partNumber"));
+          AtomicInteger failures = partFailures.get(partNumber);
+          if (failures != null && failures.getAndDecrement() > 0) {
+            return slowDown ? error(503, "SlowDown") : error(400, "InvalidPart");
+          }
+          partUploads.incrementAndGet();
+          parts.put(partNumber, data);
+          return new MockResponse().setHeader("ETag", etag(data));
+        }
+      case "POST":
+        {
+          if (url.queryParameter("uploads") != null) {
+            String id = "upload-" + nextUploadId.incrementAndGet();
+            uploads.put(id, new TreeMap<>());
+            return new MockResponse()
+                .setBody(
+                    "<InitiateMultipartUploadResult><Bucket>"
+                        + segments.get(0)
+                        + "</Bucket><UploadId>"
+                        + id
+                        + "</UploadId></InitiateMultipartUploadResult>");
+          }
+          SortedMap<Integer, ByteString> parts = uploads.remove(uploadId);
+          if (parts == null) {
+            return error(404, "NoSuchUpload");
+          }
+          Buffer object = new Buffer();
+          Matcher m =
+              Pattern.compile("<PartNumber>(\\d+)</PartNumber>")
+                  .matcher(request.getBody().readUtf8());
+          while (m.find()) {
+            object.write(parts.get(Integer.parseInt(m.group(1))));
+          }
+          ByteString data = object.readByteString();
+          objects.put(objectName, data);
+          return new MockResponse()
+              .setBody(
+                  "<CompleteMultipartUploadResult><ETag>"
+                      + etag(data)
+                      + "</ETag></CompleteMultipartUploadResult>");
+        }
+      case "DELETE":
+        if (uploadId != null) {
+          uploads.remove(uploadId);
+        } else {
+          objects.remove(objectName);
+        }
+        return new MockResponse().setResponseCode(204);
+      default:
+        return error(405, "MethodNotAllowed");
+    }
+  }
+
+  private static ByteString getBody(RecordedRequest request) throws EOFException {
+    Buffer body = request.getBody();
+    if (!"aws-chunked".equals(request.getHeader("Content-Encoding"))) {
+      return body.readByteString();
+    }
+    Buffer decoded = new Buffer();
+    while (true) {
+      String line = body.readUtf8LineStrict();
+      long size = Long.parseLong(line.substring(0, line.indexOf(';')), 16);
+      decoded.write(body, size);
+      body.readUtf8LineStrict();
+      if (size == 0) {
+        return decoded.readByteString();
+      }
+    }
+  }
+
+  private static String etag(ByteString data) {
+    return "\"" + data.md5().hex() + "\"";
+  }
+
+  private static MockResponse error(int code, String errorCode) {
+    return new MockResponse()
+        .setResponseCode(code)
+        .setBody(
+            "<Error><Code>" + errorCode + "</Code><Message>" + errorCode + "</Message></Error>");
+  }
+}
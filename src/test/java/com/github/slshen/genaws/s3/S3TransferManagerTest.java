@@ -0,0 +1,171 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+public class S3TransferManagerTest {
+  private static final int MB = 1024 * 1024;
+  private MockWebServer server;
+  private LocalS3Dispatcher s3;
+  private GenericAmazonClient client;
+  private S3TransferManager transferManager;
+  @TempDir Path tmp;
+
+  @BeforeEach
+  public void start() throws IOException {
+    s3 = new LocalS3Dispatcher();
+    server = new MockWebServer();
+    server.setDispatcher(s3);
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKID", "secret")))
+            .endpoint("s3", server.url("/"));
+    transferManager =
+        new S3TransferManager(client, Regions.US_WEST_2)
+            .pathStyle(true)
+            .partSize(5 * MB)
+            .concurrency(4);
+  }
+
+  @AfterEach
+  public void stop() throws IOException {
+    transferManager.close();
+    server.shutdown();
+  }
+
+  private byte[] randomBytes(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] data = randomBytes(17 * MB + 123);
+    Path source = Files.write(tmp.resolve("source"), data);
+    transferManager.upload("bucket", "a/b", source);
+    Assertions.assertThat(s3.partUploads.get()).isEqualTo(4);
+    Assertions.assertThat(s3.objects.get("bucket/a/b")).isEqualTo(ByteString.of(data));
+
+    Path target = tmp.resolve("target");
+    transferManager.download("bucket", "a/b", target);
+    Assertions.assertThat(s3.rangeRequests.get()).isEqualTo(4);
+    Assertions.assertThat(Files.readAllBytes(target)).isEqualTo(data);
+  }
+
+  @Test
+  public void testSmallObject() throws IOException {
+    byte[] data = randomBytes(1000);
+    transferManager.upload("bucket", "small", Files.write(tmp.resolve("source"), data));
+    Assertions.assertThat(s3.partUploads.get()).isEqualTo(0);
+    Path target = tmp.resolve("target");
+    transferManager.download("bucket", "small", target);
+    Assertions.assertThat(Files.readAllBytes(target)).isEqualTo(data);
+  }
+
+  @Test
+  public void testStreamUpload() {
+    byte[] data = randomBytes(12 * MB);
+    transferManager.maxInFlightBytes(10 * MB);
+    transferManager.upload("bucket", "stream", new ByteArrayInputStream(data));
+    Assertions.assertThat(s3.partUploads.get()).isEqualTo(3);
+    Assertions.assertThat(s3.objects.get("bucket/stream")).isEqualTo(ByteString.of(data));
+  }
+
+  @Test
+  public void testDownloadWithoutLength() throws IOException {
+    byte[] data = randomBytes(7 * MB);
+    transferManager.upload("bucket", "unknown", Files.write(tmp.resolve("source"), data));
+    s3.headWithoutLength = true;
+    Path target = tmp.resolve("target");
+    transferManager.download("bucket", "unknown", target);
+    Assertions.assertThat(s3.rangeRequests.get()).isZero();
+    Assertions.assertThat(Files.readAllBytes(target)).isEqualTo(data);
+  }
+
+  @Test
+  public void testMaxInFlightBytes() {
+    Assertions.assertThatThrownBy(() -> transferManager.maxInFlightBytes(MB))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testPartBackoff() throws IOException {
+    client.retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+    List<Integer> backoffs = new CopyOnWriteArrayList<>();
+    transferManager
+        .partRetries(2)
+        .partBackoff(
+            (request, e, retries) -> {
+              Assertions.assertThat(((AmazonServiceException) e).getErrorCode())
+                  .isEqualTo("SlowDown");
+              backoffs.add(retries);
+              return 10;
+            });
+    s3.slowDown = true;
+    s3.failPart(2, 2);
+    byte[] data = randomBytes(12 * MB);
+    transferManager.upload("bucket", "slow", Files.write(tmp.resolve("source"), data));
+    Assertions.assertThat(backoffs).containsExactly(0, 1);
+    Assertions.assertThat(s3.objects.get("bucket/slow")).isEqualTo(ByteString.of(data));
+  }
+
+  @Test
+  public void testConcurrencyFixedOnceStarted() throws IOException {
+    transferManager.concurrency(2);
+    transferManager.upload("bucket", "x", Files.write(tmp.resolve("source"), randomBytes(6 * MB)));
+    Assertions.assertThatThrownBy(() -> transferManager.concurrency(8))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    byte[] data = randomBytes(16 * MB);
+    Path source = Files.write(tmp.resolve("source"), data);
+    Path state = tmp.resolve("state.json");
+    // the last part fails so the others have all finished
+    s3.failPart(4, 1);
+    Assertions.assertThatThrownBy(() -> transferManager.upload("bucket", "r", source, state))
+        .isInstanceOf(AmazonServiceException.class);
+    Assertions.assertThat(state).exists();
+    Assertions.assertThat(s3.partUploads.get()).isEqualTo(3);
+
+    transferManager.upload("bucket", "r", source, state);
+    Assertions.assertThat(s3.partUploads.get()).isEqualTo(4);
+    Assertions.assertThat(state).doesNotExist();
+    Assertions.assertThat(s3.objects.get("bucket/r")).isEqualTo(ByteString.of(data));
+  }
+}
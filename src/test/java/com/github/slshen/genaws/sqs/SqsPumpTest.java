@@ -0,0 +1,221 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.sqs;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.github.slshen.genaws.GenericAmazonClient;
+import com.github.slshen.genaws.LocalAwsDispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class SqsPumpTest {
+  private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/123/q";
+  private final AtomicInteger nextMessage = new AtomicInteger();
+  private final AtomicInteger maxRequested = new AtomicInteger();
+  private final AtomicInteger maxBatch = new AtomicInteger();
+  private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+  private final Map<String, String> visibility = new ConcurrentHashMap<>();
+  private volatile int available;
+  private volatile long receiveDelayMillis;
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(
+        new LocalAwsDispatcher()
+            .credentials("AKSQS", "secret")
+            .action("ReceiveMessage", this::receiveMessage)
+            .action("DeleteMessageBatch", this::deleteMessageBatch)
+            .action("ChangeMessageVisibilityBatch", this::changeMessageVisibilityBatch));
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AKSQS", "secret")))
+            .endpoint("sqs", server.url("/"))
+            .retryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private static Map<String, String> form(RecordedRequest request) {
+    Map<String, String> form = new HashMap<>();
+    for (String pair : request.getBody().readUtf8().split("&")) {
+      int eq = pair.indexOf('=');
+      form.put(
+          URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+          URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+    }
+    return form;
+  }
+
+  /* Hands out messages while there are any, otherwise "waits" briefly and returns none. */
+  private MockResponse receiveMessage(RecordedRequest request) {
+    Map<String, String> form = form(request);
+    int max = Integer.parseInt(form.get("MaxNumberOfMessages"));
+    maxRequested.accumulateAndGet(max, Math::max);
+    StringBuilder xml = new StringBuilder("<ReceiveMessageResponse><ReceiveMessageResult>");
+    for (int i = 0; i < max; i++) {
+      int n = nextMessage.getAndIncrement();
+      if (n >= available) {
+        nextMessage.decrementAndGet();
+        break;
+      }
+      xml.append("<Message><MessageId>m")
+          .append(n)
+          .append("</MessageId><ReceiptHandle>r")
+          .append(n)
+          .append("</ReceiptHandle><Body>body ")
+          .append(n)
+          .append("</Body><Attribute><Name>ApproximateReceiveCount</Name><Value>1</Value>")
+          .append("</Attribute></Message>");
+    }
+    xml.append("</ReceiveMessageResult></ReceiveMessageResponse>");
+    MockResponse response = new MockResponse().setBody(xml.toString());
+    if (receiveDelayMillis > 0) {
+      response.setBodyDelay(receiveDelayMillis, TimeUnit.MILLISECONDS);
+    } else if (xml.indexOf("<Message>") < 0) {
+      response.setBodyDelay(20, TimeUnit.MILLISECONDS);
+    }
+    return response;
+  }
+
+  private MockResponse deleteMessageBatch(RecordedRequest request) {
+    Map<String, String> form = form(request);
+    int n = 0;
+    for (; form.containsKey("DeleteMessageBatchRequestEntry." + (n + 1) + ".Id"); n++) {
+      deleted.add(form.get("DeleteMessageBatchRequestEntry." + (n + 1) + ".ReceiptHandle"));
+    }
+    maxBatch.accumulateAndGet(n, Math::max);
+    return new MockResponse()
+        .setBody(
+            "<DeleteMessageBatchResponse><DeleteMessageBatchResult/>"
+                + "</DeleteMessageBatchResponse>");
+  }
+
+  private MockResponse changeMessageVisibilityBatch(RecordedRequest request) {
+    Map<String, String> form = form(request);
+    String prefix = "ChangeMessageVisibilityBatchRequestEntry.";
+    for (int n = 1; form.containsKey(prefix + n + ".Id"); n++) {
+      visibility.put(
+          form.get(prefix + n + ".ReceiptHandle"), form.get(prefix + n + ".VisibilityTimeout"));
+    }
+    return new MockResponse()
+        .setBody(
+            "<ChangeMessageVisibilityBatchResponse><ChangeMessageVisibilityBatchResult/>"
+                + "</ChangeMessageVisibilityBatchResponse>");
+  }
+
+  @Test
+  public void testReceiveAndDelete() throws InterruptedException {
+    available = 95;
+    try (SqsPump pump =
+        new SqsPump(client, Regions.US_EAST_1, QUEUE_URL).receivers(3).bufferSize(25).start()) {
+      for (int i = 0; i < available; i++) {
+        SqsMessage message = pump.poll(Duration.ofSeconds(5));
+        Assertions.assertThat(message).isNotNull();
+        Assertions.assertThat(message.getBody())
+            .isEqualTo("body " + message.getMessageId().substring(1));
+        Assertions.assertThat(message.getAttribute("ApproximateReceiveCount")).isEqualTo("1");
+        pump.delete(message);
+      }
+      Assertions.assertThat(pump.getReceived()).isEqualTo(available);
+    }
+    Assertions.assertThat(deleted).hasSize(95);
+    Assertions.assertThat(maxBatch.get()).isBetween(2, 10);
+    Assertions.assertThat(maxRequested.get()).isLessThanOrEqualTo(10);
+    Assertions.assertThat(visibility).isEmpty();
+  }
+
+  @Test
+  public void testCloseReleasesPrefetched() throws InterruptedException {
+    available = 6;
+    SqsPump pump =
+        new SqsPump(client, Regions.US_EAST_1, QUEUE_URL).receivers(2).bufferSize(5).start();
+    SqsMessage first = pump.take();
+    pump.delete(first);
+    /* the buffer refills to five */
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pump.getReceived() < 6 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assertions.assertThat(pump.getReceived()).isEqualTo(6);
+    SqsMessage second = pump.take();
+    pump.close();
+    Assertions.assertThat(deleted).containsExactly(first.getReceiptHandle());
+    /* the four buffered messages are released, the one being processed is left alone */
+    Assertions.assertThat(visibility).hasSize(4).containsValue("0");
+    Assertions.assertThat(visibility).doesNotContainKey(second.getReceiptHandle());
+    Assertions.assertThat(pump.getFailures()).isZero();
+  }
+
+  @Test
+  public void testReceiveAfterCloseIsReleased() throws InterruptedException {
+    available = 3;
+    receiveDelayMillis = 500;
+    SqsPump pump = new SqsPump(client, Regions.US_EAST_1, QUEUE_URL).receivers(1).start();
+    /* close while the first receive is waiting for its response */
+    server.takeRequest();
+    pump.close();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (visibility.size() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assertions.assertThat(pump.getReceived()).isEqualTo(3);
+    Assertions.assertThat(visibility).containsOnlyKeys("r0", "r1", "r2");
+    Assertions.assertThat(visibility.values()).containsOnly("0");
+  }
+
+  @Test
+  public void testExtendVisibility() throws InterruptedException {
+    available = 1;
+    try (SqsPump pump =
+        new SqsPump(client, Regions.US_EAST_1, QUEUE_URL)
+            .receivers(1)
+            .visibilityTimeoutSeconds(3)
+            .start()) {
+      SqsMessage message = pump.take();
+      /* still processing when less than two seconds of the timeout are left */
+      Thread.sleep(2500);
+      Assertions.assertThat(visibility).containsEntry(message.getReceiptHandle(), "3");
+      pump.delete(message);
+    }
+    Assertions.assertThat(deleted).containsExactly("r0");
+  }
+}
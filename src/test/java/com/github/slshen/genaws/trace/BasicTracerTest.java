@@ -0,0 +1,138 @@
+// Copyright 2019 Sam Shen
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.slshen.genaws.trace;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.slshen.genaws.GenericAmazonActionBuilder;
+import com.github.slshen.genaws.GenericAmazonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class BasicTracerTest {
+  private final List<ObjectNode> spans = new CopyOnWriteArrayList<>();
+  private MockWebServer server;
+  private GenericAmazonClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client =
+        new GenericAmazonClient(
+                new OkHttpClient(),
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("AK", "secret")))
+            .endpoint("dynamodb", server.url("/"))
+            .retryPolicy(
+                new RetryPolicy(
+                    PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                    (request, e, retries) -> 10,
+                    3,
+                    false));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private GenericAmazonActionBuilder listTables() {
+    return client
+        .newActionBuilder(Regions.US_EAST_1, "dynamodb", "ListTables")
+        .parameters(client.objectNode());
+  }
+
+  private static List<String> events(JsonNode span) {
+    return StreamSupport.stream(span.path("events").spliterator(), false)
+        .map(event -> event.path("name").asText())
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testSpansPerCallAndAttempt() throws InterruptedException {
+    client.tracer(new BasicTracer(spans::add));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setHeader("x-amzn-RequestId", "req-1").setBody("{}"));
+    client.execute(listTables().build());
+
+    Assertions.assertThat(spans).hasSize(3);
+    ObjectNode call = spans.get(2);
+    ObjectNode first = spans.get(0);
+    ObjectNode second = spans.get(1);
+    Assertions.assertThat(call.path("name").asText()).isEqualTo("dynamodb.ListTables");
+    Assertions.assertThat(call.has("error")).isFalse();
+    for (ObjectNode attempt : List.of(first, second)) {
+      Assertions.assertThat(attempt.path("traceId")).isEqualTo(call.path("traceId"));
+      Assertions.assertThat(attempt.path("parentId")).isEqualTo(call.path("spanId"));
+    }
+    Assertions.assertThat(first.has("error")).isTrue();
+    Assertions.assertThat(second.path("tags").path("aws.request_id").asText()).isEqualTo("req-1");
+    Assertions.assertThat(events(second))
+        .containsExactly("signed", "connected", "response", "handled");
+
+    server.takeRequest();
+    RecordedRequest request = server.takeRequest();
+    String traceId = call.path("traceId").asText();
+    Assertions.assertThat(request.getHeader("X-Amzn-Trace-Id"))
+        .isEqualTo(
+            "Root=1-"
+                + traceId.substring(0, 8)
+                + "-"
+                + traceId.substring(8)
+                + ";Parent="
+                + second.path("spanId").asText()
+                + ";Sampled=1");
+    Assertions.assertThat(request.getHeader("Authorization")).contains("x-amzn-trace-id");
+  }
+
+  @Test
+  public void testJoinsW3cTrace() throws InterruptedException {
+    client.tracer(new BasicTracer(spans::add).propagation(BasicTracer.Propagation.W3C));
+    server.enqueue(new MockResponse().setBody("{}"));
+    String traceId = "4bf92f3577b34da6a3ce929d0e0e4736";
+    client.execute(
+        listTables().header("traceparent", "00-" + traceId + "-00f067aa0ba902b7-01").build());
+    ObjectNode call = spans.get(spans.size() - 1);
+    Assertions.assertThat(call.path("traceId").asText()).isEqualTo(traceId);
+    Assertions.assertThat(call.path("parentId").asText()).isEqualTo("00f067aa0ba902b7");
+    Assertions.assertThat(server.takeRequest().getHeader("traceparent"))
+        .isEqualTo("00-" + traceId + "-" + spans.get(0).path("spanId").asText() + "-01");
+  }
+
+  @Test
+  public void testUnsampled() throws InterruptedException {
+    client.tracer(new BasicTracer(spans::add).sampleRate(0));
+    server.enqueue(new MockResponse().setBody("{}"));
+    client.execute(listTables().build());
+    Assertions.assertThat(spans).isEmpty();
+    Assertions.assertThat(server.takeRequest().getHeader("X-Amzn-Trace-Id")).isNull();
+  }
+}